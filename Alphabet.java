@@ -1,6 +1,6 @@
 package enigma;
 
-import java.util.HashMap;
+import java.util.Arrays;
 import static enigma.EnigmaException.*;
 
 
@@ -18,17 +18,18 @@ class Alphabet {
             throw error("Alphabet has length zero.");
         }
         _alphArray = new char[chars.length()];
-        _alphHashMap = new HashMap<Character, Integer>();
+        _indices = new int[ASCII_SIZE];
+        Arrays.fill(_indices, -1);
         for (int i = 0; i < _alphArray.length; i += 1) {
             char c = chars.charAt(i);
             if (!((c >= '!' && c <= '\'') || (c >= '+' && c <= '~'))) {
                 throw error("Invalid character in alphabet.");
             }
+            if (_indices[c] >= 0) {
+                throw error("Duplicate alphabet characters are not allowed!");
+            }
             _alphArray[i] = c;
-            _alphHashMap.put(c, i);
-        }
-        if (_alphHashMap.size() != _alphArray.length) {
-            throw error("Duplicate alphabet characters are not allowed!");
+            _indices[c] = i;
         }
     }
 
@@ -37,6 +38,52 @@ class Alphabet {
         this("ABCDEFGHIJKLMNOPQRSTUVWXYZ");
     }
 
+    /** An alphabet of the SIZE characters 0 to SIZE - 1, each of which is
+     *  its own index. */
+    private Alphabet(int size) {
+        _alphArray = new char[size];
+        _indices = new int[size];
+        for (int i = 0; i < size; i += 1) {
+            _alphArray[i] = (char) i;
+            _indices[i] = i;
+        }
+    }
+
+    /** Return the alphabet of all 256 byte values, in which every byte
+     *  (as a character) is its own index.  Configuration files select it
+     *  with the alphabet BYTES_NAME, and write its characters as pairs of
+     *  hexadecimal digits in cycles, notches and setting lines. */
+    static Alphabet bytes() {
+        return BYTES;
+    }
+
+    /** Return true iff I am the alphabet of all bytes. */
+    boolean isBytes() {
+        return this == BYTES;
+    }
+
+    /** Return the characters written as TOKEN in a configuration or
+     *  setting line: TOKEN itself, or the bytes encoded by its pairs of
+     *  hexadecimal digits if I am the alphabet of all bytes. */
+    String decode(String token) {
+        if (!isBytes()) {
+            return token;
+        }
+        if (token.length() % 2 != 0) {
+            throw error("Odd number of hexadecimal digits in %s.", token);
+        }
+        char[] res = new char[token.length() / 2];
+        for (int i = 0; i < res.length; i += 1) {
+            int high = Character.digit(token.charAt(2 * i), 16);
+            int low = Character.digit(token.charAt(2 * i + 1), 16);
+            if (high < 0 || low < 0) {
+                throw error("Invalid hexadecimal digits in %s.", token);
+            }
+            res[i] = (char) (high * 16 + low);
+        }
+        return new String(res);
+    }
+
     /** Returns the size of the alphabet. */
     int size() {
         return _alphArray.length;
@@ -44,35 +91,61 @@ class Alphabet {
 
     /** Returns true if preprocess(CH) is in this alphabet. */
     boolean contains(char ch) {
-        return (_alphHashMap.get(ch) != null);
+        return ch < _indices.length && _indices[ch] >= 0;
     }
 
     /** Returns character number INDEX in the alphabet, where
      *  0 <= INDEX < size(). */
     char toChar(int index) {
-        try {
-            return _alphArray[index];
-        } catch (IndexOutOfBoundsException e) {
+        if (index < 0 || index >= _alphArray.length) {
             throw error("Integer could not be converted to char.");
         }
+        return _alphArray[index];
     }
 
     /** Returns the index of character preprocess(CH), which must be in
      *  the alphabet. This is the inverse of toChar(). */
     int toInt(char ch) {
-        try {
-            return (int) _alphHashMap.get(ch);
-        } catch (NullPointerException e) {
+        int index = ch < _indices.length ? _indices[ch] : -1;
+        if (index < 0) {
             throw error("Char could not be converted to int.");
         }
+        return index;
+    }
+
+    /** Store the indices of the characters of CHARS, which must all be in
+     *  the alphabet, in the first CHARS.length() elements of OUT. */
+    void toInts(CharSequence chars, int[] out) {
+        for (int i = 0; i < chars.length(); i += 1) {
+            out[i] = toInt(chars.charAt(i));
+        }
+    }
+
+    /** Store the characters numbered by the first LEN elements of INDICES
+     *  in the first LEN elements of OUT. */
+    void toChars(int[] indices, int len, char[] out) {
+        for (int i = 0; i < len; i += 1) {
+            out[i] = toChar(indices[i]);
+        }
     }
 
     /**
      * Contains all characters at their respective position. */
     private char[] _alphArray;
 
+    /** Number of ASCII characters, which bounds the characters of all
+     *  alphabets but the alphabet of all bytes. */
+    private static final int ASCII_SIZE = 128;
+
+    /** Name of the alphabet of all bytes in configuration files, which is
+     *  not a valid alphabet of characters since it contains a '*'. */
+    static final String BYTES_NAME = "*BYTES";
+
     /**
-     * Contains the actual alphabet.
-     * Key is the index of the character, value is the character itself. */
-    private HashMap<Character, Integer> _alphHashMap;
+     * Contains the index of every character below _indices.length in the
+     * alphabet, or -1 for characters that are not in the alphabet. */
+    private int[] _indices;
+
+    /** The alphabet of all bytes. */
+    private static final Alphabet BYTES = new Alphabet(256);
 }
@@ -0,0 +1,328 @@
+package enigma;
+
+import java.util.IdentityHashMap;
+
+import static enigma.EnigmaException.*;
+
+/** A batch of machines (lanes) that advance and convert in lockstep,
+ *  one character per lane at a time.  All lanes have the same alphabet
+ *  and numbers of slots and pawls; their rotors, ring settings,
+ *  plugboards and rotor settings may differ.
+ *
+ *  The batch keeps its data as a structure of arrays: for every slot, one
+ *  array holds the settings of all lanes, one the ring settings and two
+ *  the offsets of the lanes' rotor tables in a single table array shared
+ *  by all lanes.  Every rotor table is stored for every shift of the
+ *  rotor against its ring setting, so that sending a character through
+ *  a rotor is a single lookup; the offsets move along as the rotors
+ *  advance.  Stepping and converting are loops over the lanes of one
+ *  slot at a time, without branches, so that the compiler can keep them
+ *  in registers or vectorize them.
+ *  @author Philipp Kurz
+ */
+class BatchMachine {
+
+    /** A batch with a lane for each of SPECS, whose rotors are initially
+     *  set as in the corresponding element of STATES. */
+    BatchMachine(MachineSpec[] specs, MachineState[] states) {
+        if (specs.length == 0 || specs.length != states.length) {
+            throw error("Batch needs one state for each of its specs.");
+        }
+        MachineSpec first = specs[0];
+        _lanes = specs.length;
+        _size = first.alphabet().size();
+        _numRotors = first.numRotors();
+        _numPawls = first.numPawls();
+        for (MachineSpec spec : specs) {
+            if (spec.alphabet().size() != _size
+                || spec.numRotors() != _numRotors
+                || spec.numPawls() != _numPawls) {
+                throw error("Machines of a batch must have the same shape.");
+            }
+        }
+
+        IdentityHashMap<int[], Integer> rotorBases = new IdentityHashMap<>();
+        IdentityHashMap<Object, Integer> bases = new IdentityHashMap<>();
+        int length = 0;
+        for (MachineSpec spec : specs) {
+            for (int i = 0; i < _numRotors; i += 1) {
+                Permutation perm = spec.rotor(i).permutation();
+                length = addTable(rotorBases, perm.forwardTable(),
+                                  _size * _size, length);
+                length = addTable(rotorBases, perm.inverseTable(),
+                                  _size * _size, length);
+                length = addTable(bases, notchTable(spec, i), _size, length);
+            }
+            length = addTable(bases, spec.plugboard().forwardTable(), _size,
+                              length);
+            length = addTable(bases, spec.plugboard().inverseTable(), _size,
+                              length);
+        }
+        _tables = new int[length];
+        for (int[] table : rotorBases.keySet()) {
+            int base = rotorBases.get(table);
+            for (int shift = 0; shift < _size; shift += 1) {
+                for (int c = 0; c < _size; c += 1) {
+                    int x = c + shift;
+                    int y = table[x < _size ? x : x - _size] - shift;
+                    _tables[base + shift * _size + c] = y < 0 ? y + _size : y;
+                }
+            }
+        }
+        for (Object table : bases.keySet()) {
+            int base = bases.get(table);
+            if (table instanceof int[]) {
+                System.arraycopy((int[]) table, 0, _tables, base, _size);
+            } else if (table instanceof boolean[]) {
+                boolean[] notches = (boolean[]) table;
+                for (int c = 0; c < _size; c += 1) {
+                    _tables[base + c] = notches[c] ? 1 : 0;
+                }
+            }
+        }
+
+        _settings = new int[_numRotors][_lanes];
+        _rings = new int[_numRotors][_lanes];
+        _forwardBase = new int[_numRotors][_lanes];
+        _inverseBase = new int[_numRotors][_lanes];
+        _forwardOffset = new int[_numRotors][_lanes];
+        _inverseOffset = new int[_numRotors][_lanes];
+        _notchBase = new int[_numRotors][_lanes];
+        _plugForwardBase = new int[_lanes];
+        _plugInverseBase = new int[_lanes];
+        _fired = new int[_lanes];
+        _steps = new int[_lanes];
+        _chars = new int[_lanes];
+        for (int k = 0; k < _lanes; k += 1) {
+            MachineSpec spec = specs[k];
+            for (int i = 0; i < _numRotors; i += 1) {
+                Permutation perm = spec.rotor(i).permutation();
+                _rings[i][k] = spec.ringSetting(i);
+                _forwardBase[i][k] = rotorBases.get(perm.forwardTable());
+                _inverseBase[i][k] = rotorBases.get(perm.inverseTable());
+                _notchBase[i][k] = bases.get(notchTable(spec, i));
+            }
+            _plugForwardBase[k] = bases.get(spec.plugboard().forwardTable());
+            _plugInverseBase[k] = bases.get(spec.plugboard().inverseTable());
+            setState(k, states[k]);
+        }
+    }
+
+    /** Return the number of my lanes. */
+    int lanes() {
+        return _lanes;
+    }
+
+    /** Set the rotors of lane LANE as in STATE. */
+    void setState(int lane, MachineState state) {
+        int[] settings = state.settings();
+        for (int i = 0; i < _numRotors; i += 1) {
+            _settings[i][lane] = settings[i];
+            int shift = settings[i] - _rings[i][lane];
+            shift += (shift >> 31) & _size;
+            _forwardOffset[i][lane] = _forwardBase[i][lane] + shift * _size;
+            _inverseOffset[i][lane] = _inverseBase[i][lane] + shift * _size;
+        }
+    }
+
+    /** Store the settings of the rotors of lane LANE in STATE. */
+    void getState(int lane, MachineState state) {
+        int[] settings = state.settings();
+        for (int i = 0; i < _numRotors; i += 1) {
+            settings[i] = _settings[i][lane];
+        }
+    }
+
+    /** Advance all lanes and convert CHARS[K], an alphabet index, in place
+     *  for every lane K. */
+    void convert(int[] chars) {
+        advance();
+        through(_plugForwardBase, chars);
+        for (int i = _numRotors - 1; i >= 0; i -= 1) {
+            through(_forwardOffset[i], chars);
+        }
+        for (int i = 1; i < _numRotors; i += 1) {
+            through(_inverseOffset[i], chars);
+        }
+        through(_plugInverseBase, chars);
+    }
+
+    /** Convert MSGS[K][OFF .. OFF + LEN - 1] in place with lane K, for
+     *  every lane K. */
+    void convert(int[][] msgs, int off, int len) {
+        int[] chars = _chars;
+        for (int i = off; i < off + len; i += 1) {
+            for (int k = 0; k < _lanes; k += 1) {
+                chars[k] = msgs[k][i];
+            }
+            convert(chars);
+            for (int k = 0; k < _lanes; k += 1) {
+                msgs[k][i] = chars[k];
+            }
+        }
+    }
+
+    /** Convert MSG[OFF .. OFF + LEN - 1] with every lane K, storing the
+     *  result in OUT[K][OFF .. OFF + LEN - 1]. */
+    void convert(int[] msg, int off, int len, int[][] out) {
+        int[] chars = _chars;
+        for (int i = off; i < off + len; i += 1) {
+            for (int k = 0; k < _lanes; k += 1) {
+                chars[k] = msg[i];
+            }
+            convert(chars);
+            for (int k = 0; k < _lanes; k += 1) {
+                out[k][i] = chars[k];
+            }
+        }
+    }
+
+    /** Replace CHARS[K] by its image under the table at OFFSETS[K], for
+     *  every lane K. */
+    private void through(int[] offsets, int[] chars) {
+        final int[] tables = _tables;
+        for (int k = 0; k < _lanes; k += 1) {
+            chars[k] = tables[offsets[k] + chars[k]];
+        }
+    }
+
+    /** Advance the rotors of all lanes by one position, with the
+     *  stepping rules of MachineSpec.advance: a moving rotor advances
+     *  when its right neighbor is at a notch, unless it has just been
+     *  advanced that way itself, and then its neighbor advances too.
+     *  Without pawls, no rotor moves. */
+    private void advance() {
+        if (_numPawls == 0) {
+            return;
+        }
+        final int[] tables = _tables;
+        final int[] fired = _fired;
+        final int[] steps = _steps;
+        final int last = _numRotors - 1;
+        for (int k = 0; k < _lanes; k += 1) {
+            fired[k] = 0;
+        }
+        for (int i = _numRotors - _numPawls; i < last; i += 1) {
+            int[] right = _settings[i + 1];
+            int[] notches = _notchBase[i + 1];
+            for (int k = 0; k < _lanes; k += 1) {
+                int previous = fired[k];
+                int now = tables[notches[k] + right[k]] & (previous ^ 1);
+                fired[k] = now;
+                steps[k] = now | previous;
+            }
+            step(i);
+        }
+        for (int k = 0; k < _lanes; k += 1) {
+            steps[k] = 1;
+        }
+        step(last);
+    }
+
+    /** Advance the rotor in slot I of each lane K by _steps[K] positions,
+     *  which is 0 or 1. */
+    private void step(int i) {
+        final int size = _size;
+        final int[] steps = _steps;
+        int[] settings = _settings[i];
+        int[] rings = _rings[i];
+        int[] forwardBase = _forwardBase[i];
+        int[] inverseBase = _inverseBase[i];
+        int[] forwardOffset = _forwardOffset[i];
+        int[] inverseOffset = _inverseOffset[i];
+        for (int k = 0; k < _lanes; k += 1) {
+            int s = settings[k] + steps[k] - size;
+            s += (s >> 31) & size;
+            settings[k] = s;
+            int shift = s - rings[k];
+            shift = (shift + ((shift >> 31) & size)) * size;
+            forwardOffset[k] = forwardBase[k] + shift;
+            inverseOffset[k] = inverseBase[k] + shift;
+        }
+    }
+
+    /** Add TABLE to BASES at offset LENGTH unless it is there already,
+     *  and return the length of all tables afterwards, where TABLE takes
+     *  up ENTRIES entries. */
+    private static <T> int addTable(IdentityHashMap<T, Integer> bases,
+                                    T table, int entries, int length) {
+        if (bases.containsKey(table)) {
+            return length;
+        }
+        bases.put(table, length);
+        return length + entries;
+    }
+
+    /** Return the notch table of the rotor in slot I of SPEC, or
+     *  NO_NOTCHES if it has none. */
+    private static Object notchTable(MachineSpec spec, int i) {
+        boolean[] notches = spec.rotor(i).notches();
+        return notches != null ? notches : NO_NOTCHES;
+    }
+
+    /** Stands for the notch table of rotors without notches, which is all
+     *  0. */
+    private static final Object NO_NOTCHES = new Object();
+
+    /** Size of the alphabet. */
+    private final int _size;
+
+    /** Number of lanes. */
+    private final int _lanes;
+
+    /** Number of rotor slots. */
+    private final int _numRotors;
+
+    /** Number of pawls. */
+    private final int _numPawls;
+
+    /** All tables of all lanes, one after the other.  A rotor table is
+     *  stored for each shift S as the alphabet size entries from S times
+     *  the alphabet size on.  Notch tables hold 1 at the notches and 0
+     *  elsewhere. */
+    private final int[] _tables;
+
+    /** Setting of the rotor in every slot of every lane, by slot. */
+    private final int[][] _settings;
+
+    /** Ring setting of the rotor in every slot of every lane, by slot. */
+    private final int[][] _rings;
+
+    /** Offset of the shifted forward tables of the rotor in every slot of
+     *  every lane in _tables, by slot. */
+    private final int[][] _forwardBase;
+
+    /** Offset of the shifted inverse tables of the rotor in every slot of
+     *  every lane in _tables, by slot. */
+    private final int[][] _inverseBase;
+
+    /** Offset of the forward table of the rotor in every slot of every
+     *  lane for its current shift, by slot. */
+    private final int[][] _forwardOffset;
+
+    /** Offset of the inverse table of the rotor in every slot of every
+     *  lane for its current shift, by slot. */
+    private final int[][] _inverseOffset;
+
+    /** Offset of the notch table of the rotor in every slot of every lane
+     *  in _tables, by slot. */
+    private final int[][] _notchBase;
+
+    /** Offset of the forward table of the plugboard of every lane. */
+    private final int[] _plugForwardBase;
+
+    /** Offset of the inverse table of the plugboard of every lane. */
+    private final int[] _plugInverseBase;
+
+    /** For every lane, whether the slot last considered in advance()
+     *  advanced because of a notch. */
+    private final int[] _fired;
+
+    /** For every lane, the number of positions by which the rotor being
+     *  stepped advances. */
+    private final int[] _steps;
+
+    /** The characters of all lanes at the current position of a message
+     *  being converted. */
+    private final int[] _chars;
+}
@@ -0,0 +1,63 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/** A channel that converts all bytes written to it with a machine over
+ *  the alphabet of all bytes and writes the result to another channel.
+ *  It is meant as the target of FileChannel.transferTo, e.g.
+ *
+ *      source.transferTo(0, source.size(), new CipherChannel(mach, sink));
+ *
+ *  which streams a binary file through the machine.  Each byte is read
+ *  once from the buffer it is written from and stored converted in a
+ *  direct buffer, from which the target channel writes without further
+ *  copies; there is no conversion to characters.
+ *  @author Philipp Kurz
+ */
+class CipherChannel implements WritableByteChannel {
+
+    /** A channel converting with MACH, whose alphabet must be the alphabet
+     *  of all bytes, and writing to TARGET. */
+    CipherChannel(Machine mach, WritableByteChannel target) {
+        _machine = mach;
+        _target = target;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        int res = 0;
+        while (src.hasRemaining()) {
+            _buffer.clear();
+            res += _machine.convert(src, _buffer);
+            _buffer.flip();
+            while (_buffer.hasRemaining()) {
+                _target.write(_buffer);
+            }
+        }
+        return res;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return _target.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        _target.close();
+    }
+
+    /** Size of the buffer holding converted bytes. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Machine converting the bytes. */
+    private final Machine _machine;
+
+    /** Channel receiving the converted bytes. */
+    private final WritableByteChannel _target;
+
+    /** Converted bytes not yet written to _target. */
+    private final ByteBuffer _buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+}
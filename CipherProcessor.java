@@ -0,0 +1,251 @@
+package enigma;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.concurrent.Flow;
+import java.util.function.BiFunction;
+
+/** A processor for reactive pipelines (see java.util.concurrent.Flow)
+ *  that converts a stream of chunks, CharBuffers of characters of the
+ *  alphabet or ByteBuffers (see Machine.convert(ByteBuffer, ByteBuffer)),
+ *  with one machine, as a single message: the rotor settings reached at
+ *  the end of a chunk are those the next chunk starts from.  Each chunk
+ *  is converted as it arrives and passed on as one chunk, from its
+ *  position to its limit.  Chunks are converted into new buffers and are
+ *  not modified, not even their positions, since a publisher may pass
+ *  the same chunks to other subscribers.  Processors created to convert
+ *  in place instead convert writable chunks in place and pass them on
+ *  themselves, for publishers whose chunks are not shared.  Every
+ *  request of my subscriber is passed on to my publisher unchanged, so
+ *  that I never hold chunks and my memory use does not depend on the
+ *  length of the stream.  A chunk that cannot be converted cancels my
+ *  subscription and is reported to my subscriber with onError.  I accept
+ *  only one subscriber and one subscription.
+ *  @author Philipp Kurz
+ */
+class CipherProcessor<B extends Buffer> implements Flow.Processor<B, B> {
+
+    /** A processor converting chunks with MACH by CONVERTER, which
+     *  converts a chunk with a machine and returns the result. */
+    private CipherProcessor(Machine mach,
+                            BiFunction<Machine, B, B> converter) {
+        _machine = mach;
+        _converter = converter;
+    }
+
+    /** Return a processor converting chunks of characters with MACH,
+     *  starting at its current settings, into new buffers. */
+    static CipherProcessor<CharBuffer> chars(Machine mach) {
+        return chars(mach, false);
+    }
+
+    /** Return a processor as above that converts writable chunks in place
+     *  iff INPLACE. */
+    static CipherProcessor<CharBuffer> chars(Machine mach, boolean inPlace) {
+        return new CipherProcessor<>(mach, (m, chunk) ->
+                                     convertChars(m, chunk, inPlace));
+    }
+
+    /** Return a processor converting chunks of bytes with MACH, starting
+     *  at its current settings, into new buffers. */
+    static CipherProcessor<ByteBuffer> bytes(Machine mach) {
+        return bytes(mach, false);
+    }
+
+    /** Return a processor as above that converts writable chunks in place
+     *  iff INPLACE. */
+    static CipherProcessor<ByteBuffer> bytes(Machine mach, boolean inPlace) {
+        return new CipherProcessor<>(mach, (m, chunk) ->
+                                     convertBytes(m, chunk, inPlace));
+    }
+
+    /** Convert the remaining characters of CHUNK with MACH, in place if
+     *  INPLACE and CHUNK is writable, and return the result. */
+    private static CharBuffer convertChars(Machine mach, CharBuffer chunk,
+                                           boolean inPlace) {
+        CharBuffer res = inPlace && !chunk.isReadOnly() ? chunk.slice()
+            : CharBuffer.allocate(chunk.remaining());
+        mach.convert(chunk.duplicate(), res.duplicate());
+        return res;
+    }
+
+    /** Convert the remaining bytes of CHUNK with MACH, in place if INPLACE
+     *  and CHUNK is writable, and return the result. */
+    private static ByteBuffer convertBytes(Machine mach, ByteBuffer chunk,
+                                           boolean inPlace) {
+        ByteBuffer res = inPlace && !chunk.isReadOnly() ? chunk.slice()
+            : ByteBuffer.allocate(chunk.remaining());
+        mach.convert(chunk.duplicate(), res.duplicate());
+        return res;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super B> subscriber) {
+        Throwable error;
+        boolean complete;
+        boolean accepted;
+        synchronized (this) {
+            accepted = _subscriber == null;
+            if (accepted) {
+                _subscriber = subscriber;
+            }
+            error = _error;
+            complete = _complete;
+        }
+        if (!accepted) {
+            subscriber.onSubscribe(REJECTED);
+            subscriber.onError(new IllegalStateException(
+                "CipherProcessor allows only one subscriber"));
+            return;
+        }
+        subscriber.onSubscribe(new Subscription());
+        if (error != null) {
+            subscriber.onError(error);
+        } else if (complete) {
+            subscriber.onComplete();
+        }
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        long demand;
+        synchronized (this) {
+            if (_subscription != null || _cancelled) {
+                subscription.cancel();
+                return;
+            }
+            _subscription = subscription;
+            demand = _demand;
+            _demand = 0;
+        }
+        if (demand > 0) {
+            subscription.request(demand);
+        }
+    }
+
+    @Override
+    public void onNext(B chunk) {
+        if (_done) {
+            return;
+        }
+        B res;
+        try {
+            res = _converter.apply(_machine, chunk);
+        } catch (RuntimeException excp) {
+            _subscription.cancel();
+            onError(excp);
+            return;
+        }
+        _subscriber.onNext(res);
+    }
+
+    @Override
+    public void onError(Throwable error) {
+        Flow.Subscriber<? super B> subscriber;
+        synchronized (this) {
+            if (_done) {
+                return;
+            }
+            _done = true;
+            _error = error;
+            subscriber = _subscriber;
+        }
+        if (subscriber != null) {
+            subscriber.onError(error);
+        }
+    }
+
+    @Override
+    public void onComplete() {
+        Flow.Subscriber<? super B> subscriber;
+        synchronized (this) {
+            if (_done) {
+                return;
+            }
+            _done = true;
+            _complete = true;
+            subscriber = _subscriber;
+        }
+        if (subscriber != null) {
+            subscriber.onComplete();
+        }
+    }
+
+    /** The subscription of my subscriber, which passes its requests on to
+     *  my publisher. */
+    private class Subscription implements Flow.Subscription {
+
+        @Override
+        public void request(long n) {
+            Flow.Subscription upstream;
+            synchronized (CipherProcessor.this) {
+                upstream = _subscription;
+                if (upstream == null && n > 0) {
+                    _demand += Math.min(n, Long.MAX_VALUE - _demand);
+                    return;
+                }
+            }
+            if (n <= 0) {
+                cancel();
+                onError(new IllegalArgumentException(
+                    "non-positive request " + n));
+            } else if (upstream != null) {
+                upstream.request(n);
+            }
+        }
+
+        @Override
+        public void cancel() {
+            Flow.Subscription upstream;
+            synchronized (CipherProcessor.this) {
+                _cancelled = true;
+                upstream = _subscription;
+            }
+            if (upstream != null) {
+                upstream.cancel();
+            }
+        }
+    }
+
+    /** The subscription of subscribers other than the first, which does
+     *  nothing. */
+    private static final Flow.Subscription REJECTED =
+        new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+            }
+
+            @Override
+            public void cancel() {
+            }
+        };
+
+    /** Machine converting the chunks. */
+    private final Machine _machine;
+
+    /** Converts a chunk with a machine. */
+    private final BiFunction<Machine, B, B> _converter;
+
+    /** My subscriber, or null. */
+    private volatile Flow.Subscriber<? super B> _subscriber;
+
+    /** My subscription to my publisher, or null. */
+    private volatile Flow.Subscription _subscription;
+
+    /** Chunks requested by my subscriber before I had a subscription. */
+    private long _demand;
+
+    /** True iff my subscriber cancelled. */
+    private boolean _cancelled;
+
+    /** True iff my publisher has completed or failed, or I have
+     *  failed. */
+    private volatile boolean _done;
+
+    /** True iff my publisher has completed. */
+    private boolean _complete;
+
+    /** Error that ended the stream, or null. */
+    private Throwable _error;
+}
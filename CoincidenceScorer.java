@@ -0,0 +1,43 @@
+package enigma;
+
+/** Scores texts by their index of coincidence, the probability that two
+ *  characters drawn from different positions are equal.  It is about
+ *  1/size for random text and markedly higher for natural language, and
+ *  needs no knowledge of the language.
+ *  @author Philipp Kurz
+ */
+class CoincidenceScorer implements TextScorer {
+
+    /** A scorer for texts over an alphabet of SIZE characters. */
+    CoincidenceScorer(int size) {
+        _counts = new int[size];
+    }
+
+    @Override
+    public double score(int[] text, int len) {
+        if (len < 2) {
+            return 0;
+        }
+        int[] counts = _counts;
+        for (int i = 0; i < counts.length; i += 1) {
+            counts[i] = 0;
+        }
+        for (int i = 0; i < len; i += 1) {
+            counts[text[i]] += 1;
+        }
+        long pairs = 0;
+        for (int i = 0; i < counts.length; i += 1) {
+            pairs += (long) counts[i] * (counts[i] - 1);
+        }
+        return (double) pairs / ((long) len * (len - 1));
+    }
+
+    @Override
+    public TextScorer copy() {
+        return new CoincidenceScorer(_counts.length);
+    }
+
+    /** Number of occurrences of each character in the text being
+     *  scored. */
+    private final int[] _counts;
+}
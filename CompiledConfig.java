@@ -0,0 +1,215 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+
+import static enigma.EnigmaException.*;
+
+/** Configuration files compiled into a binary form that is loaded without
+ *  any parsing.  A compiled file consists of a header and a payload, all
+ *  numbers being big-endian:
+ *
+ *  The header holds MAGIC, VERSION, the length and CRC-32 of the text
+ *  configuration it was compiled from, and the length and CRC-32 of the
+ *  payload.
+ *
+ *  The payload holds the alphabet, the numbers of rotor slots and pawls
+ *  and the number of rotors, followed by every rotor: its type ('M', 'N'
+ *  or 'R'), its name, its forward permutation table with one byte per
+ *  alphabet index and, for moving rotors, one byte per alphabet index
+ *  that is 1 at its notches.
+ *
+ *  A compiled file is stale when the text configuration no longer has the
+ *  recorded length and checksum; load() then refuses it, so that the
+ *  text is parsed instead.
+ *  @author Philipp Kurz
+ */
+class CompiledConfig {
+
+    /** Write the configuration of MACH, which was read from the text
+     *  configuration file named SOURCE, to a compiled file named
+     *  TARGET. */
+    static void write(Machine mach, String source, String target) {
+        ByteBuffer payload = encode(mach);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        try (FileChannel config = FileChannel.open(Paths.get(source))) {
+            header.putInt(MAGIC).putInt(VERSION).putLong(config.size())
+                .putInt(checksum(map(config))).putInt(payload.remaining())
+                .putInt(checksum(payload.duplicate()));
+        } catch (IOException | InvalidPathException excp) {
+            throw error("could not open %s", source);
+        }
+        header.flip();
+        try (FileChannel out = FileChannel.open(Paths.get(target),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer[] buffers = { header, payload };
+            while (payload.hasRemaining()) {
+                out.write(buffers);
+            }
+        } catch (IOException | InvalidPathException excp) {
+            throw error("could not write %s", target);
+        }
+    }
+
+    /** Return the machine described by the compiled file named COMPILED,
+     *  or null if there is no such file, or if it is damaged or has not
+     *  been compiled from the current contents of the text configuration
+     *  file named SOURCE. */
+    static Machine load(String compiled, String source) {
+        try (FileChannel in = FileChannel.open(Paths.get(compiled));
+             FileChannel config = FileChannel.open(Paths.get(source))) {
+            if (in.size() < HEADER_SIZE) {
+                return null;
+            }
+            MappedByteBuffer data = map(in);
+            if (data.getInt() != MAGIC || data.getInt() != VERSION
+                || data.getLong() != config.size()
+                || data.getInt() != checksum(map(config))) {
+                return null;
+            }
+            int length = data.getInt();
+            int crc = data.getInt();
+            if (length != data.remaining()
+                || checksum(data.duplicate()) != crc) {
+                return null;
+            }
+            return decode(data);
+        } catch (IOException | InvalidPathException
+                 | BufferUnderflowException | EnigmaException excp) {
+            return null;
+        }
+    }
+
+    /** Return the name of the compiled file that is kept next to the text
+     *  configuration file named SOURCE. */
+    static String compiledName(String source) {
+        return source + SUFFIX;
+    }
+
+    /** Return the payload describing the configuration of MACH. */
+    private static ByteBuffer encode(Machine mach) {
+        Alphabet alpha = mach.alphabet();
+        int size = alpha.size();
+        HashMap<String, Rotor> rotors = mach.allRotors();
+        byte[][] names = new byte[rotors.size()][];
+        int length = 2 + size + 3 * 4;
+        int k = 0;
+        for (Rotor rotor : rotors.values()) {
+            names[k] = rotor.name().getBytes(StandardCharsets.UTF_8);
+            length += 1 + 2 + names[k].length
+                + (rotor.rotates() ? 2 : 1) * size;
+            k += 1;
+        }
+
+        ByteBuffer res = ByteBuffer.allocate(length);
+        res.putShort((short) size);
+        for (int c = 0; c < size; c += 1) {
+            res.put((byte) alpha.toChar(c));
+        }
+        res.putInt(mach.numRotors()).putInt(mach.numPawls())
+            .putInt(rotors.size());
+        k = 0;
+        for (Rotor rotor : rotors.values()) {
+            res.put(rotor.reflecting() ? (byte) 'R'
+                    : rotor.rotates() ? (byte) 'M' : (byte) 'N');
+            res.putShort((short) names[k].length).put(names[k]);
+            for (int c = 0; c < size; c += 1) {
+                res.put((byte) rotor.permutation().permute(c));
+            }
+            if (rotor.rotates()) {
+                boolean[] notches = rotor.notches();
+                for (int c = 0; c < size; c += 1) {
+                    res.put(notches[c] ? (byte) 1 : (byte) 0);
+                }
+            }
+            k += 1;
+        }
+        res.flip();
+        return res;
+    }
+
+    /** Return the machine described by the payload DATA. */
+    private static Machine decode(ByteBuffer data) {
+        char[] chars = new char[data.getShort()];
+        for (int c = 0; c < chars.length; c += 1) {
+            chars[c] = (char) (data.get() & 0xff);
+        }
+        Alphabet alpha = chars.length == Alphabet.bytes().size()
+            ? Alphabet.bytes() : new Alphabet(new String(chars));
+        int size = alpha.size();
+        int numRotors = data.getInt();
+        int numPawls = data.getInt();
+        int numAvailable = data.getInt();
+
+        HashMap<String, Rotor> rotors = new HashMap<String, Rotor>();
+        int[] forward = new int[size];
+        boolean[] notches = new boolean[size];
+        for (int k = 0; k < numAvailable; k += 1) {
+            byte type = data.get();
+            byte[] bytes = new byte[data.getShort()];
+            data.get(bytes);
+            String name = new String(bytes, StandardCharsets.UTF_8);
+            for (int c = 0; c < size; c += 1) {
+                forward[c] = data.get() & 0xff;
+            }
+            Permutation perm = new Permutation(forward, alpha);
+            Rotor rotor;
+            switch (type) {
+            case 'M':
+                for (int c = 0; c < size; c += 1) {
+                    notches[c] = data.get() != 0;
+                }
+                rotor = new MovingRotor(name, perm, notches);
+                break;
+            case 'N':
+                rotor = new FixedRotor(name, perm);
+                break;
+            case 'R':
+                rotor = new Reflector(name, perm);
+                break;
+            default:
+                return null;
+            }
+            rotors.put(name, rotor);
+        }
+        if (data.hasRemaining()) {
+            return null;
+        }
+        return new Machine(alpha, numRotors, numPawls, rotors);
+    }
+
+    /** Return the whole contents of FILE, mapped into memory. */
+    private static MappedByteBuffer map(FileChannel file) throws IOException {
+        return file.map(FileChannel.MapMode.READ_ONLY, 0, file.size());
+    }
+
+    /** Return the CRC-32 of the remaining bytes of DATA, consuming them. */
+    private static int checksum(ByteBuffer data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return (int) crc.getValue();
+    }
+
+    /** Marks the beginning of a compiled configuration file ("ENIC"). */
+    private static final int MAGIC = 0x454e4943;
+
+    /** Version of the format written by write(). */
+    private static final int VERSION = 1;
+
+    /** Size of the header preceding the payload. */
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 4 + 4 + 4;
+
+    /** Suffix appended to the name of a text configuration file to form
+     *  the name of its compiled file. */
+    static final String SUFFIX = ".bin";
+}
@@ -0,0 +1,230 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+import java.util.HashMap;
+
+import static enigma.EnigmaException.*;
+
+/** A parser for configuration files, which consist of an alphabet, the
+ *  numbers of rotor slots and pawls, and one description per rotor: its
+ *  name, its type and notches, and its permutation in cycle notation.
+ *  Tokens are separated by whitespace, and all tokens containing '(',
+ *  ')' or '|' after the type of a rotor form its cycles.  The text is
+ *  parsed in a single pass without splitting it into strings, and each
+ *  permutation is built directly from the text (see Permutation).
+ *  Errors are reported with the file name, line and column.
+ *  @author Philipp Kurz
+ */
+class ConfigParser {
+
+    /** A parser for TEXT, the contents of the configuration file NAME. */
+    ConfigParser(String name, CharSequence text) {
+        _name = name;
+        _text = text;
+    }
+
+    /** Return a parser for the configuration file NAME. */
+    static ConfigParser open(String name) {
+        try {
+            byte[] bytes = Files.readAllBytes(Paths.get(name));
+            return new ConfigParser(name,
+                new String(bytes, StandardCharsets.ISO_8859_1));
+        } catch (IOException | InvalidPathException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /** Return a machine with the alphabet, slots, pawls and rotors of my
+     *  text. */
+    Machine parse() {
+        _pos = 0;
+        nextToken("alphabet");
+        String alphabet = token();
+        _alphabet = alphabet.equals(Alphabet.BYTES_NAME) ? Alphabet.bytes()
+            : new Alphabet(alphabet);
+        int numRotors = nextInt("number of rotor slots");
+        int numPawls = nextInt("number of pawls");
+
+        HashMap<String, Rotor> rotors = new HashMap<String, Rotor>();
+        while (hasNextToken()) {
+            int start = _tokenStart;
+            Rotor rotor = parseRotor();
+            if (rotors.containsKey(rotor.name())) {
+                throw error("%s: Duplicate rotor %s in conf file detected.",
+                            where(start), rotor.name());
+            }
+            rotors.put(rotor.name(), rotor);
+        }
+        return new Machine(_alphabet, numRotors, numPawls, rotors);
+    }
+
+    /** Return the rotor described at my current position. */
+    private Rotor parseRotor() {
+        nextToken("rotor name");
+        int nameStart = _tokenStart;
+        if (tokenContains('(') || tokenContains(')')) {
+            throw error("%s: Characters ( or ) not allowed in rotor name.",
+                        where(nameStart));
+        }
+        String name = token();
+
+        nextToken("type of rotor " + name);
+        int infoStart = _tokenStart;
+        char type = _text.charAt(_tokenStart);
+        int notchStart = _tokenStart + 1;
+        int notchEnd = _tokenEnd;
+
+        int cyclesStart = _tokenEnd;
+        int cyclesEnd = _tokenEnd;
+        while (hasNextToken() && (tokenContains('(') || tokenContains(')')
+                                  || tokenContains('|'))) {
+            cyclesEnd = _tokenEnd;
+            _pos = _tokenEnd;
+        }
+        Permutation perm = new Permutation(_text, cyclesStart, cyclesEnd,
+                                           _alphabet, this::where);
+
+        Rotor res;
+        switch (type) {
+        case 'M':
+            if (notchEnd == notchStart) {
+                throw error("%s: No notch specified for moving rotor.",
+                            where(infoStart));
+            }
+            String notches;
+            try {
+                notches = _alphabet.decode(
+                    _text.subSequence(notchStart, notchEnd).toString());
+            } catch (EnigmaException excp) {
+                throw error("%s: %s", where(notchStart), excp.getMessage());
+            }
+            for (int i = 0; i < notches.length(); i += 1) {
+                if (!_alphabet.contains(notches.charAt(i))) {
+                    throw error("%s: Notch not found in alphabet.",
+                                where(notchStart + i));
+                }
+            }
+            res = new MovingRotor(name, perm, notches);
+            break;
+
+        case 'N':
+            if (notchEnd != notchStart) {
+                throw error("%s: Notch for fixed rotor detected.",
+                            where(notchStart));
+            }
+            res = new FixedRotor(name, perm);
+            break;
+        case 'R':
+            if (notchEnd != notchStart) {
+                throw error("%s: Notch for reflector detected.",
+                            where(notchStart));
+            }
+            res = new Reflector(name, perm);
+            if (!res.permutation().derangement()) {
+                throw error("%s: Reflector is not a derangement.",
+                            where(infoStart));
+            }
+            break;
+        default:
+            throw error("%s: Wrong rotor type. Must be M, N or R.",
+                        where(infoStart));
+        }
+        return res;
+    }
+
+    /** Return true iff there is another token after my position, and if
+     *  so, delimit it by _tokenStart and _tokenEnd without consuming it. */
+    private boolean hasNextToken() {
+        int i = _pos;
+        int len = _text.length();
+        while (i < len && Character.isWhitespace(_text.charAt(i))) {
+            i += 1;
+        }
+        if (i == len) {
+            return false;
+        }
+        _tokenStart = i;
+        while (i < len && !Character.isWhitespace(_text.charAt(i))) {
+            i += 1;
+        }
+        _tokenEnd = i;
+        return true;
+    }
+
+    /** Consume the next token, which is the WHAT of the configuration. */
+    private void nextToken(String what) {
+        if (!hasNextToken()) {
+            throw error("%s: configuration file truncated, expected %s",
+                        where(_text.length()), what);
+        }
+        _pos = _tokenEnd;
+    }
+
+    /** Consume the next token, which is the WHAT of the configuration, and
+     *  return its value as a non-negative integer. */
+    private int nextInt(String what) {
+        nextToken(what);
+        long value = 0;
+        for (int i = _tokenStart; i < _tokenEnd; i += 1) {
+            char c = _text.charAt(i);
+            if (c < '0' || c > '9' || value > Integer.MAX_VALUE) {
+                throw error("%s: expected %s", where(_tokenStart), what);
+            }
+            value = value * 10 + (c - '0');
+        }
+        if (value > Integer.MAX_VALUE) {
+            throw error("%s: expected %s", where(_tokenStart), what);
+        }
+        return (int) value;
+    }
+
+    /** Return the current token. */
+    private String token() {
+        return _text.subSequence(_tokenStart, _tokenEnd).toString();
+    }
+
+    /** Return true iff the current token contains C. */
+    private boolean tokenContains(char c) {
+        for (int i = _tokenStart; i < _tokenEnd; i += 1) {
+            if (_text.charAt(i) == c) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Return the file name, line and column of _text[OFFSET]. */
+    private String where(int offset) {
+        int line = 1;
+        int lineStart = 0;
+        for (int i = 0; i < offset; i += 1) {
+            if (_text.charAt(i) == '\n') {
+                line += 1;
+                lineStart = i + 1;
+            }
+        }
+        return String.format("%s:%d:%d", _name, line, offset - lineStart + 1);
+    }
+
+    /** Name of the configuration file. */
+    private final String _name;
+
+    /** Contents of the configuration file. */
+    private final CharSequence _text;
+
+    /** Offset in _text of the first character not yet consumed. */
+    private int _pos;
+
+    /** Offset in _text of the first character of the current token. */
+    private int _tokenStart;
+
+    /** Offset in _text just past the current token. */
+    private int _tokenEnd;
+
+    /** Alphabet of the configuration. */
+    private Alphabet _alphabet;
+}
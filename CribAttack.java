@@ -0,0 +1,634 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static enigma.EnigmaException.*;
+
+/** A known-plaintext attack in the manner of the Turing-Welchman Bombe.
+ *  A crib, i.e. plaintext that is believed to occur at a given offset of
+ *  a ciphertext, pairs each of its characters with a character of the
+ *  ciphertext.  These pairs form the menu, a graph on the characters of
+ *  the alphabet whose edges are labelled with their positions.
+ *
+ *  Without the plugboard, the machine at each position is an involution
+ *  (the scrambler) that maps the two characters of every edge at that
+ *  position into each other.  With the plugboard P, it is P(b) = S(P(a))
+ *  for each edge (a, b) with scrambler S.  For every rotor order and
+ *  every setting of the rotors at the beginning of the message (a stop),
+ *  the attack assumes in turn each value of P(t) for the test character
+ *  t, the most connected character of the menu, and follows the menu,
+ *  deducing more plugboard pairs until two deductions contradict each
+ *  other.  Loops in the menu make contradictions likely for wrong
+ *  stops, so nearly all stops are eliminated after a few table lookups,
+ *  without any decryption.  Stops with a hypothesis that survives are
+ *  reported together with the plugboard pairs deduced from it.
+ *
+ *  The scrambler at a position consists of the rightmost rotor and the
+ *  core formed by the rotors to its left and the reflector.  Cores change
+ *  only when the rotors left of the rightmost one move, so each thread
+ *  keeps a cache of core tables; the tables of the rightmost rotor at
+ *  every setting are computed once per rotor order.  The stops are
+ *  distributed over a ForkJoinPool, one task per rotor order and
+ *  leftmost rotor setting.  Ring settings are taken to be the default;
+ *  other ring settings only move the turnover positions.
+ *  @author Philipp Kurz
+ */
+class CribAttack {
+
+    /** An attack on CIPHERTEXT, a message of alphabet indices, with the
+     *  rotors available to MACH, assuming that CRIB is its plaintext
+     *  starting at OFFSET. */
+    CribAttack(Machine mach, int[] ciphertext, int[] crib, int offset) {
+        if (crib.length == 0 || offset < 0
+            || offset + crib.length > ciphertext.length) {
+            throw error("Crib does not fit into the ciphertext.");
+        }
+        if (mach.numRotors() < 2) {
+            throw error("Machine has no rotors besides the reflector.");
+        }
+        for (int i = 0; i < crib.length; i += 1) {
+            if (crib[i] == ciphertext[offset + i]) {
+                throw error("Crib character %d encrypts to itself.", i);
+            }
+        }
+        _alphabet = mach.alphabet();
+        _size = _alphabet.size();
+        _numRotors = mach.numRotors();
+        _numPawls = mach.numPawls();
+        _offset = offset;
+        _length = crib.length;
+        _orders = KeySearch.rotorOrders(mach);
+        if (_orders.isEmpty()) {
+            throw error("No rotor order fits the slots of the machine.");
+        }
+        _specs = new MachineSpec[_orders.size()];
+        for (int i = 0; i < _specs.length; i += 1) {
+            _specs[i] = new MachineSpec(_alphabet, _numPawls, _orders.get(i),
+                                        new int[_numRotors], null);
+        }
+        buildMenu(crib, Arrays.copyOfRange(ciphertext, offset,
+                                           offset + crib.length));
+    }
+
+    /** Return the loops of my menu, one per independent cycle, each as
+     *  the sequence of its characters. */
+    List<String> loops() {
+        return _loops;
+    }
+
+    /** Return my test character. */
+    char testCharacter() {
+        return _alphabet.toChar(_test);
+    }
+
+    /** Run the attack on POOL and return the surviving stops, ordered by
+     *  rotor order and setting. */
+    List<Stop> run(ForkJoinPool pool) {
+        long start = System.nanoTime();
+        _workers.clear();
+        _local = ThreadLocal.withInitial(() -> {
+            Worker worker = new Worker();
+            _workers.add(worker);
+            return worker;
+        });
+        pool.invoke(new AttackTask(0, _orders.size() * _size));
+        ArrayList<Stop> res = new ArrayList<>();
+        _stops = 0;
+        for (Worker worker : _workers) {
+            res.addAll(worker._survivors);
+            _stops += worker._stops;
+        }
+        res.sort(null);
+        _elapsed = System.nanoTime() - start;
+        return res;
+    }
+
+    /** Return the number of stops tested by the last run. */
+    long stops() {
+        return _stops;
+    }
+
+    /** Return the duration of the last run in nanoseconds. */
+    long elapsed() {
+        return _elapsed;
+    }
+
+    /** A rotor order and setting that is consistent with the crib,
+     *  together with the plugboard pairs deduced for it.  Stops are
+     *  ordered by rotor order and setting. */
+    static class Stop implements Comparable<Stop> {
+
+        /** A stop with rotor order number ORDER, whose rotors are named
+         *  ROTORS, at SETTING, with plugboard CYCLES. */
+        Stop(int order, String[] rotors, String setting, String cycles) {
+            _order = order;
+            _rotors = rotors;
+            _setting = setting;
+            _cycles = cycles;
+        }
+
+        /** Return the names of my rotors, the reflector first. */
+        String[] rotors() {
+            return _rotors;
+        }
+
+        /** Return the setting of my rotors at the start of the message. */
+        String setting() {
+            return _setting;
+        }
+
+        /** Return the deduced plugboard pairs in cycle notation. */
+        String cycles() {
+            return _cycles;
+        }
+
+        @Override
+        public int compareTo(Stop other) {
+            if (_order != other._order) {
+                return Integer.compare(_order, other._order);
+            }
+            int cmp = _setting.compareTo(other._setting);
+            return cmp != 0 ? cmp : _cycles.compareTo(other._cycles);
+        }
+
+        /** Return me as a setting line. */
+        @Override
+        public String toString() {
+            StringBuilder res = new StringBuilder("*");
+            for (String rotor : _rotors) {
+                res.append(' ').append(rotor);
+            }
+            res.append(' ').append(_setting);
+            if (!_cycles.isEmpty()) {
+                res.append(' ').append(_cycles);
+            }
+            return res.toString();
+        }
+
+        /** Number of my rotor order. */
+        private final int _order;
+
+        /** Names of the rotors. */
+        private final String[] _rotors;
+
+        /** Setting of the rotors. */
+        private final String _setting;
+
+        /** Plugboard cycles. */
+        private final String _cycles;
+    }
+
+    /** Build the menu pairing the characters of CRIB with those of
+     *  CIPHER, choose the test character and find the loops. */
+    private void buildMenu(int[] crib, int[] cipher) {
+        int[] degree = new int[_size];
+        for (int i = 0; i < _length; i += 1) {
+            degree[crib[i]] += 1;
+            degree[cipher[i]] += 1;
+        }
+        _edgeStart = new int[_size + 1];
+        for (int c = 0; c < _size; c += 1) {
+            _edgeStart[c + 1] = _edgeStart[c] + degree[c];
+        }
+        _edgeTo = new int[2 * _length];
+        _edgePosition = new int[2 * _length];
+        int[] fill = Arrays.copyOf(_edgeStart, _size);
+        for (int i = 0; i < _length; i += 1) {
+            _edgeTo[fill[crib[i]]] = cipher[i];
+            _edgePosition[fill[crib[i]]] = i;
+            fill[crib[i]] += 1;
+            _edgeTo[fill[cipher[i]]] = crib[i];
+            _edgePosition[fill[cipher[i]]] = i;
+            fill[cipher[i]] += 1;
+        }
+
+        int[] component = new int[_size];
+        Arrays.fill(component, -1);
+        int[] parent = new int[_size];
+        int[] depth = new int[_size];
+        int[] queue = new int[_size];
+        boolean[] used = new boolean[_length];
+        _loops = new ArrayList<>();
+        int bestLoops = -1;
+        int bestEdges = -1;
+        for (int root = 0; root < _size; root += 1) {
+            if (degree[root] == 0 || component[root] >= 0) {
+                continue;
+            }
+            int loops = 0;
+            int edges = 0;
+            int test = root;
+            int head = 0;
+            int tail = 0;
+            queue[tail] = root;
+            tail += 1;
+            component[root] = root;
+            parent[root] = -1;
+            while (head < tail) {
+                int a = queue[head];
+                head += 1;
+                if (degree[a] > degree[test]) {
+                    test = a;
+                }
+                for (int e = _edgeStart[a]; e < _edgeStart[a + 1]; e += 1) {
+                    int b = _edgeTo[e];
+                    int p = _edgePosition[e];
+                    if (used[p]) {
+                        continue;
+                    }
+                    used[p] = true;
+                    if (component[b] < 0) {
+                        component[b] = root;
+                        parent[b] = a;
+                        depth[b] = depth[a] + 1;
+                        queue[tail] = b;
+                        tail += 1;
+                        edges += 1;
+                    } else {
+                        _loops.add(loop(a, b, parent, depth));
+                        loops += 1;
+                        edges += 1;
+                    }
+                }
+            }
+            if (loops > bestLoops || (loops == bestLoops
+                                      && edges > bestEdges)) {
+                bestLoops = loops;
+                bestEdges = edges;
+                _test = test;
+            }
+        }
+    }
+
+    /** Return the characters of the loop closed by an edge between A and
+     *  B of the breadth-first tree given by PARENT and DEPTH. */
+    private String loop(int a, int b, int[] parent, int[] depth) {
+        StringBuilder left = new StringBuilder();
+        StringBuilder right = new StringBuilder();
+        while (a != b) {
+            if (depth[a] >= depth[b]) {
+                left.append(_alphabet.toChar(a));
+                a = parent[a];
+            } else {
+                right.append(_alphabet.toChar(b));
+                b = parent[b];
+            }
+        }
+        left.append(_alphabet.toChar(a));
+        return left.append(right.reverse()).toString();
+    }
+
+    /** The state of one thread of the attack. */
+    private class Worker {
+
+        /** A worker for my attack. */
+        Worker() {
+            _start = new int[_numRotors];
+            _settings = new int[_numRotors];
+            _rightForward = new int[_size * _size];
+            _rightBackward = new int[_size * _size];
+            _positionCore = new int[_length][];
+            _positionRight = new int[_length];
+            _stopKeys = new long[_length];
+            _stopTables = new int[_length][];
+            _stopSlots = new int[_length];
+            _spares = new int[_length][_size];
+            _cacheKeys = new long[CACHE_SIZE];
+            Arrays.fill(_cacheKeys, -1);
+            _cacheTables = new int[CACHE_SIZE][_size];
+            _plug = new int[_size];
+            _queue = new int[_size];
+        }
+
+        /** Test all stops of rotor order number ORDER whose leftmost
+         *  rotor setting is FIRST. */
+        void attackOrder(int order, int first) {
+            MachineSpec spec = _specs[order];
+            if (spec != _spec) {
+                int last = _numRotors - 1;
+                for (int r = 0; r < _size; r += 1) {
+                    for (int c = 0; c < _size; c += 1) {
+                        _rightForward[r * _size + c] =
+                            spec.forward(last, r, c);
+                        _rightBackward[r * _size + c] =
+                            spec.backward(last, r, c);
+                    }
+                }
+                Arrays.fill(_cacheKeys, -1);
+                _spec = spec;
+            }
+            int[] start = _start;
+            Arrays.fill(start, 0);
+            start[1] = first;
+            do {
+                _stops += 1;
+                setUpStop();
+                for (int x = 0; x < _size; x += 1) {
+                    if (consistent(_test, x)) {
+                        _survivors.add(new Stop(order,
+                            KeySearch.names(_orders.get(order)),
+                            settingString(start), cycles()));
+                    }
+                }
+            } while (nextSetting(start));
+        }
+
+        /** Compute the scramblers of the crib positions of the stop at
+         *  _start. */
+        private void setUpStop() {
+            int[] settings = _settings;
+            System.arraycopy(_start, 0, settings, 0, _numRotors);
+            for (int i = 0; i < _offset; i += 1) {
+                _spec.advance(settings);
+            }
+            _stopCores = 0;
+            for (int i = 0; i < _length; i += 1) {
+                _spec.advance(settings);
+                _positionCore[i] = core(settings);
+                _positionRight[i] = settings[_numRotors - 1] * _size;
+            }
+        }
+
+        /** Return the table of the core (all slots but the rightmost) at
+         *  SETTINGS, from the tables of the current stop or the cache, or
+         *  computed anew. */
+        private int[] core(int[] settings) {
+            long key = 0;
+            for (int i = 1; i < _numRotors - 1; i += 1) {
+                key = key * _size + settings[i];
+            }
+            for (int k = 0; k < _stopCores; k += 1) {
+                if (_stopKeys[k] == key) {
+                    return _stopTables[k];
+                }
+            }
+            int slot =
+                (int) (key ^ (key >>> 32)) * HASH >>> (32 - CACHE_BITS);
+            int[] table = _cacheTables[slot];
+            if (_cacheKeys[slot] != key) {
+                for (int k = 0; k < _stopCores; k += 1) {
+                    if (_stopSlots[k] == slot) {
+                        table = _spares[_stopCores];
+                        slot = -1;
+                        break;
+                    }
+                }
+                for (int c = 0; c < _size; c += 1) {
+                    table[c] = _spec.reflect(settings, _numRotors - 1, c);
+                }
+                if (slot >= 0) {
+                    _cacheKeys[slot] = key;
+                }
+            }
+            _stopKeys[_stopCores] = key;
+            _stopTables[_stopCores] = table;
+            _stopSlots[_stopCores] = slot;
+            _stopCores += 1;
+            return table;
+        }
+
+        /** Return the image of C under the scrambler of crib position
+         *  I. */
+        private int scramble(int i, int c) {
+            int right = _positionRight[i];
+            return _rightBackward[right
+                                  + _positionCore[i][_rightForward[right
+                                                                   + c]]];
+        }
+
+        /** Return true iff the hypothesis that the plugboard maps the test
+         *  character TEST to X does not lead to a contradiction, leaving
+         *  the deduced plugboard in _plug. */
+        private boolean consistent(int test, int x) {
+            Arrays.fill(_plug, -1);
+            _tail = 0;
+            if (!assign(test, x)) {
+                return false;
+            }
+            for (int head = 0; head < _tail; head += 1) {
+                int a = _queue[head];
+                int pa = _plug[a];
+                for (int e = _edgeStart[a]; e < _edgeStart[a + 1]; e += 1) {
+                    if (!assign(_edgeTo[e], scramble(_edgePosition[e], pa))) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        /** Record that the plugboard exchanges A and B, returning false if
+         *  that contradicts an earlier deduction. */
+        private boolean assign(int a, int b) {
+            if (_plug[a] >= 0 || _plug[b] >= 0) {
+                return _plug[a] == b && _plug[b] == a;
+            }
+            _plug[a] = b;
+            _plug[b] = a;
+            _queue[_tail] = a;
+            _tail += 1;
+            if (b != a) {
+                _queue[_tail] = b;
+                _tail += 1;
+            }
+            return true;
+        }
+
+        /** Return the pairs of _plug that exchange two characters in cycle
+         *  notation. */
+        private String cycles() {
+            StringBuilder res = new StringBuilder();
+            for (int c = 0; c < _size; c += 1) {
+                if (_plug[c] > c) {
+                    res.append('(').append(_alphabet.toChar(c))
+                        .append(_alphabet.toChar(_plug[c])).append(')');
+                }
+            }
+            return res.toString();
+        }
+
+        /** Advance SETTINGS to the next setting with the same setting of
+         *  slot 1, returning false if there is none. */
+        private boolean nextSetting(int[] settings) {
+            for (int i = settings.length - 1; i >= 2; i -= 1) {
+                settings[i] += 1;
+                if (settings[i] < _size) {
+                    return true;
+                }
+                settings[i] = 0;
+            }
+            return false;
+        }
+
+        /** Setting of the rotors at the start of the message of the
+         *  current stop. */
+        private final int[] _start;
+
+        /** Settings of the rotors at the current crib position. */
+        private final int[] _settings;
+
+        /** Specification of the current rotor order. */
+        private MachineSpec _spec;
+
+        /** Image of character C under the rightmost rotor at setting R,
+         *  at R * alphabet size + C. */
+        private final int[] _rightForward;
+
+        /** The inverses of the tables in _rightForward. */
+        private final int[] _rightBackward;
+
+        /** Core table of every crib position of the current stop. */
+        private final int[][] _positionCore;
+
+        /** Setting of the rightmost rotor at every crib position of the
+         *  current stop, times the alphabet size. */
+        private final int[] _positionRight;
+
+        /** Number of distinct cores of the current stop. */
+        private int _stopCores;
+
+        /** Keys of the cores of the current stop. */
+        private final long[] _stopKeys;
+
+        /** Tables of the cores of the current stop. */
+        private final int[][] _stopTables;
+
+        /** Cache slots of the cores of the current stop, or -1 for cores
+         *  kept in _spares. */
+        private final int[] _stopSlots;
+
+        /** Tables for cores that could not be cached without evicting a
+         *  core of the current stop. */
+        private final int[][] _spares;
+
+        /** Key of the core in every cache slot, or -1. */
+        private final long[] _cacheKeys;
+
+        /** Table of the core in every cache slot. */
+        private final int[][] _cacheTables;
+
+        /** Deduced plugboard partner of every character, or -1. */
+        private final int[] _plug;
+
+        /** Characters whose consequences are yet to be deduced. */
+        private final int[] _queue;
+
+        /** End of _queue. */
+        private int _tail;
+
+        /** Stops that survived. */
+        private final ArrayList<Stop> _survivors = new ArrayList<>();
+
+        /** Number of stops tested. */
+        private long _stops;
+    }
+
+    /** Return the settings of slots 1 and up in SETTINGS as a string of
+     *  my alphabet. */
+    private String settingString(int[] settings) {
+        StringBuilder res = new StringBuilder();
+        for (int i = 1; i < settings.length; i += 1) {
+            res.append(_alphabet.toChar(settings[i]));
+        }
+        return res.toString();
+    }
+
+    /** Tests a range of rotor orders and leftmost rotor settings. */
+    @SuppressWarnings("serial")
+    private class AttackTask extends RecursiveAction {
+
+        /** Tests the combinations numbered LO to HI - 1, combination
+         *  number K being rotor order K / alphabet size with leftmost
+         *  rotor setting K % alphabet size. */
+        AttackTask(int lo, int hi) {
+            _lo = lo;
+            _hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (_hi - _lo <= 1) {
+                for (int k = _lo; k < _hi; k += 1) {
+                    _local.get().attackOrder(k / _size, k % _size);
+                }
+                return;
+            }
+            int mid = (_lo + _hi) >>> 1;
+            invokeAll(new AttackTask(_lo, mid), new AttackTask(mid, _hi));
+        }
+
+        /** First combination. */
+        private final int _lo;
+
+        /** End of the combinations. */
+        private final int _hi;
+    }
+
+    /** Base-2 logarithm of CACHE_SIZE. */
+    private static final int CACHE_BITS = 12;
+
+    /** Number of core tables cached by each thread. */
+    private static final int CACHE_SIZE = 1 << CACHE_BITS;
+
+    /** Multiplier spreading core keys over the cache. */
+    private static final int HASH = 0x9e3779b9;
+
+    /** Alphabet of the machine. */
+    private final Alphabet _alphabet;
+
+    /** Size of _alphabet. */
+    private final int _size;
+
+    /** Number of rotor slots. */
+    private final int _numRotors;
+
+    /** Number of pawls. */
+    private final int _numPawls;
+
+    /** Offset of the crib in the ciphertext. */
+    private final int _offset;
+
+    /** Length of the crib. */
+    private final int _length;
+
+    /** Every valid rotor order. */
+    private final List<Rotor[]> _orders;
+
+    /** Specification of the machine with each rotor order, the default
+     *  ring settings and no plugboard. */
+    private final MachineSpec[] _specs;
+
+    /** The edges of the menu leaving character C are numbered
+     *  _edgeStart[C] to _edgeStart[C + 1] - 1. */
+    private int[] _edgeStart;
+
+    /** Character at the other end of every edge of the menu. */
+    private int[] _edgeTo;
+
+    /** Crib position of every edge of the menu. */
+    private int[] _edgePosition;
+
+    /** The test character. */
+    private int _test;
+
+    /** Loops of the menu. */
+    private List<String> _loops;
+
+    /** The worker of each thread of the current run. */
+    private ThreadLocal<Worker> _local;
+
+    /** All workers of the current run. */
+    private final ConcurrentLinkedQueue<Worker> _workers =
+        new ConcurrentLinkedQueue<>();
+
+    /** Number of stops tested by the last run. */
+    private long _stops;
+
+    /** Duration of the last run in nanoseconds. */
+    private long _elapsed;
+}
@@ -0,0 +1,348 @@
+package enigma;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/** Generates conversion engines (see MachineSpec.Engine) specialized for
+ *  the shape of a machine, i.e. its numbers of rotor slots and pawls.
+ *  For each shape, the source of a class is generated in which the
+ *  stepping and the conversion are unrolled over the slots: the settings
+ *  are local variables, the tables of every slot are final fields of
+ *  their own, and the stepping of the moving rotors is a tree of
+ *  branches instead of a loop.  The rotors are passed through with
+ *  their tables for every shift (see Permutation.shiftedForwardTable),
+ *  so that each rotor is a single lookup without the wrap-around
+ *  branches of MachineSpec.translate, which the processor cannot predict.
+ *  The source is compiled in memory with the system Java compiler and
+ *  defined as a hidden class of this package, which is instantiated once
+ *  per specification with its tables.  Without a compiler (as in a bare
+ *  runtime image), for shapes with more than MAX_PAWLS pawls, or for
+ *  alphabets of more than MAX_SIZE characters, no engine is generated and
+ *  specifications convert with their own loops.
+ *  @author Philipp Kurz
+ */
+final class EngineGenerator {
+
+    /** Not instantiable. */
+    private EngineGenerator() {
+    }
+
+    /** Return true iff an engine can be generated for machines with
+     *  NUMROTORS slots and NUMPAWLS pawls, generating its class if that
+     *  has not been done yet. */
+    static boolean available(int numRotors, int numPawls) {
+        return constructor(numRotors, numPawls) != null;
+    }
+
+    /** Return a generated engine for a specification whose alphabet has
+     *  SIZE characters, with NUMPAWLS pawls, the rotors ROTORS with
+     *  notches NOTCHES in its slots, ring settings RINGSETTINGS and
+     *  plugboard tables PLUGFORWARD and PLUGINVERSE (see MachineSpec), or
+     *  null if none can be generated.  The arrays are shared with the
+     *  engine and must not be modified. */
+    static MachineSpec.Engine engine(int size, int numPawls, Rotor[] rotors,
+                                     boolean[][] notches,
+                                     int[] ringSettings, int[] plugForward,
+                                     int[] plugInverse) {
+        MethodHandle constructor = constructor(rotors.length, numPawls);
+        if (constructor == null || size > MAX_SIZE) {
+            return null;
+        }
+        int[][] forward = new int[rotors.length][];
+        int[][] inverse = new int[rotors.length][];
+        for (int i = 0; i < rotors.length; i += 1) {
+            forward[i] = rotors[i].permutation().shiftedForwardTable();
+            inverse[i] = rotors[i].permutation().shiftedInverseTable();
+        }
+        try {
+            return (MachineSpec.Engine) constructor.invoke(
+                forward, inverse, notches, ringSettings, plugForward,
+                plugInverse, size);
+        } catch (Throwable excp) {
+            return null;
+        }
+    }
+
+    /** Return the constructor of the engine class for NUMROTORS slots and
+     *  NUMPAWLS pawls, or null if there is none. */
+    private static MethodHandle constructor(int numRotors, int numPawls) {
+        return CONSTRUCTORS.computeIfAbsent(
+            numRotors + "x" + numPawls,
+            shape -> Optional.ofNullable(define(numRotors, numPawls)))
+            .orElse(null);
+    }
+
+    /** Generate, compile and define the engine class for NUMROTORS slots
+     *  and NUMPAWLS pawls, and return its constructor, or null if that is
+     *  not possible. */
+    private static MethodHandle define(int numRotors, int numPawls) {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null || numPawls > MAX_PAWLS
+            || numPawls >= numRotors) {
+            return null;
+        }
+        String name = "Engine" + numRotors + "x" + numPawls;
+        ClassFile classFile = new ClassFile(name);
+        try (StandardJavaFileManager standard =
+             compiler.getStandardFileManager(null, null, null)) {
+            ForwardingJavaFileManager<StandardJavaFileManager> files =
+                new ForwardingJavaFileManager<>(standard) {
+                    @Override
+                    public JavaFileObject getJavaFileForOutput(
+                        Location location, String className,
+                        JavaFileObject.Kind kind, FileObject sibling) {
+                        return classFile;
+                    }
+                };
+            boolean compiled = compiler.getTask(
+                null, files, diagnostic -> { },
+                Arrays.asList("-classpath",
+                              System.getProperty("java.class.path"),
+                              "-proc:none", "-g:none"),
+                null,
+                Arrays.asList(new SourceFile(name,
+                                             source(name, numRotors,
+                                                    numPawls))))
+                .call();
+            if (!compiled) {
+                return null;
+            }
+            MethodHandles.Lookup lookup = MethodHandles.lookup()
+                .defineHiddenClass(classFile.bytes(), true);
+            return lookup.findConstructor(lookup.lookupClass(),
+                                          MethodType.methodType(
+                                              void.class, int[][].class,
+                                              int[][].class,
+                                              boolean[][].class, int[].class,
+                                              int[].class, int[].class,
+                                              int.class));
+        } catch (Exception | LinkageError excp) {
+            return null;
+        }
+    }
+
+    /** Return the source of the engine class NAME for NUMROTORS slots and
+     *  NUMPAWLS pawls. */
+    static String source(String name, int numRotors, int numPawls) {
+        int first = numRotors - numPawls;
+        int last = numRotors - 1;
+        StringBuilder src = new StringBuilder();
+        src.append("package enigma;\n\n")
+            .append("final class ").append(name)
+            .append(" implements MachineSpec.Engine {\n\n")
+            .append("    ").append(name).append("(int[][] forward, ")
+            .append("int[][] inverse, boolean[][] notches,\n")
+            .append("            int[] ringSettings, int[] plugForward, ")
+            .append("int[] plugInverse, int size) {\n");
+        for (int i = 0; i < numRotors; i += 1) {
+            src.append(String.format("        f%d = forward[%d];%n", i, i));
+            if (i > 0) {
+                src.append(String.format("        i%d = inverse[%d];%n",
+                                         i, i));
+            }
+            if (i > first) {
+                src.append(String.format("        n%d = notches[%d];%n",
+                                         i, i));
+            }
+            src.append(String.format("        r%d = ringSettings[%d];%n",
+                                     i, i));
+        }
+        src.append("        pf = plugForward;\n")
+            .append("        pi = plugInverse;\n")
+            .append("        this.size = size;\n")
+            .append("    }\n\n");
+
+        src.append("    @Override\n")
+            .append("    public int convert(int[] s, int c) {\n");
+        loadSettings(src, 0, numRotors, "        ");
+        step(src, first, last, "        ");
+        storeSettings(src, first, numRotors, "        ");
+        src.append("        return translate(c");
+        for (int i = 0; i < numRotors; i += 1) {
+            src.append(", s").append(i);
+        }
+        src.append(");\n    }\n\n");
+
+        src.append("    @Override\n")
+            .append("    public void convert(int[] s, int[] msg, int off, ")
+            .append("int len) {\n");
+        loadSettings(src, 0, numRotors, "        ");
+        src.append("        for (int k = off; k < off + len; k += 1) {\n");
+        step(src, first, last, "            ");
+        src.append("            msg[k] = translate(msg[k]");
+        for (int i = 0; i < numRotors; i += 1) {
+            src.append(", s").append(i);
+        }
+        src.append(");\n        }\n");
+        storeSettings(src, first, numRotors, "        ");
+        src.append("    }\n\n");
+
+        src.append("    private int translate(int c");
+        for (int i = 0; i < numRotors; i += 1) {
+            src.append(", int s").append(i);
+        }
+        src.append(") {\n        c = pf[c];\n");
+        for (int i = 0; i < numRotors; i += 1) {
+            src.append(String.format("        int h%d = s%d - r%d;%n"
+                                     + "        if (h%d < 0) {%n"
+                                     + "            h%d += size;%n"
+                                     + "        }%n"
+                                     + "        h%d *= size;%n",
+                                     i, i, i, i, i, i));
+        }
+        for (int i = last; i >= 0; i -= 1) {
+            through(src, "f" + i, "h" + i);
+        }
+        for (int i = 1; i <= last; i += 1) {
+            through(src, "i" + i, "h" + i);
+        }
+        src.append("        return pi[c];\n    }\n\n");
+
+        for (int i = 0; i < numRotors; i += 1) {
+            src.append("    private final int[] f").append(i).append(";\n");
+            if (i > 0) {
+                src.append("    private final int[] i").append(i)
+                    .append(";\n");
+            }
+            if (i > first) {
+                src.append("    private final boolean[] n").append(i)
+                    .append(";\n");
+            }
+            src.append("    private final int r").append(i).append(";\n");
+        }
+        src.append("    private final int[] pf;\n")
+            .append("    private final int[] pi;\n")
+            .append("    private final int size;\n")
+            .append("}\n");
+        return src.toString();
+    }
+
+    /** Append to SRC the declarations of locals s<I> holding s[I] for
+     *  slots FROM to TO - 1, indented by INDENT. */
+    private static void loadSettings(StringBuilder src, int from, int to,
+                                     String indent) {
+        for (int i = from; i < to; i += 1) {
+            src.append(String.format("%sint s%d = s[%d];%n", indent, i, i));
+        }
+    }
+
+    /** Append to SRC the stores of locals s<I> into s[I] for slots FROM
+     *  to TO - 1, indented by INDENT. */
+    private static void storeSettings(StringBuilder src, int from, int to,
+                                      String indent) {
+        for (int i = from; i < to; i += 1) {
+            src.append(String.format("%ss[%d] = s%d;%n", indent, i, i));
+        }
+    }
+
+    /** Append to SRC the stepping of the moving rotors from slot I on, up
+     *  to slot LAST, indented by INDENT, exactly as MachineSpec.advance
+     *  steps them: the rotor in slot I moves with its right neighbor if
+     *  that is at a notch, in which case the neighbor is done, and the
+     *  rightmost rotor always moves. */
+    private static void step(StringBuilder src, int i, int last,
+                             String indent) {
+        if (i > last) {
+            return;
+        }
+        if (i == last) {
+            next(src, i, indent);
+            return;
+        }
+        src.append(String.format("%sif (n%d[s%d]) {%n", indent, i + 1,
+                                 i + 1));
+        next(src, i, indent + "    ");
+        next(src, i + 1, indent + "    ");
+        step(src, i + 2, last, indent + "    ");
+        src.append(indent).append("} else {\n");
+        step(src, i + 1, last, indent + "    ");
+        src.append(indent).append("}\n");
+    }
+
+    /** Append to SRC the advance of local s<I> by one setting, indented by
+     *  INDENT. */
+    private static void next(StringBuilder src, int i, String indent) {
+        src.append(String.format("%ss%d = s%d + 1 == size ? 0 : s%d + 1;%n",
+                                 indent, i, i, i));
+    }
+
+    /** Append to SRC the sending of c through the table for every shift
+     *  TABLE at the row starting at OFFSET. */
+    private static void through(StringBuilder src, String table,
+                                String offset) {
+        src.append(String.format("        c = %s[%s + c];%n", table,
+                                 offset));
+    }
+
+    /** Source of a generated class, held in memory. */
+    private static class SourceFile extends SimpleJavaFileObject {
+
+        /** The source TEXT of the class NAME. */
+        SourceFile(String name, String text) {
+            super(URI.create("string:///enigma/" + name + ".java"),
+                  Kind.SOURCE);
+            _text = text;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return _text;
+        }
+
+        /** Source text. */
+        private final String _text;
+    }
+
+    /** Class file of a generated class, held in memory. */
+    private static class ClassFile extends SimpleJavaFileObject {
+
+        /** The class file of the class NAME. */
+        ClassFile(String name) {
+            super(URI.create("bytes:///enigma/" + name + ".class"),
+                  Kind.CLASS);
+        }
+
+        @Override
+        public OutputStream openOutputStream() {
+            return _bytes;
+        }
+
+        /** Return the contents of the class file. */
+        byte[] bytes() {
+            return _bytes.toByteArray();
+        }
+
+        /** Contents of the class file. */
+        private final ByteArrayOutputStream _bytes =
+            new ByteArrayOutputStream();
+    }
+
+    /** Largest number of pawls for which engines are generated.  The
+     *  stepping code grows like the Fibonacci numbers with the number of
+     *  pawls, and beyond this the methods would be too large for the
+     *  JIT compiler. */
+    static final int MAX_PAWLS = 8;
+
+    /** Largest alphabet size for which engines are generated, which keeps
+     *  the tables for every shift within 256 KB per rotor. */
+    static final int MAX_SIZE = 256;
+
+    /** Constructors of the generated classes by shape, or empty if no
+     *  class could be generated for the shape. */
+    private static final ConcurrentHashMap<String, Optional<MethodHandle>>
+        CONSTRUCTORS = new ConcurrentHashMap<>();
+}
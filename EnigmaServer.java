@@ -0,0 +1,233 @@
+package enigma;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.Channels;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+import static enigma.EnigmaException.*;
+
+/** A long-running service that converts messages with machines
+ *  configured once at startup.  Clients connect to a port on the
+ *  loopback interface and send requests in a line protocol:
+ *
+ *  A request is a setting line as in an input file, followed by message
+ *  lines, followed by an empty line.  The response consists of the
+ *  converted message lines in groups of five, followed by an empty line,
+ *  or of a line "Error: MESSAGE" followed by an empty line.
+ *
+ *  The request line "STATS" is answered with the counters of the server,
+ *  one per line, followed by an empty line.
+ *
+ *  Each connection is handled on its own thread (a virtual thread where
+ *  the Java runtime provides them) with its own machine, so no rotor
+ *  state is shared between requests on different connections.  The
+ *  setups of setting lines are cached for all connections together (see
+ *  MachineCache).
+ *  @author Philipp Kurz
+ */
+class EnigmaServer {
+
+    /** A server for machines configured like MACH listening on PORT of the
+     *  loopback interface, or on any free port if PORT is 0. */
+    EnigmaServer(Machine mach, int port) {
+        this(mach, port, null, new MachineCache(MachineCache.DEFAULT_ENTRIES,
+                                                MachineCache.DEFAULT_BYTES));
+    }
+
+    /** A server as above that also records its conversions in STATS,
+     *  unless it is null, and sets up its machines through MACHINES. */
+    EnigmaServer(Machine mach, int port, EnigmaStats stats,
+                 MachineCache machines) {
+        _machine = mach;
+        _stats = stats;
+        _machines = machines;
+        try {
+            _socket = new ServerSocket(port, BACKLOG,
+                                       InetAddress.getLoopbackAddress());
+        } catch (IOException excp) {
+            throw error("could not listen on port %d", port);
+        }
+    }
+
+    /** Return the port I listen on. */
+    int port() {
+        return _socket.getLocalPort();
+    }
+
+    /** Accept and serve connections until my socket is closed. */
+    void run() {
+        ExecutorService connections = connectionExecutor();
+        try {
+            while (true) {
+                Socket client = _socket.accept();
+                connections.execute(() -> serve(client));
+            }
+        } catch (IOException excp) {
+            if (!_socket.isClosed()) {
+                throw error("could not accept connection: %s",
+                            excp.getMessage());
+            }
+        } finally {
+            connections.shutdown();
+        }
+    }
+
+    /** Stop accepting connections. */
+    void close() {
+        try {
+            _socket.close();
+        } catch (IOException excp) {
+            return;
+        }
+    }
+
+    /** Return a one-line-per-counter report of my counters. */
+    String stats() {
+        String res = String.format("connections=%d%nrequests=%d%n"
+                                   + "errors=%d%ncharacters=%d%n"
+                                   + "latency %s%nmachine cache %s%n",
+                                   _connections.sum(), _requests.sum(),
+                                   _errors.sum(), _characters.sum(),
+                                   _latency.summary(), _machines.summary());
+        KeystreamCache keystreams = _machine.keystreamCache();
+        if (keystreams != null) {
+            res += String.format("keystream cache %s%n",
+                                 keystreams.summary());
+        }
+        return res;
+    }
+
+    /** Serve the requests of CLIENT until it closes the connection. */
+    private void serve(Socket client) {
+        _connections.increment();
+        try (Socket socket = client) {
+            socket.setTcpNoDelay(true);
+            MessageInput input =
+                new MessageInput(Channels.newChannel(socket.getInputStream()));
+            MessageOutput output =
+                new MessageOutput(socket.getOutputStream());
+            Machine mach = _machine.newMachine();
+            char[] buffer = new char[BUFFER_SIZE];
+            while (input.skipToSetting() || input.hasNextLine()) {
+                long start = System.nanoTime();
+                Message msg = serveRequest(input, output, mach, buffer);
+                output.flush();
+                long nanos = System.nanoTime() - start;
+                _latency.record(nanos);
+                if (_stats != null && msg != null) {
+                    _stats.recordMessage(mach, msg.length(), nanos);
+                }
+            }
+        } catch (IOException | EnigmaException excp) {
+            return;
+        }
+    }
+
+    /** Answer the request at the beginning of INPUT on OUTPUT, using MACH
+     *  and BUFFER.  Return the message converted, or null if the request
+     *  was not a conversion or failed. */
+    private Message serveRequest(MessageInput input, MessageOutput output,
+                                 Machine mach, char[] buffer) {
+
+        if (!input.atSetting()) {
+            String command = input.nextLine().trim();
+            if (command.equals("STATS")) {
+                writeLines(output, stats());
+            } else {
+                writeLines(output, "Error: unknown request " + command
+                           + "\n");
+            }
+            return null;
+        }
+        _requests.increment();
+        Message msg;
+        try {
+            msg = new Message(SettingLine.read(input, mach.numRotors()));
+        } catch (EnigmaException excp) {
+            msg = new Message(null);
+            msg.fail(excp);
+        }
+        while (input.hasNextLine() && !input.atLineEnd()) {
+            do {
+                msg.append(buffer, input.readMessage(buffer));
+            } while (!input.lineEnded());
+            msg.endLine();
+        }
+        input.nextLine();
+        if (msg.error() == null) {
+            msg.convert(mach, _machines);
+        }
+        if (msg.error() != null) {
+            _errors.increment();
+            writeLines(output, "Error: " + msg.error().getMessage() + "\n");
+            return null;
+        }
+        _characters.add(msg.length());
+        msg.write(output);
+        output.endLine();
+        return msg;
+    }
+
+    /** Write the newline-terminated lines of TEXT followed by an empty line
+     *  to OUTPUT. */
+    private static void writeLines(MessageOutput output, String text) {
+        for (String line : text.split("\n")) {
+            output.writeText(line);
+            output.endLine();
+        }
+        output.endLine();
+    }
+
+    /** Return an executor that runs each task on a new virtual thread if
+     *  this Java runtime supports them, and on a pooled platform thread
+     *  otherwise. */
+    private static ExecutorService connectionExecutor() {
+        try {
+            Method factory =
+                Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException excp) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /** Maximum number of pending connections. */
+    private static final int BACKLOG = 1024;
+
+    /** Size of the buffer for message lines of each connection. */
+    private static final int BUFFER_SIZE = 1 << 12;
+
+    /** Machine whose configuration all my machines share. */
+    private final Machine _machine;
+
+    /** Socket accepting connections. */
+    private final ServerSocket _socket;
+
+    /** Number of connections accepted. */
+    private final LongAdder _connections = new LongAdder();
+
+    /** Number of conversion requests. */
+    private final LongAdder _requests = new LongAdder();
+
+    /** Number of conversion requests that failed. */
+    private final LongAdder _errors = new LongAdder();
+
+    /** Number of characters converted. */
+    private final LongAdder _characters = new LongAdder();
+
+    /** Time from reading the start of a request until its response is
+     *  sent. */
+    private final LatencyHistogram _latency = new LatencyHistogram();
+
+    /** Statistics that my conversions are recorded in, or null. */
+    private final EnigmaStats _stats;
+
+    /** Setups of the setting lines of all connections. */
+    private final MachineCache _machines;
+}
@@ -0,0 +1,187 @@
+package enigma;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import static enigma.EnigmaException.*;
+
+/** Counters of the messages converted by Main or an EnigmaServer, which
+ *  are published as the MBean enigma:type=Stats and summarized on
+ *  standard error with --stats.  Everything is recorded once per
+ *  message, so conversion itself is not instrumented; the rotor steps of
+ *  a message are counted afterwards from the settings its machine started
+ *  at, skipping over most of the stepping (see Machine.countSteps).
+ *  Recording may happen on any number of threads concurrently.
+ *  @author Philipp Kurz
+ */
+class EnigmaStats implements EnigmaStatsMBean {
+
+    /** Statistics starting now. */
+    EnigmaStats() {
+        _start = System.nanoTime();
+    }
+
+    /** Publish me on the platform MBean server, replacing the statistics
+     *  published before. */
+    void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+        } catch (JMException excp) {
+            throw error("could not publish statistics: %s",
+                        excp.getMessage());
+        }
+    }
+
+    /** Report the counters of MACHINES, which may be null, along with
+     *  mine. */
+    void setMachineCache(MachineCache machines) {
+        _machines = machines;
+    }
+
+    /** Report the counters of KEYSTREAMS, which may be null, along with
+     *  mine. */
+    void setKeystreamCache(KeystreamCache keystreams) {
+        _keystreams = keystreams;
+    }
+
+    /** Record that loading the configuration took NANOS nanoseconds. */
+    void recordConfigLoad(long nanos) {
+        _configLoadNanos = nanos;
+    }
+
+    /** Record that MACH converted a message of CHARS characters in NANOS
+     *  nanoseconds since its rotors were last set. */
+    void recordMessage(Machine mach, long chars, long nanos) {
+        long[] steps = _steps.get();
+        steps[0] = steps[1] = 0;
+        mach.countSteps(steps);
+        _characters.add(chars);
+        _messages.increment();
+        _rotorSteps.add(steps[0]);
+        _doubleSteps.add(steps[1]);
+        _latency.record(nanos);
+    }
+
+    @Override
+    public long getCharacters() {
+        return _characters.sum();
+    }
+
+    @Override
+    public long getMessages() {
+        return _messages.sum();
+    }
+
+    @Override
+    public double getBytesPerSecond() {
+        long elapsed = Math.max(1, System.nanoTime() - _start);
+        return getCharacters() * 1e9 / elapsed;
+    }
+
+    @Override
+    public double getConfigLoadMicros() {
+        return _configLoadNanos / 1e3;
+    }
+
+    @Override
+    public long getRotorSteps() {
+        return _rotorSteps.sum();
+    }
+
+    @Override
+    public long getDoubleSteps() {
+        return _doubleSteps.sum();
+    }
+
+    @Override
+    public double getLatencyP50Micros() {
+        return _latency.percentile(.5) / 1e3;
+    }
+
+    @Override
+    public double getLatencyP99Micros() {
+        return _latency.percentile(.99) / 1e3;
+    }
+
+    @Override
+    public double getLatencyMaxMicros() {
+        return _latency.max() / 1e3;
+    }
+
+    @Override
+    public long getMachineCacheHits() {
+        return _machines == null ? 0 : _machines.hits();
+    }
+
+    @Override
+    public long getMachineCacheMisses() {
+        return _machines == null ? 0 : _machines.misses();
+    }
+
+    @Override
+    public long getMachineCacheEvictions() {
+        return _machines == null ? 0 : _machines.evictions();
+    }
+
+    /** Return a one-line-per-counter report of my counters. */
+    String summary() {
+        String res = String.format("characters=%d%nmessages=%d%n"
+                                   + "bytes/s=%.0f%nconfig load=%.1fus%n"
+                                   + "rotor steps=%d%ndouble steps=%d%n"
+                                   + "latency %s%n", getCharacters(),
+                                   getMessages(), getBytesPerSecond(),
+                                   getConfigLoadMicros(), getRotorSteps(),
+                                   getDoubleSteps(), _latency.summary());
+        if (_machines != null) {
+            res += String.format("machine cache %s%n", _machines.summary());
+        }
+        if (_keystreams != null) {
+            res += String.format("keystream cache %s%n",
+                                 _keystreams.summary());
+        }
+        return res;
+    }
+
+    /** Name under which statistics are published. */
+    static final String OBJECT_NAME = "enigma:type=Stats";
+
+    /** Value of System.nanoTime() when I was created. */
+    private final long _start;
+
+    /** Time taken to load the configuration. */
+    private volatile long _configLoadNanos;
+
+    /** Number of characters converted. */
+    private final LongAdder _characters = new LongAdder();
+
+    /** Number of messages converted. */
+    private final LongAdder _messages = new LongAdder();
+
+    /** Number of rotor movements. */
+    private final LongAdder _rotorSteps = new LongAdder();
+
+    /** Number of double steps. */
+    private final LongAdder _doubleSteps = new LongAdder();
+
+    /** Rotor movements and double steps of the message being recorded on
+     *  each thread. */
+    private final ThreadLocal<long[]> _steps =
+        ThreadLocal.withInitial(() -> new long[2]);
+
+    /** Time to convert each message. */
+    private final LatencyHistogram _latency = new LatencyHistogram();
+
+    /** Machine cache whose counters are reported, or null. */
+    private volatile MachineCache _machines;
+
+    /** Keystream cache whose counters are reported, or null. */
+    private volatile KeystreamCache _keystreams;
+}
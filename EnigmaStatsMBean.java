@@ -0,0 +1,48 @@
+package enigma;
+
+/** The management interface of EnigmaStats, through which the counters
+ *  of a running conversion are read over JMX.  All durations are in
+ *  microseconds.
+ *  @author Philipp Kurz
+ */
+public interface EnigmaStatsMBean {
+
+    /** Return the number of characters converted. */
+    long getCharacters();
+
+    /** Return the number of messages converted. */
+    long getMessages();
+
+    /** Return the number of characters (one byte each in the input)
+     *  converted per second since the statistics were started. */
+    double getBytesPerSecond();
+
+    /** Return the time taken to load the configuration. */
+    double getConfigLoadMicros();
+
+    /** Return the number of rotor movements. */
+    long getRotorSteps();
+
+    /** Return the number of double steps. */
+    long getDoubleSteps();
+
+    /** Return the median time to convert a message. */
+    double getLatencyP50Micros();
+
+    /** Return the 99th percentile of the time to convert a message. */
+    double getLatencyP99Micros();
+
+    /** Return the longest time to convert a message. */
+    double getLatencyMaxMicros();
+
+    /** Return the number of setting lines set up from the machine
+     *  cache. */
+    long getMachineCacheHits();
+
+    /** Return the number of setting lines not found in the machine
+     *  cache. */
+    long getMachineCacheMisses();
+
+    /** Return the number of setups evicted from the machine cache. */
+    long getMachineCacheEvictions();
+}
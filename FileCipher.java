@@ -0,0 +1,190 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static enigma.EnigmaException.*;
+
+/** Converts files in place through memory mappings.  A file is split into
+ *  regions, of REGION_SIZE bytes by default, each mapped separately.  A
+ *  file of one region is converted by the machine itself.  Otherwise, the
+ *  regions are converted in parallel, each by a copy of the machine set to
+ *  the rotor settings at the start of its region, which are found in turn
+ *  by skipping over the characters of the regions before it (see
+ *  Machine.skip).  Bytes that are not characters of the alphabet of the
+ *  machine pass through unchanged without advancing the rotors (see
+ *  Machine.convert(ByteBuffer, ByteBuffer)); for such alphabets, the
+ *  characters in each region are counted in a first parallel pass.  The
+ *  data is never copied to the heap.  Each region is forced to the
+ *  storage device once it is converted, and convert returns only when
+ *  all of them are.  A run that is interrupted, by an error, a crash or
+ *  a loss of power, leaves the file partly converted, with converted and
+ *  unconverted parts in no particular order, down to single pages; since
+ *  conversion is its own inverse, the file itself does not tell which
+ *  parts are which, so it should be kept elsewhere until convert
+ *  returns.
+ *  @author Philipp Kurz
+ */
+class FileCipher {
+
+    /** A cipher converting with copies of MACH, starting at its current
+     *  rotor settings. */
+    FileCipher(Machine mach) {
+        this(mach, REGION_SIZE);
+    }
+
+    /** A cipher as above that splits files into regions of REGIONSIZE
+     *  bytes. */
+    FileCipher(Machine mach, int regionSize) {
+        if (regionSize <= 0) {
+            throw error("region size must be positive");
+        }
+        _machine = mach;
+        _regionSize = regionSize;
+        Alphabet alpha = mach.alphabet();
+        _inAlphabet = new boolean[BYTES];
+        for (int b = 0; b < BYTES; b += 1) {
+            _inAlphabet[b] = alpha.contains((char) b);
+        }
+        _countCharacters = !alpha.isBytes();
+    }
+
+    /** Convert the file named NAME in place on POOL, leaving my machine
+     *  at the settings following the last character of the file, and
+     *  return once the whole file has been written to the storage
+     *  device. */
+    void convert(String name, ForkJoinPool pool) {
+        try (FileChannel channel =
+             FileChannel.open(Paths.get(name), StandardOpenOption.READ,
+                              StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            int numRegions = (int) ((size + _regionSize - 1) / _regionSize);
+            _regions = new MappedByteBuffer[numRegions];
+            for (int r = 0; r < numRegions; r += 1) {
+                long start = (long) r * _regionSize;
+                _regions[r] = channel.map(FileChannel.MapMode.READ_WRITE,
+                                          start,
+                                          Math.min(_regionSize, size - start));
+            }
+            if (numRegions == 1) {
+                _machine.convert(_regions[0]);
+                _regions[0].force();
+                return;
+            }
+            _counts = new long[numRegions + 1];
+            if (_countCharacters) {
+                pool.invoke(new RegionTask(0, numRegions, true));
+            } else {
+                for (int r = 0; r < numRegions; r += 1) {
+                    _counts[r + 1] = _regions[r].limit();
+                }
+            }
+            _template = _machine.copy();
+            _states = new MachineState[numRegions];
+            for (int r = 0; r < numRegions; r += 1) {
+                _states[r] = _machine.snapshot();
+                _machine.skip(_counts[r + 1]);
+            }
+            pool.invoke(new RegionTask(0, numRegions, false));
+        } catch (IOException | UncheckedIOException
+                 | InvalidPathException excp) {
+            throw error("could not convert %s: %s", name, excp.getMessage());
+        } finally {
+            _regions = null;
+            _template = null;
+            _counts = null;
+            _states = null;
+        }
+    }
+
+    /** Return the number of characters of my alphabet in REGION. */
+    private long countCharacters(MappedByteBuffer region) {
+        long res = 0;
+        for (int i = 0; i < region.limit(); i += 1) {
+            if (_inAlphabet[region.get(i) & 0xff]) {
+                res += 1;
+            }
+        }
+        return res;
+    }
+
+    /** Counting or conversion of a range of regions. */
+    @SuppressWarnings("serial")
+    private class RegionTask extends RecursiveAction {
+
+        /** Counts the characters of each region R from LO to HI - 1 into
+         *  _counts[R + 1] if COUNT, and converts them otherwise. */
+        RegionTask(int lo, int hi, boolean count) {
+            _lo = lo;
+            _hi = hi;
+            _count = count;
+        }
+
+        @Override
+        protected void compute() {
+            if (_hi - _lo > 1) {
+                int mid = (_lo + _hi) >>> 1;
+                invokeAll(new RegionTask(_lo, mid, _count),
+                          new RegionTask(mid, _hi, _count));
+            } else if (_hi > _lo && _count) {
+                _counts[_lo + 1] = countCharacters(_regions[_lo]);
+            } else if (_hi > _lo) {
+                Machine copy = _template.copy();
+                copy.restore(_states[_lo]);
+                copy.convert(_regions[_lo].duplicate());
+                _regions[_lo].force();
+            }
+        }
+
+        /** First region. */
+        private final int _lo;
+
+        /** Region following the last one. */
+        private final int _hi;
+
+        /** True iff characters are counted rather than converted. */
+        private final boolean _count;
+    }
+
+    /** Number of bytes of a region. */
+    static final int REGION_SIZE = 1 << 24;
+
+    /** Number of byte values. */
+    private static final int BYTES = 256;
+
+    /** Machine whose copies convert the regions. */
+    private final Machine _machine;
+
+    /** Number of bytes of my regions. */
+    private final int _regionSize;
+
+    /** For every byte value, whether it is a character of the alphabet of
+     *  _machine. */
+    private final boolean[] _inAlphabet;
+
+    /** True iff not all bytes are characters, so that they have to be
+     *  counted. */
+    private final boolean _countCharacters;
+
+    /** Copy of _machine from which the regions of the file being converted
+     *  are converted. */
+    private Machine _template;
+
+    /** Mappings of the regions of the file being converted. */
+    private MappedByteBuffer[] _regions;
+
+    /** Number of characters in each region of the file being converted,
+     *  at the index following that of the region. */
+    private long[] _counts;
+
+    /** State of _machine at the start of each region of the file being
+     *  converted. */
+    private MachineState[] _states;
+}
@@ -0,0 +1,552 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static enigma.EnigmaException.*;
+
+/** A ciphertext-only search for the key of a message.  The search tries
+ *  every rotor order that the rotors of a configuration allow, and every
+ *  setting of the rotors in that order, decrypts the message with each
+ *  of them and keeps the keys whose decryptions score best.  An optional
+ *  second stage varies the ring settings of the two rightmost rotors of
+ *  the best keys.  The plugboard is assumed to be known (or absent).
+ *
+ *  The trials are distributed over a ForkJoinPool, one task per rotor
+ *  order and setting of the leftmost rotor.  Each thread keeps its own
+ *  state, buffer, scorer and best keys, so a trial allocates nothing.
+ *  @author Philipp Kurz
+ */
+class KeySearch {
+
+    /** A search for the key of CIPHERTEXT, a message of alphabet indices,
+     *  among the rotors available to MACH, with plugboard PLUGBOARD (none
+     *  if null), keeping the KEEP best keys according to SCORER. */
+    KeySearch(Machine mach, int[] ciphertext, Permutation plugboard,
+              TextScorer scorer, int keep) {
+        if (keep < 1) {
+            throw error("Number of keys to keep must be positive.");
+        }
+        _alphabet = mach.alphabet();
+        _size = _alphabet.size();
+        _numRotors = mach.numRotors();
+        _numPawls = mach.numPawls();
+        _ciphertext = ciphertext.clone();
+        _plugboard = plugboard;
+        _scorer = scorer;
+        _keep = keep;
+        _allRotors = mach.allRotors();
+        _orders = rotorOrders(mach);
+        if (_orders.isEmpty()) {
+            throw error("No rotor order fits the slots of the machine.");
+        }
+        _specs = new MachineSpec[_orders.size()];
+        int[] rings = new int[_numRotors];
+        for (int i = 0; i < _specs.length; i += 1) {
+            _specs[i] = new MachineSpec(_alphabet, _numPawls, _orders.get(i),
+                                        rings, plugboard);
+        }
+    }
+
+    /** Set whether the ring settings of the best keys are searched after
+     *  the rotor settings to SEARCH. */
+    void setRingStage(boolean search) {
+        _ringStage = search;
+    }
+
+    /** Return the number of rotor orders that are searched. */
+    int numOrders() {
+        return _orders.size();
+    }
+
+    /** Search on POOL and return the best keys, best first. */
+    List<Candidate> search(ForkJoinPool pool) {
+        long start = System.nanoTime();
+        _workers.clear();
+        _local = ThreadLocal.withInitial(() -> {
+            Worker worker = new Worker();
+            _workers.add(worker);
+            return worker;
+        });
+        pool.invoke(new SearchTask(0, _specs.length * _size));
+        ArrayList<Candidate> res = new ArrayList<>();
+        for (Worker worker : _workers) {
+            worker.collect(res);
+        }
+        Collections.sort(res);
+        if (res.size() > _keep) {
+            res.subList(_keep, res.size()).clear();
+        }
+        if (_ringStage) {
+            pool.invoke(new RingTask(res, 0, res.size()));
+            Collections.sort(res);
+        }
+        _trials = 0;
+        for (Worker worker : _workers) {
+            _trials += worker._trials;
+        }
+        _elapsed = System.nanoTime() - start;
+        return res;
+    }
+
+    /** Return the number of trial decryptions of the last search. */
+    long trials() {
+        return _trials;
+    }
+
+    /** Return the number of trial decryptions per second of the last
+     *  search. */
+    double trialsPerSecond() {
+        return _elapsed == 0 ? 0 : _trials * 1e9 / _elapsed;
+    }
+
+    /** Return the duration of the last search in nanoseconds. */
+    long elapsed() {
+        return _elapsed;
+    }
+
+    /** A key found by the search together with its score.  Candidates
+     *  are ordered best first. */
+    static class Candidate implements Comparable<Candidate> {
+
+        /** A candidate with ROTORS (the reflector first) at SETTING with
+         *  RINGSETTING (empty for the default) scoring SCORE. */
+        Candidate(String[] rotors, String setting, String ringSetting,
+                  double score) {
+            _rotors = rotors;
+            _setting = setting;
+            _ringSetting = ringSetting;
+            _score = score;
+        }
+
+        /** Return the names of my rotors, the reflector first. */
+        String[] rotors() {
+            return _rotors;
+        }
+
+        /** Return the setting of my rotors. */
+        String setting() {
+            return _setting;
+        }
+
+        /** Return my ring setting, or "" for the default. */
+        String ringSetting() {
+            return _ringSetting;
+        }
+
+        /** Return the score of the decryption with my key. */
+        double score() {
+            return _score;
+        }
+
+        @Override
+        public int compareTo(Candidate other) {
+            return Double.compare(other._score, _score);
+        }
+
+        /** Return me as a setting line (without plugboard). */
+        @Override
+        public String toString() {
+            StringBuilder res = new StringBuilder("*");
+            for (String rotor : _rotors) {
+                res.append(' ').append(rotor);
+            }
+            res.append(' ').append(_setting);
+            if (!_ringSetting.isEmpty()) {
+                res.append(' ').append(_ringSetting);
+            }
+            return res.toString();
+        }
+
+        /** Names of the rotors. */
+        private final String[] _rotors;
+
+        /** Setting of the rotors. */
+        private String _setting;
+
+        /** Ring setting, or "". */
+        private String _ringSetting;
+
+        /** Score of the decryption. */
+        private double _score;
+    }
+
+    /** Return all sequences of rotors available to MACH that are valid in
+     *  its slots, in a fixed order. */
+    static List<Rotor[]> rotorOrders(Machine mach) {
+        TreeMap<String, Rotor> byName = new TreeMap<>(mach.allRotors());
+        ArrayList<Rotor> reflectors = new ArrayList<>();
+        ArrayList<Rotor> fixed = new ArrayList<>();
+        ArrayList<Rotor> moving = new ArrayList<>();
+        for (Rotor rotor : byName.values()) {
+            if (rotor instanceof Reflector) {
+                reflectors.add(rotor);
+            } else if (rotor instanceof FixedRotor) {
+                fixed.add(rotor);
+            } else if (rotor instanceof MovingRotor) {
+                moving.add(rotor);
+            }
+        }
+        ArrayList<Rotor[]> res = new ArrayList<>();
+        Rotor[] order = new Rotor[mach.numRotors()];
+        for (Rotor reflector : reflectors) {
+            order[0] = reflector;
+            addOrders(order, 1, mach.numRotors() - mach.numPawls(), fixed,
+                      moving, res);
+        }
+        return res;
+    }
+
+    /** Add to RES all completions of ORDER whose slots from SLOT on are
+     *  filled with distinct rotors, rotors from FIXED in the slots before
+     *  FIRSTMOVING and rotors from MOVING in the others. */
+    private static void addOrders(Rotor[] order, int slot, int firstMoving,
+                                  List<Rotor> fixed, List<Rotor> moving,
+                                  List<Rotor[]> res) {
+        if (slot == order.length) {
+            res.add(order.clone());
+            return;
+        }
+        List<Rotor> choices = slot < firstMoving ? fixed : moving;
+        for (Rotor rotor : choices) {
+            if (!Arrays.asList(order).subList(0, slot).contains(rotor)) {
+                order[slot] = rotor;
+                addOrders(order, slot + 1, firstMoving, fixed, moving, res);
+            }
+        }
+        order[slot] = null;
+    }
+
+    /** Return the names of the rotors of ORDER. */
+    static String[] names(Rotor[] order) {
+        String[] res = new String[order.length];
+        for (int i = 0; i < order.length; i += 1) {
+            res[i] = order[i].name();
+        }
+        return res;
+    }
+
+    /** Return the settings of slots 1 and up in SETTINGS as a string of
+     *  my alphabet. */
+    private String settingString(int[] settings) {
+        StringBuilder res = new StringBuilder();
+        for (int i = 1; i < settings.length; i += 1) {
+            res.append(_alphabet.toChar(settings[i]));
+        }
+        return res.toString();
+    }
+
+    /** Return the settings of slots 1 and up in SETTINGS as one number,
+     *  the rightmost slot being least significant. */
+    private long encode(int[] settings) {
+        long res = 0;
+        for (int i = 1; i < settings.length; i += 1) {
+            res = res * _size + settings[i];
+        }
+        return res;
+    }
+
+    /** Store the settings encoded as KEY (see encode()) in SETTINGS. */
+    private void decode(long key, int[] settings) {
+        for (int i = settings.length - 1; i >= 1; i -= 1) {
+            settings[i] = (int) (key % _size);
+            key /= _size;
+        }
+        settings[0] = 0;
+    }
+
+    /** The state of one thread of the search. */
+    private class Worker {
+
+        /** A worker for my search. */
+        Worker() {
+            _state = new MachineState(_numRotors);
+            _trial = new int[_numRotors];
+            _text = new int[_ciphertext.length];
+            _threadScorer = _scorer.copy();
+            _scores = new double[_keep];
+            _orderIndices = new int[_keep];
+            _keys = new long[_keep];
+        }
+
+        /** Try all settings of the rotors of rotor order number ORDER
+         *  whose leftmost rotor setting is FIRST. */
+        void searchOrder(int order, int first) {
+            MachineSpec spec = _specs[order];
+            int[] trial = _trial;
+            Arrays.fill(trial, 0);
+            if (_numRotors > 1) {
+                trial[1] = first;
+            } else if (first > 0) {
+                return;
+            }
+            do {
+                double score = tryKey(spec, trial);
+                if (_count < _keep || score > _scores[_worst]) {
+                    offer(score, order, encode(trial));
+                }
+            } while (nextSetting(trial));
+        }
+
+        /** Return the score of the decryption of the ciphertext with SPEC
+         *  at SETTINGS. */
+        double tryKey(MachineSpec spec, int[] settings) {
+            System.arraycopy(settings, 0, _state.settings(), 0, _numRotors);
+            System.arraycopy(_ciphertext, 0, _text, 0, _text.length);
+            spec.convert(_state, _text, 0, _text.length);
+            _trials += 1;
+            return _threadScorer.score(_text, _text.length);
+        }
+
+        /** Return the score of the decryption of the ciphertext with SPEC
+         *  at SETTINGS, but with ring settings RINGS. */
+        double tryKey(MachineSpec spec, int[] rings, int[] settings) {
+            System.arraycopy(settings, 0, _state.settings(), 0, _numRotors);
+            System.arraycopy(_ciphertext, 0, _text, 0, _text.length);
+            spec.convert(_state, rings, _text, 0, _text.length);
+            _trials += 1;
+            return _threadScorer.score(_text, _text.length);
+        }
+
+        /** Advance SETTINGS to the next setting with the same setting of
+         *  slot 1, returning false if there is none. */
+        private boolean nextSetting(int[] settings) {
+            for (int i = settings.length - 1; i >= 2; i -= 1) {
+                settings[i] += 1;
+                if (settings[i] < _size) {
+                    return true;
+                }
+                settings[i] = 0;
+            }
+            return false;
+        }
+
+        /** Record the key at settings KEY of rotor order number ORDER with
+         *  SCORE as one of my best, replacing the worst one if I have
+         *  _keep of them. */
+        private void offer(double score, int order, long key) {
+            int k = _count < _keep ? _count : _worst;
+            if (_count < _keep) {
+                _count += 1;
+            }
+            _scores[k] = score;
+            _orderIndices[k] = order;
+            _keys[k] = key;
+            _worst = 0;
+            for (int i = 1; i < _count; i += 1) {
+                if (_scores[i] < _scores[_worst]) {
+                    _worst = i;
+                }
+            }
+        }
+
+        /** Add my best keys to RES. */
+        void collect(List<Candidate> res) {
+            int[] settings = new int[_numRotors];
+            for (int k = 0; k < _count; k += 1) {
+                decode(_keys[k], settings);
+                res.add(new Candidate(names(_orders.get(_orderIndices[k])),
+                                      settingString(settings), "",
+                                      _scores[k]));
+            }
+        }
+
+        /** Replace the ring setting of CANDIDATE by the best one for its
+         *  two rightmost rotors, together with the rotor setting that
+         *  keeps the wiring of these rotors in place.  The trials vary the
+         *  ring settings in one array, so they allocate nothing. */
+        void searchRings(Candidate candidate) {
+            Rotor[] order = new Rotor[_numRotors];
+            for (int i = 0; i < _numRotors; i += 1) {
+                order[i] = _allRotors.get(candidate.rotors()[i]);
+            }
+            int[] base = new int[_numRotors];
+            for (int i = 1; i < _numRotors; i += 1) {
+                base[i] = _alphabet.toInt(candidate.setting().charAt(i - 1));
+            }
+            int first = Math.max(1, _numRotors - 2);
+            int combinations = 1;
+            for (int i = first; i < _numRotors; i += 1) {
+                combinations *= _size;
+            }
+            int[] rings = new int[_numRotors];
+            int[] settings = new int[_numRotors];
+            int[] bestRings = new int[_numRotors];
+            int[] bestSettings = base.clone();
+            double best = candidate.score();
+            MachineSpec spec = new MachineSpec(_alphabet, _numPawls, order,
+                                               rings, _plugboard);
+            for (int r = 0; r < combinations; r += 1) {
+                int digits = r;
+                System.arraycopy(base, 0, settings, 0, _numRotors);
+                for (int i = _numRotors - 1; i >= first; i -= 1) {
+                    rings[i] = digits % _size;
+                    settings[i] = (base[i] + rings[i]) % _size;
+                    digits /= _size;
+                }
+                double score = tryKey(spec, rings, settings);
+                if (score > best) {
+                    best = score;
+                    System.arraycopy(rings, 0, bestRings, 0, _numRotors);
+                    System.arraycopy(settings, 0, bestSettings, 0,
+                                     _numRotors);
+                }
+            }
+            candidate._setting = settingString(bestSettings);
+            candidate._ringSetting = settingString(bestRings);
+            candidate._score = best;
+        }
+
+        /** State of the machine during a trial. */
+        private final MachineState _state;
+
+        /** Settings of the current trial. */
+        private final int[] _trial;
+
+        /** Decryption of the current trial. */
+        private final int[] _text;
+
+        /** My copy of the scorer. */
+        private final TextScorer _threadScorer;
+
+        /** Scores of my best keys. */
+        private final double[] _scores;
+
+        /** Rotor order numbers of my best keys. */
+        private final int[] _orderIndices;
+
+        /** Rotor settings of my best keys (see encode()). */
+        private final long[] _keys;
+
+        /** Number of my best keys. */
+        private int _count;
+
+        /** Index of my worst best key. */
+        private int _worst;
+
+        /** Number of trial decryptions I made. */
+        private long _trials;
+    }
+
+    /** Searches a range of rotor orders and leftmost rotor settings. */
+    @SuppressWarnings("serial")
+    private class SearchTask extends RecursiveAction {
+
+        /** Searches the combinations numbered LO to HI - 1, combination
+         *  number K being rotor order K / alphabet size with leftmost
+         *  rotor setting K % alphabet size. */
+        SearchTask(int lo, int hi) {
+            _lo = lo;
+            _hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (_hi - _lo <= 1) {
+                for (int k = _lo; k < _hi; k += 1) {
+                    _local.get().searchOrder(k / _size, k % _size);
+                }
+                return;
+            }
+            int mid = (_lo + _hi) >>> 1;
+            invokeAll(new SearchTask(_lo, mid), new SearchTask(mid, _hi));
+        }
+
+        /** First combination. */
+        private final int _lo;
+
+        /** End of the combinations. */
+        private final int _hi;
+    }
+
+    /** Searches the ring settings of a range of candidates. */
+    @SuppressWarnings("serial")
+    private class RingTask extends RecursiveAction {
+
+        /** Searches the ring settings of CANDIDATES LO to HI - 1. */
+        RingTask(List<Candidate> candidates, int lo, int hi) {
+            _candidates = candidates;
+            _lo = lo;
+            _hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (_hi - _lo <= 1) {
+                for (int k = _lo; k < _hi; k += 1) {
+                    _local.get().searchRings(_candidates.get(k));
+                }
+                return;
+            }
+            int mid = (_lo + _hi) >>> 1;
+            invokeAll(new RingTask(_candidates, _lo, mid),
+                      new RingTask(_candidates, mid, _hi));
+        }
+
+        /** The candidates. */
+        private final List<Candidate> _candidates;
+
+        /** First candidate. */
+        private final int _lo;
+
+        /** End of the candidates. */
+        private final int _hi;
+    }
+
+    /** Alphabet of the machine. */
+    private final Alphabet _alphabet;
+
+    /** Size of _alphabet. */
+    private final int _size;
+
+    /** Number of rotor slots. */
+    private final int _numRotors;
+
+    /** Number of pawls. */
+    private final int _numPawls;
+
+    /** Available rotors by name. */
+    private final HashMap<String, Rotor> _allRotors;
+
+    /** Every valid rotor order. */
+    private final List<Rotor[]> _orders;
+
+    /** Specification of the machine with each rotor order and the default
+     *  ring settings. */
+    private final MachineSpec[] _specs;
+
+    /** The message whose key is searched. */
+    private final int[] _ciphertext;
+
+    /** Plugboard, or null for none. */
+    private final Permutation _plugboard;
+
+    /** Scorer of decryptions, copied for each thread. */
+    private final TextScorer _scorer;
+
+    /** Number of keys to keep. */
+    private final int _keep;
+
+    /** True iff the ring settings of the best keys are searched. */
+    private boolean _ringStage;
+
+    /** The worker of each thread of the current search. */
+    private ThreadLocal<Worker> _local;
+
+    /** All workers of the current search. */
+    private final ConcurrentLinkedQueue<Worker> _workers =
+        new ConcurrentLinkedQueue<>();
+
+    /** Number of trials of the last search. */
+    private long _trials;
+
+    /** Duration of the last search in nanoseconds. */
+    private long _elapsed;
+}
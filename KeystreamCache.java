@@ -0,0 +1,150 @@
+package enigma;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import static enigma.EnigmaException.*;
+
+/** A cache of keystream prefixes by machine setup (see Machine.Setup),
+ *  for inputs with many short messages under recurring keys.  The prefix
+ *  of a setup holds, for each of the first length() characters after
+ *  it, the converted character for every input character, one byte each,
+ *  so that a machine set up from the setup converts these characters by
+ *  table lookups (see Machine.setup(Setup)).  Since setups are shared
+ *  through a MachineCache, prefixes are only computed for setting lines
+ *  that recur.  The cache holds prefixes of at most a given size in
+ *  total, and evicts the least recently used prefixes first.  It may be
+ *  shared by any number of threads.
+ *  @author Philipp Kurz
+ */
+class KeystreamCache {
+
+    /** A cache of prefixes of LENGTH characters of at most about MAXBYTES
+     *  bytes in total. */
+    KeystreamCache(int length, long maxBytes) {
+        if (length < 1 || maxBytes < 0) {
+            throw error("Invalid size of keystream cache.");
+        }
+        _length = length;
+        _maxBytes = maxBytes;
+    }
+
+    /** Return the number of characters of my prefixes. */
+    int length() {
+        return _length;
+    }
+
+    /** Return true iff I can hold a prefix over an alphabet of SIZE
+     *  characters, i.e. if it fits into an array and into my maximum
+     *  size.  Prefixes that do not fit must not be computed, since they
+     *  would be dropped by put and computed again for every message. */
+    boolean fits(int size) {
+        long bytes = (long) _length * size;
+        return bytes <= Integer.MAX_VALUE
+            && ENTRY_OVERHEAD + bytes <= _maxBytes;
+    }
+
+    /** Return the prefix of SETUP, or null if I do not hold it.  The
+     *  result must not be modified. */
+    byte[] get(Machine.Setup setup) {
+        byte[] prefix;
+        synchronized (this) {
+            prefix = _prefixes.get(setup);
+        }
+        if (prefix == null) {
+            _misses.increment();
+        } else {
+            _hits.increment();
+        }
+        return prefix;
+    }
+
+    /** Cache PREFIX as the prefix of SETUP, evicting the least recently
+     *  used prefixes as far as necessary.  PREFIX must not be modified
+     *  afterwards. */
+    synchronized void put(Machine.Setup setup, byte[] prefix) {
+        long bytes = footprint(prefix);
+        if (bytes > _maxBytes) {
+            return;
+        }
+        byte[] old = _prefixes.put(setup, prefix);
+        if (old != null) {
+            _bytes -= footprint(old);
+        }
+        _bytes += bytes;
+        Iterator<byte[]> prefixes = _prefixes.values().iterator();
+        while (_bytes > _maxBytes) {
+            _bytes -= footprint(prefixes.next());
+            prefixes.remove();
+            _evictions.increment();
+        }
+    }
+
+    /** Return the estimated number of bytes of an entry holding
+     *  PREFIX. */
+    private static long footprint(byte[] prefix) {
+        return ENTRY_OVERHEAD + prefix.length;
+    }
+
+    /** Return the number of setups whose prefix I held. */
+    long hits() {
+        return _hits.sum();
+    }
+
+    /** Return the number of setups whose prefix I did not hold. */
+    long misses() {
+        return _misses.sum();
+    }
+
+    /** Return the number of prefixes I evicted. */
+    long evictions() {
+        return _evictions.sum();
+    }
+
+    /** Return the number of prefixes I hold. */
+    synchronized int size() {
+        return _prefixes.size();
+    }
+
+    /** Return the estimated number of bytes of the prefixes I hold. */
+    synchronized long bytes() {
+        return _bytes;
+    }
+
+    /** Return a one-line report of my counters. */
+    String summary() {
+        return String.format("hits=%d misses=%d evictions=%d entries=%d "
+                             + "bytes=%d", hits(), misses(), evictions(),
+                             size(), bytes());
+    }
+
+    /** Default maximum estimated size of all prefixes. */
+    static final long DEFAULT_BYTES = 64L << 20;
+
+    /** Estimated number of bytes of an entry apart from its prefix. */
+    private static final long ENTRY_OVERHEAD = 80;
+
+    /** Number of characters of each prefix. */
+    private final int _length;
+
+    /** Maximum estimated size of all prefixes. */
+    private final long _maxBytes;
+
+    /** Prefixes by their setups, least recently used first. */
+    private final LinkedHashMap<Machine.Setup, byte[]> _prefixes =
+        new LinkedHashMap<>(16, .75f, true);
+
+    /** Estimated size of all prefixes. */
+    private long _bytes;
+
+    /** Number of setups whose prefix was cached. */
+    private final LongAdder _hits = new LongAdder();
+
+    /** Number of setups whose prefix was not cached. */
+    private final LongAdder _misses = new LongAdder();
+
+    /** Number of prefixes evicted. */
+    private final LongAdder _evictions = new LongAdder();
+}
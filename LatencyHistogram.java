@@ -0,0 +1,102 @@
+package enigma;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/** A histogram of durations in nanoseconds with a relative precision of
+ *  about 1.5%, in the manner of HdrHistogram.  Durations below 128 ns are
+ *  counted exactly; larger ones fall into one of 64 buckets per power of
+ *  two.  Recording is lock-free, allocation-free and may happen on any
+ *  number of threads concurrently.
+ *  @author Philipp Kurz
+ */
+class LatencyHistogram {
+
+    /** Record one duration of NANOS nanoseconds.  Negative durations count
+     *  as 0, and durations above MAX_NANOS as MAX_NANOS. */
+    void record(long nanos) {
+        _counts.incrementAndGet(bucket(Math.min(Math.max(nanos, 0),
+                                                MAX_NANOS)));
+    }
+
+    /** Return the number of recorded durations. */
+    long count() {
+        long res = 0;
+        for (int b = 0; b < NUM_BUCKETS; b += 1) {
+            res += _counts.get(b);
+        }
+        return res;
+    }
+
+    /** Return the duration below or at which the fraction FRACTION of all
+     *  recorded durations lie, up to the precision of the histogram, or
+     *  0 if there are none. */
+    long percentile(double fraction) {
+        long total = count();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(fraction * total));
+        long seen = 0;
+        for (int b = 0; b < NUM_BUCKETS; b += 1) {
+            seen += _counts.get(b);
+            if (seen >= rank) {
+                return highestValue(b);
+            }
+        }
+        return MAX_NANOS;
+    }
+
+    /** Return the largest recorded duration, up to the precision of the
+     *  histogram, or 0 if there is none. */
+    long max() {
+        for (int b = NUM_BUCKETS - 1; b >= 0; b -= 1) {
+            if (_counts.get(b) > 0) {
+                return highestValue(b);
+            }
+        }
+        return 0;
+    }
+
+    /** Return a one-line summary of my durations in microseconds. */
+    String summary() {
+        return String.format("count=%d p50=%.1fus p90=%.1fus p99=%.1fus "
+                             + "max=%.1fus", count(), percentile(.5) / 1e3,
+                             percentile(.9) / 1e3, percentile(.99) / 1e3,
+                             max() / 1e3);
+    }
+
+    /** Return the bucket of duration NANOS, 0 <= NANOS <= MAX_NANOS. */
+    private static int bucket(long nanos) {
+        if (nanos < 2 * SUB_BUCKETS) {
+            return (int) nanos;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(nanos) - SUB_BITS;
+        return 2 * SUB_BUCKETS + (shift - 1) * SUB_BUCKETS
+            + (int) (nanos >> shift) - SUB_BUCKETS;
+    }
+
+    /** Return the largest duration that falls into bucket B. */
+    private static long highestValue(int b) {
+        if (b < 2 * SUB_BUCKETS) {
+            return b;
+        }
+        int shift = (b - 2 * SUB_BUCKETS) / SUB_BUCKETS + 1;
+        long mantissa = (b - 2 * SUB_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    /** Number of bits of precision of each bucket. */
+    private static final int SUB_BITS = 6;
+
+    /** Number of buckets per power of two. */
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    /** Largest duration that is distinguished, about 36 minutes. */
+    static final long MAX_NANOS = (1L << 41) - 1;
+
+    /** Total number of buckets. */
+    private static final int NUM_BUCKETS = bucket(MAX_NANOS) + 1;
+
+    /** Number of recorded durations in each bucket. */
+    private final AtomicLongArray _counts = new AtomicLongArray(NUM_BUCKETS);
+}
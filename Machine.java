@@ -1,7 +1,12 @@
 package enigma;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import static enigma.EnigmaException.*;
 
@@ -22,6 +27,79 @@ class Machine {
         _numRotors = numRotors;
         _numPawls = pawls;
         _allRotors = allRotors;
+        _state = new MachineState(numRotors);
+        _initialSettings = new int[numRotors];
+        _countSettings = new int[numRotors];
+        _ringSettings = new int[numRotors];
+    }
+
+    /** A copy of machine M with its own settings, which shares all tables
+     *  of M.  The copy must not be given new rotors, settings or
+     *  plugboard. */
+    private Machine(Machine m) {
+        _alphabet = m._alphabet;
+        _numRotors = m._numRotors;
+        _numPawls = m._numPawls;
+        _allRotors = m._allRotors;
+        _rotors = m._rotors;
+        _ringSettings = m._ringSettings;
+        _plugboard = m._plugboard;
+        _spec = m._spec;
+        _state = m._state.copy();
+        _initialSettings = m._initialSettings.clone();
+        _countSettings = new int[_numRotors];
+        _useKeystreamTable = m._useKeystreamTable && m._keystreamTable != null;
+        _keystreamTable = m._keystreamTable;
+        _nextState = m._nextState;
+        _keystreams = m._keystreams;
+        _generatedEngine = m._generatedEngine;
+    }
+
+    /** Return a new machine with my alphabet, number of rotor slots and
+     *  pawls, available rotors, keystream cache, engine and keystream
+     *  table mode, which has no rotors inserted yet. */
+    Machine newMachine() {
+        Machine res = new Machine(_alphabet, _numRotors, _numPawls,
+                                  _allRotors);
+        res._keystreams = _keystreams;
+        res._generatedEngine = _generatedEngine;
+        res._useKeystreamTable = _useKeystreamTable;
+        return res;
+    }
+
+    /** Convert with engines generated for my shape (see EngineGenerator)
+     *  iff GENERATED, and with the loops of MachineSpec otherwise.
+     *  Return whether the generated engine is used, which it is not if it
+     *  cannot be generated.  Setups made before are not affected. */
+    boolean setGeneratedEngine(boolean generated) {
+        syncRotors();
+        _spec = null;
+        _generatedEngine = generated
+            && EngineGenerator.available(_numRotors, _numPawls);
+        return _generatedEngine;
+    }
+
+    /** Use KEYSTREAMS, which may be null, for the keystream prefixes of
+     *  the setups I am set up from (see setup(Setup)).  KEYSTREAMS must
+     *  have room for a prefix over my alphabet, if it has at most
+     *  BYTE_VALUES characters. */
+    void setKeystreamCache(KeystreamCache keystreams) {
+        if (keystreams != null && _alphabet.size() <= BYTE_VALUES
+            && !keystreams.fits(_alphabet.size())) {
+            throw error("Keystream cache too small for prefixes of %d "
+                        + "characters.", keystreams.length());
+        }
+        _keystreams = keystreams;
+    }
+
+    /** Return my keystream cache, or null. */
+    KeystreamCache keystreamCache() {
+        return _keystreams;
+    }
+
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
     }
 
     /** Return the number of rotor slots I have. */
@@ -34,11 +112,186 @@ class Machine {
         return _numPawls;
     }
 
+    /** Return the rotors available to me, by name.  The map is shared and
+     *  must not be modified. */
+    HashMap<String, Rotor> allRotors() {
+        return _allRotors;
+    }
+
+    /** Return the specification of my current rotors, ring settings and
+     *  plugboard, which may be shared with other threads. */
+    MachineSpec spec() {
+        if (_spec == null) {
+            if (_rotors == null) {
+                throw error("No rotors inserted.");
+            }
+            _spec = new MachineSpec(_alphabet, _numPawls,
+                                    _rotors.toArray(new Rotor[0]),
+                                    _ringSettings, _plugboard,
+                                    _generatedEngine);
+        }
+        return _spec;
+    }
+
+    /** Add the number of rotor movements and of double steps made since
+     *  my rotors were last set to COUNTS[0] and COUNTS[1] (see
+     *  MachineSpec.advance(int[], long, long[])).  This computes them as
+     *  seek computes the settings, and allocates nothing. */
+    void countSteps(long[] counts) {
+        System.arraycopy(_initialSettings, 0, _countSettings, 0,
+                         _numRotors);
+        spec().advance(_countSettings, _state.position(), counts);
+    }
+
+    /** Return a copy of me with its own rotor settings, which shares all my
+     *  tables and is positioned like me, for converting part of a message
+     *  on another thread (see seek).  The copy must not be given new
+     *  rotors, settings or plugboard.  Once I have been copied, copying me
+     *  again does not modify me, so copies may be made concurrently as
+     *  long as I am not used otherwise. */
+    Machine copy() {
+        syncRotors();
+        if (_useKeystreamTable && _keystreamTable == null) {
+            buildKeystreamTable();
+        }
+        spec();
+        return new Machine(this);
+    }
+
+    /** Advance my rotors as converting N more characters would, without
+     *  converting any or taking the steps one by one (see seek). */
+    void skip(long n) {
+        if (n < 0) {
+            throw error("Cannot skip a negative number of characters.");
+        }
+        syncRotors();
+        spec().advance(_state.settings(), n);
+        _state.setPosition(_state.position() + n);
+    }
+
+    /** Return a copy of my current state, which remains valid for spec()
+     *  until my rotors, ring settings or plugboard change. */
+    MachineState snapshot() {
+        syncRotors();
+        return _state.copy();
+    }
+
+    /** Set my state to a copy of STATE, which must be a state for
+     *  spec(). */
+    void restore(MachineState state) {
+        _tableState = -1;
+        _prefix = null;
+        _state.copyFrom(state);
+    }
+
+    /** Return my rotors, ring settings and plugboard, compiled, together
+     *  with the settings last given to setRotors, from which setup(Setup)
+     *  sets up a machine again without checking or compiling anything. */
+    Setup setup() {
+        return new Setup(this);
+    }
+
+    /** Set up my rotors, ring settings, plugboard and rotor settings as
+     *  recorded in SETUP, exactly as if they had been set one by one,
+     *  which must come from a machine with my available rotors.  With a
+     *  keystream cache, the first characters after SETUP are converted
+     *  from its keystream prefix, which is computed if the cache does not
+     *  hold it. */
+    void setup(Setup setup) {
+        if (setup._allRotors != _allRotors) {
+            throw error("Setup for different rotors.");
+        }
+        _keystreamTable = null;
+        _tableState = -1;
+        _prefix = null;
+        _rotors = setup._rotors;
+        System.arraycopy(setup._ringSettings, 0, _ringSettings, 0,
+                         _numRotors);
+        _plugboard = setup._plugboard;
+        _spec = setup._spec;
+        System.arraycopy(setup._settings, 0, _initialSettings, 0,
+                         _numRotors);
+        System.arraycopy(setup._settings, 0, _state.settings(), 0,
+                         _numRotors);
+        _state.setPosition(0);
+        if (_keystreams != null && !_useKeystreamTable
+            && _alphabet.size() <= BYTE_VALUES) {
+            byte[] prefix = _keystreams.get(setup);
+            if (prefix == null) {
+                prefix = keystreamPrefix(_keystreams.length());
+                _keystreams.put(setup, prefix);
+            }
+            _prefix = prefix;
+        }
+    }
+
+    /** Return the keystream of my next LENGTH characters as LENGTH rows of
+     *  converted characters, one per input character, without changing my
+     *  settings. */
+    private byte[] keystreamPrefix(int length) {
+        MachineSpec spec = spec();
+        int size = _alphabet.size();
+        int[] settings = _state.settings().clone();
+        byte[] res = new byte[length * size];
+        for (int p = 0; p < length; p += 1) {
+            spec.advance(settings);
+            for (int c = 0; c < size; c += 1) {
+                res[p * size + c] = (byte) spec.translate(settings, c);
+            }
+        }
+        return res;
+    }
+
+    /** The rotors, ring settings, plugboard and initial rotor settings of
+     *  a machine, compiled into its specification.  Setups are immutable
+     *  and may be shared between threads. */
+    static final class Setup {
+
+        /** The setup of MACH. */
+        private Setup(Machine mach) {
+            _spec = mach.spec();
+            _allRotors = mach._allRotors;
+            _rotors = mach._rotors;
+            _ringSettings = mach._ringSettings.clone();
+            _plugboard = mach._plugboard;
+            _settings = mach._initialSettings.clone();
+        }
+
+        /** Return an estimate of the number of bytes of memory I take
+         *  apart from the rotors, which are shared by all setups. */
+        long footprint() {
+            return SETUP_OVERHEAD + 8L * _rotors.size()
+                + 8L * _settings.length + _spec.footprint();
+        }
+
+        /** Compiled specification. */
+        private final MachineSpec _spec;
+
+        /** The rotors available to the machine. */
+        private final HashMap<String, Rotor> _allRotors;
+
+        /** The rotors in the slots, which is not modified. */
+        private final ArrayList<Rotor> _rotors;
+
+        /** Ring setting of the rotor in each slot. */
+        private final int[] _ringSettings;
+
+        /** Plugboard, or null for none. */
+        private final Permutation _plugboard;
+
+        /** Setting of the rotor in each slot as given to setRotors. */
+        private final int[] _settings;
+    }
+
 
     /** Set my rotor slots to the rotors named ROTORS from my set of
      *  available rotors (ROTORS[0] names the reflector).
      *  Initially, all rotors are set at their 0 setting. */
     void insertRotors(String[] rotors) {
+        _keystreamTable = null;
+        _spec = null;
+        _tableState = -1;
+        _prefix = null;
         _rotors = new ArrayList<Rotor>();
         for (String rotor : rotors) {
             Rotor rot = _allRotors.get(rotor);
@@ -51,6 +304,13 @@ class Machine {
             _rotors.add(rot);
         }
         checkRotorPositions();
+        int[] settings = _state.settings();
+        for (int i = 0; i < _numRotors; i += 1) {
+            settings[i] = 0;
+            _ringSettings[i] = 0;
+        }
+        System.arraycopy(settings, 0, _initialSettings, 0, _numRotors);
+        _state.setPosition(0);
     }
 
     /** Check if positions in _rotors are correct. */
@@ -81,71 +341,360 @@ class Machine {
         if (setting.length() != _numRotors - 1) {
             throw error("Rotor setting has wrong length.");
         }
+        int[] settings = _state.settings();
         for (int i = 1; i < _numRotors; i += 1) {
             char c = setting.charAt(i - 1);
             if (!_alphabet.contains(c)) {
                 throw error("Alphabet does not contain character "
                         + "from setting.");
             }
-            _rotors.get(i).set(c);
+            int posn = _alphabet.toInt(c);
+            if (i < _numRotors - _numPawls && settings[i] != posn) {
+                _keystreamTable = null;
+            }
+            settings[i] = posn;
         }
+        System.arraycopy(settings, 0, _initialSettings, 0, _numRotors);
+        _state.setPosition(0);
+        _tableState = -1;
+        _prefix = null;
+    }
+
+    /** Set my rotors to the settings they reach after OFFSET characters
+     *  have been converted, starting from the settings last given to
+     *  setRotors (or the 0 settings after insertRotors).  The settings
+     *  are computed from the notches of the rotors, in time independent of
+     *  OFFSET, unless a moving rotor other than the leftmost has adjacent
+     *  notches; then the steps are skipped stretch by stretch, in time
+     *  proportional to OFFSET (see MachineSpec.advance(int[], long)). */
+    void seek(long offset) {
+        if (offset < 0) {
+            throw error("Cannot seek to negative offset.");
+        }
+        _tableState = -1;
+        _prefix = null;
+        _state.setPosition(offset);
+        int[] settings = _state.settings();
+        System.arraycopy(_initialSettings, 0, settings, 0, _numRotors);
+        spec().advance(settings, offset);
     }
 
     /** Set the plugboard to PLUGBOARD. */
     void setPlugboard(Permutation plugboard) {
+        syncRotors();
+        _keystreamTable = null;
+        _spec = null;
         _plugboard = plugboard;
     }
 
     /** Set the ring setting to RINGSETTING. */
     void setRingSetting(String ringSetting) {
+        syncRotors();
+        _keystreamTable = null;
+        _spec = null;
         if (ringSetting.equals("")) {
             for (int i = 1; i < _numRotors; i += 1) {
                 ringSetting += _alphabet.toChar(0);
             }
         }
         for (int i = 1; i < _numRotors; i += 1) {
-            _rotors.get(i).setRingSetting(ringSetting.charAt(i - 1));
+            _ringSettings[i] = _alphabet.toInt(ringSetting.charAt(i - 1));
+        }
+    }
+
+    /** Enable keystream table mode iff ENABLED and return whether it is
+     *  active.  In this mode, the composed permutation of plugboard,
+     *  rotors and reflector is computed once per key for every position of
+     *  the moving rotors, so that convert(int) becomes a table lookup.
+     *  The mode stays off if the table would exceed
+     *  KEYSTREAM_TABLE_LIMIT entries. */
+    boolean setKeystreamTable(boolean enabled) {
+        syncRotors();
+        _keystreamTable = null;
+        long numStates = 1;
+        for (int i = 0; i < _numPawls; i += 1) {
+            numStates *= _alphabet.size();
+            if (numStates * _alphabet.size() > KEYSTREAM_TABLE_LIMIT) {
+                enabled = false;
+                break;
+            }
         }
+        _useKeystreamTable = enabled;
+        return enabled;
     }
 
     /** Returns the result of converting the input character C (as an
      *  index in the range 0..alphabet size - 1), after first advancing
      *  the machine. */
     int convert(int c) {
-        boolean[] canMove = new boolean[_numRotors];
-        for (int i = 0; i < _numRotors; i += 1) {
-            canMove[i] = (i == _numRotors - 1)
-                || (_rotors.get(i).rotates() && _rotors.get(i + 1).atNotch());
+        if (_prefix != null) {
+            int row = (int) _state.position() * _alphabet.size();
+            if (row < _prefix.length) {
+                _state.step();
+                return _prefix[row + c] & 0xff;
+            }
+            syncRotors();
         }
+        if (_useKeystreamTable) {
+            if (_keystreamTable == null) {
+                buildKeystreamTable();
+            } else if (_tableState < 0) {
+                _tableState = encodeState();
+            }
+            _state.step();
+            _tableState = _nextState[_tableState];
+            return _keystreamTable[_tableState * _alphabet.size() + c] & 0xff;
+        }
+        return spec().convert(_state, c);
+    }
 
-        for (int i = 0; i < _numRotors; i += 1) {
-            if (canMove[i]) {
-                _rotors.get(i).advance();
-                if (i < _numRotors - 1) {
-                    _rotors.get(i + 1).advance();
-                    i += 1;
-                }
+    /** Fill the keystream table for the current key, i.e. the converted
+     *  character for every position of the moving rotors, together with
+     *  the position that follows each of them. */
+    private void buildKeystreamTable() {
+        MachineSpec spec = spec();
+        int[] settings = _state.settings();
+        int size = _alphabet.size();
+        int numStates = 1;
+        for (int i = 0; i < _numPawls; i += 1) {
+            numStates *= size;
+        }
+        int current = encodeState();
+        _keystreamTable = new byte[numStates * size];
+        _nextState = new int[numStates];
+        for (int s = 0; s < numStates; s += 1) {
+            decodeState(s);
+            for (int c = 0; c < size; c += 1) {
+                _keystreamTable[s * size + c] =
+                    (byte) spec.translate(settings, c);
             }
+            spec.advance(settings);
+            _nextState[s] = encodeState();
         }
-        c = _plugboard.permute(c);
-        for (int i = _numRotors - 1; i >= 0; i -= 1) {
-            c = _rotors.get(i).convertForward(c);
+        decodeState(current);
+        _tableState = current;
+    }
+
+    /** Return the settings of my moving rotors as a single number, with
+     *  the rightmost rotor as least significant digit. */
+    private int encodeState() {
+        int[] settings = _state.settings();
+        int state = 0;
+        for (int i = _numRotors - _numPawls; i < _numRotors; i += 1) {
+            state = state * _alphabet.size() + settings[i];
         }
-        for (int i = 1; i < _numRotors; i += 1) {
-            c = _rotors.get(i).convertBackward(c);
+        return state;
+    }
+
+    /** Set my moving rotors to the settings encoded in STATE (see
+     *  encodeState()). */
+    private void decodeState(int state) {
+        int[] settings = _state.settings();
+        for (int i = _numRotors - 1; i >= _numRotors - _numPawls; i -= 1) {
+            settings[i] = state % _alphabet.size();
+            state /= _alphabet.size();
+        }
+    }
+
+    /** Bring the settings of my rotors up to date with the position
+     *  reached in keystream table mode or from a keystream prefix, during
+     *  which they stay at their initial settings. */
+    private void syncRotors() {
+        if (_tableState >= 0) {
+            decodeState(_tableState);
+            _tableState = -1;
+        }
+        if (_prefix != null) {
+            _prefix = null;
+            spec().advance(_state.settings(), _state.position());
         }
-        c = _plugboard.invert(c);
-        return c;
     }
 
     /** Returns the encoding/decoding of MSG, updating the state of
      *  the rotors accordingly. */
     String convert(String msg) {
-        String res = "";
-        for (int i = 0; i < msg.length(); i += 1) {
-            res += _alphabet.toChar(convert(_alphabet.toInt(msg.charAt(i))));
+        char[] buf = msg.toCharArray();
+        convert(buf, 0, buf.length, buf, 0);
+        return new String(buf);
+    }
+
+    /** Convert the LEN characters of IN starting at OFF and store the
+     *  result in OUT starting at OUTOFF, updating the state of the rotors
+     *  accordingly.  IN and OUT may be the same array. */
+    void convert(char[] in, int off, int len, char[] out, int outOff) {
+        if (off < 0 || len < 0 || off + len > in.length
+            || outOff < 0 || outOff + len > out.length) {
+            throw new IndexOutOfBoundsException();
         }
-        return res;
+        for (int i = 0; i < len; i += 1) {
+            out[outOff + i] =
+                _alphabet.toChar(convert(_alphabet.toInt(in[off + i])));
+        }
+    }
+
+    /** Convert the remaining characters of IN and put the result into
+     *  OUT, advancing the positions of both buffers and updating the state
+     *  of the rotors accordingly.  OUT must have at least as many
+     *  characters remaining as IN. */
+    void convert(CharBuffer in, CharBuffer out) {
+        int len = in.remaining();
+        if (out.remaining() < len) {
+            throw new BufferOverflowException();
+        }
+        if (in.hasArray() && out.hasArray() && !out.isReadOnly()) {
+            convert(in.array(), in.arrayOffset() + in.position(), len,
+                    out.array(), out.arrayOffset() + out.position());
+            in.position(in.position() + len);
+            out.position(out.position() + len);
+        } else {
+            while (in.hasRemaining()) {
+                out.put(_alphabet.toChar(convert(_alphabet.toInt(in.get()))));
+            }
+        }
+    }
+
+    /** Convert the remaining bytes of IN, or as many of them as OUT has
+     *  room for, and put the result into OUT, advancing the positions of
+     *  both buffers and updating the state of the rotors accordingly.
+     *  Return the number of bytes converted.  Over the alphabet of all
+     *  bytes (see Alphabet.bytes), the index of every byte is its value,
+     *  so bytes are converted without any character conversion.  Over
+     *  other alphabets, each byte is a character, and bytes that are not
+     *  in my alphabet are passed through unchanged without advancing the
+     *  rotors.  IN and OUT must be different buffers, but may share their
+     *  contents at the same index for conversion in place. */
+    int convert(ByteBuffer in, ByteBuffer out) {
+        syncRotors();
+        int len = Math.min(in.remaining(), out.remaining());
+        if (_useKeystreamTable) {
+            for (int i = 0; i < len; i += 1) {
+                char c = (char) (in.get() & 0xff);
+                if (_alphabet.contains(c)) {
+                    c = _alphabet.toChar(convert(_alphabet.toInt(c)));
+                }
+                out.put((byte) c);
+            }
+            return len;
+        }
+        spec().convert(_state, in, in.position(), out, out.position(), len);
+        in.position(in.position() + len);
+        out.position(out.position() + len);
+        return len;
+    }
+
+    /** Convert the remaining bytes of BUF in place, advancing its position
+     *  to its limit (see convert(ByteBuffer, ByteBuffer)). */
+    void convert(ByteBuffer buf) {
+        convert(buf.duplicate(), buf);
+    }
+
+    /** Convert the LEN alphabet indices of MSG starting at OFF in place,
+     *  updating the state of the rotors accordingly. */
+    void convert(int[] msg, int off, int len) {
+        if (off < 0 || len < 0 || off + len > msg.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        syncRotors();
+        if (_useKeystreamTable) {
+            for (int i = off; i < off + len; i += 1) {
+                msg[i] = convert(msg[i]);
+            }
+        } else {
+            spec().convert(_state, msg, off, len);
+        }
+    }
+
+    /** Convert the LEN characters of IN starting at OFF and store the
+     *  result in OUT starting at OUTOFF, exactly like convert(char[], int,
+     *  int, char[], int).  Messages longer than PARALLEL_CHUNK are split
+     *  into chunks of that length, whose start settings are found in turn
+     *  (see skip) and which are then converted in parallel on POOL, each
+     *  by a copy of me. */
+    void convertParallel(char[] in, int off, int len, char[] out,
+                         int outOff, ForkJoinPool pool) {
+        if (off < 0 || len < 0 || off + len > in.length
+            || outOff < 0 || outOff + len > out.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len <= PARALLEL_CHUNK) {
+            convert(in, off, len, out, outOff);
+            return;
+        }
+        syncRotors();
+        if (_useKeystreamTable && _keystreamTable == null) {
+            buildKeystreamTable();
+        }
+        spec();
+        MachineState[] starts =
+            new MachineState[(len + PARALLEL_CHUNK - 1) / PARALLEL_CHUNK];
+        for (int c = 0; c < starts.length; c += 1) {
+            starts[c] = _state.copy();
+            skip(Math.min(PARALLEL_CHUNK, len - c * PARALLEL_CHUNK));
+        }
+        pool.invoke(new ConvertTask(in, off, len, out, outOff, starts,
+                                    0, starts.length));
+    }
+
+    /** Conversion of a range of chunks of a message by convertParallel. */
+    @SuppressWarnings("serial")
+    private class ConvertTask extends RecursiveAction {
+
+        /** Converts chunks LO to HI - 1 of the LEN characters of IN starting
+         *  at OFF into OUT starting at OUTOFF, where STARTS holds the state
+         *  at the start of each chunk. */
+        ConvertTask(char[] in, int off, int len, char[] out, int outOff,
+                    MachineState[] starts, int lo, int hi) {
+            _in = in;
+            _off = off;
+            _len = len;
+            _out = out;
+            _outOff = outOff;
+            _starts = starts;
+            _lo = lo;
+            _hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (_hi - _lo > 1) {
+                int mid = (_lo + _hi) >>> 1;
+                invokeAll(new ConvertTask(_in, _off, _len, _out, _outOff,
+                                          _starts, _lo, mid),
+                          new ConvertTask(_in, _off, _len, _out, _outOff,
+                                          _starts, mid, _hi));
+            } else if (_hi > _lo) {
+                int start = _lo * PARALLEL_CHUNK;
+                Machine copy = new Machine(Machine.this);
+                copy.restore(_starts[_lo]);
+                copy.convert(_in, _off + start,
+                             Math.min(PARALLEL_CHUNK, _len - start), _out,
+                             _outOff + start);
+            }
+        }
+
+        /** Input characters. */
+        private final char[] _in;
+
+        /** Offset of the message in _in. */
+        private final int _off;
+
+        /** Length of the message. */
+        private final int _len;
+
+        /** Output characters. */
+        private final char[] _out;
+
+        /** Offset of the message in _out. */
+        private final int _outOff;
+
+        /** State at the start of each chunk. */
+        private final MachineState[] _starts;
+
+        /** First chunk. */
+        private final int _lo;
+
+        /** Chunk following the last one. */
+        private final int _hi;
     }
 
     /** Common alphabet of my rotors. */
@@ -155,15 +704,71 @@ class Machine {
     private final HashMap<String, Rotor> _allRotors;
 
     /** Stores references to the rotors that have been selected
-     *  through the input file. */
+     *  through the input file.  The rotors themselves are not modified. */
     private ArrayList<Rotor> _rotors;
 
-    /** Number of rotors that Enigma machine has. */
+    /** Ring setting of the rotor in each slot. */
+    private final int[] _ringSettings;
+
+    /** Plugboard of Enigma machine, or null for none. */
+    private Permutation _plugboard;
+
+    /** Compiled specification of my rotors, ring settings and plugboard,
+     *  or null if it has to be compiled again. */
+    private MachineSpec _spec;
+
+    /** Current settings of my rotors. */
+    private final MachineState _state;
+
+    /** Setting of the rotor in each slot as last given to setRotors. */
+    private final int[] _initialSettings;
+
+    /** Settings of the rotors while counting steps (see countSteps). */
+    private final int[] _countSettings;
+
+    /** Number of rotor slots that Enigma machine has. */
     private int _numRotors;
 
     /** Number of pawls that Enigma machine has. */
     private int _numPawls;
 
-    /** Plugboard of Enigma machine represented as permutation. */
-    private Permutation _plugboard;
+    /** Maximum number of entries of the keystream table. */
+    static final long KEYSTREAM_TABLE_LIMIT = 1 << 24;
+
+    /** True iff keystream table mode is enabled. */
+    private boolean _useKeystreamTable;
+
+    /** Converted character for every position of the moving rotors (row)
+     *  and input character (column), or null if not yet computed for the
+     *  current key. */
+    private byte[] _keystreamTable;
+
+    /** Position of the moving rotors following each position. */
+    private int[] _nextState;
+
+    /** True iff my specifications convert with generated engines. */
+    private boolean _generatedEngine;
+
+    /** Cache of keystream prefixes by setup, or null for none. */
+    private KeystreamCache _keystreams;
+
+    /** Keystream prefix of the setup I was last set up from (see
+     *  keystreamPrefix), while my position is within it, or null.  While
+     *  it is in use, _state holds my initial settings and my position. */
+    private byte[] _prefix;
+
+    /** Current position of the moving rotors in keystream table mode
+     *  (see encodeState()), or -1 if _state holds the position. */
+    private int _tableState = -1;
+
+    /** Number of characters converted by one task in convertParallel. */
+    static final int PARALLEL_CHUNK = 1 << 16;
+
+    /** Estimated number of bytes of a Setup apart from its arrays and
+     *  specification. */
+    private static final long SETUP_OVERHEAD = 128;
+
+    /** Number of values of a byte, the largest alphabet size for which
+     *  keystream prefixes are used. */
+    private static final int BYTE_VALUES = 256;
 }
@@ -0,0 +1,152 @@
+package enigma;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import static enigma.EnigmaException.*;
+
+/** A cache of the machine setups (see Machine.Setup) of setting lines by
+ *  their normalized text (see SettingLine.key), for inputs in which the
+ *  same setting lines recur.  A setting line that is in the cache sets up
+ *  a machine with one hash lookup, instead of looking up and checking its
+ *  rotors, decoding its settings, building its plugboard and compiling
+ *  the specification again.  The cache holds at most a given number of
+ *  setups of at most a given estimated size in total, and evicts the
+ *  least recently used setups first.  It may be shared by any number of
+ *  threads whose machines have the same available rotors.
+ *  @author Philipp Kurz
+ */
+class MachineCache {
+
+    /** A cache of at most MAXENTRIES setups of at most about MAXBYTES
+     *  bytes in total.  With MAXENTRIES 0, nothing is cached. */
+    MachineCache(int maxEntries, long maxBytes) {
+        if (maxEntries < 0 || maxBytes < 0) {
+            throw error("Invalid size of machine cache.");
+        }
+        _maxEntries = maxEntries;
+        _maxBytes = maxBytes;
+    }
+
+    /** Return true iff I cache setups at all, i.e. unless I was created
+     *  with MAXENTRIES 0. */
+    boolean enabled() {
+        return _maxEntries > 0;
+    }
+
+    /** Set up MACH according to SETTING, from the setup of an identical
+     *  setting line if I hold one.  Errors in SETTING are reported as by
+     *  SettingLine.apply, and nothing is cached for them. */
+    void apply(SettingLine setting, Machine mach) {
+        String key = setting.key();
+        Machine.Setup setup;
+        synchronized (this) {
+            setup = _setups.get(key);
+        }
+        if (setup != null) {
+            _hits.increment();
+            mach.setup(setup);
+            return;
+        }
+        _misses.increment();
+        setting.apply(mach);
+        if (_maxEntries > 0) {
+            add(key, mach.setup());
+        }
+    }
+
+    /** Cache SETUP under KEY, evicting the least recently used setups as
+     *  far as necessary. */
+    private synchronized void add(String key, Machine.Setup setup) {
+        long bytes = footprint(key, setup);
+        if (bytes > _maxBytes) {
+            return;
+        }
+        Machine.Setup old = _setups.put(key, setup);
+        if (old != null) {
+            _bytes -= footprint(key, old);
+        }
+        _bytes += bytes;
+        Iterator<Map.Entry<String, Machine.Setup>> entries =
+            _setups.entrySet().iterator();
+        while (_setups.size() > _maxEntries || _bytes > _maxBytes) {
+            Map.Entry<String, Machine.Setup> eldest = entries.next();
+            _bytes -= footprint(eldest.getKey(), eldest.getValue());
+            entries.remove();
+            _evictions.increment();
+        }
+    }
+
+    /** Return the estimated number of bytes of an entry holding SETUP under
+     *  KEY. */
+    private static long footprint(String key, Machine.Setup setup) {
+        return ENTRY_OVERHEAD + 2L * key.length() + setup.footprint();
+    }
+
+    /** Return the number of setting lines that were set up from me. */
+    long hits() {
+        return _hits.sum();
+    }
+
+    /** Return the number of setting lines that were not in me. */
+    long misses() {
+        return _misses.sum();
+    }
+
+    /** Return the number of setups I evicted. */
+    long evictions() {
+        return _evictions.sum();
+    }
+
+    /** Return the number of setups I hold. */
+    synchronized int size() {
+        return _setups.size();
+    }
+
+    /** Return the estimated number of bytes of the setups I hold. */
+    synchronized long bytes() {
+        return _bytes;
+    }
+
+    /** Return a one-line report of my counters. */
+    String summary() {
+        return String.format("hits=%d misses=%d evictions=%d entries=%d "
+                             + "bytes=%d", hits(), misses(), evictions(),
+                             size(), bytes());
+    }
+
+    /** Default maximum number of setups. */
+    static final int DEFAULT_ENTRIES = 4096;
+
+    /** Default maximum estimated size of all setups. */
+    static final long DEFAULT_BYTES = 64L << 20;
+
+    /** Estimated number of bytes of an entry apart from its key and
+     *  setup. */
+    private static final long ENTRY_OVERHEAD = 96;
+
+    /** Maximum number of setups. */
+    private final int _maxEntries;
+
+    /** Maximum estimated size of all setups. */
+    private final long _maxBytes;
+
+    /** Setups by the keys of their setting lines, least recently used
+     *  first. */
+    private final LinkedHashMap<String, Machine.Setup> _setups =
+        new LinkedHashMap<>(16, .75f, true);
+
+    /** Estimated size of all setups. */
+    private long _bytes;
+
+    /** Number of setting lines set up from the cache. */
+    private final LongAdder _hits = new LongAdder();
+
+    /** Number of setting lines not in the cache. */
+    private final LongAdder _misses = new LongAdder();
+
+    /** Number of setups evicted. */
+    private final LongAdder _evictions = new LongAdder();
+}
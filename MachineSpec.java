@@ -0,0 +1,698 @@
+package enigma;
+
+import java.nio.ByteBuffer;
+
+/** The immutable part of a configured enigma machine: its alphabet, the
+ *  rotors in its slots with their ring settings, and its plugboard, all
+ *  compiled into primitive tables.  A specification holds no rotor
+ *  settings; those are kept in MachineState objects, so one
+ *  specification may be shared by any number of threads, each converting
+ *  with its own states.
+ *  @author Philipp Kurz
+ */
+final class MachineSpec {
+
+    /** Converts characters for a specification, exactly as its own
+     *  convert methods do, with code specialized for its shape (see
+     *  EngineGenerator). */
+    interface Engine {
+
+        /** Advance the rotors whose settings are SETTINGS and return the
+         *  result of converting C. */
+        int convert(int[] settings, int c);
+
+        /** Convert the LEN alphabet indices of MSG starting at OFF in
+         *  place, advancing the rotors whose settings are SETTINGS before
+         *  each. */
+        void convert(int[] settings, int[] msg, int off, int len);
+    }
+
+    /** A specification with alphabet ALPHABET, NUMPAWLS pawls, the rotors
+     *  ROTORS in its slots (the reflector first), whose ring settings are
+     *  RINGSETTINGS, and plugboard PLUGBOARD, or none if it is null.  The
+     *  positions of the rotors must already have been checked. */
+    MachineSpec(Alphabet alphabet, int numPawls, Rotor[] rotors,
+                int[] ringSettings, Permutation plugboard) {
+        this(alphabet, numPawls, rotors, ringSettings, plugboard, false);
+    }
+
+    /** A specification as above that converts with a generated engine
+     *  (see EngineGenerator) if GENERATED and one can be generated for
+     *  it. */
+    MachineSpec(Alphabet alphabet, int numPawls, Rotor[] rotors,
+                int[] ringSettings, Permutation plugboard,
+                boolean generated) {
+        _alphabet = alphabet;
+        _size = alphabet.size();
+        _numRotors = rotors.length;
+        _numPawls = numPawls;
+        _rotors = rotors.clone();
+        _ringSettings = ringSettings.clone();
+        _forward = new int[_numRotors][];
+        _inverse = new int[_numRotors][];
+        _notches = new boolean[_numRotors][];
+        for (int i = 0; i < _numRotors; i += 1) {
+            _forward[i] = rotors[i].permutation().forwardTable();
+            _inverse[i] = rotors[i].permutation().inverseTable();
+            _notches[i] = rotors[i].notches();
+        }
+        _notchCounts = new int[_numRotors][];
+        _notchList = new int[_numRotors][];
+        _openList = new int[_numRotors][];
+        boolean closedForm = true;
+        for (int i = _numRotors - _numPawls; i < _numRotors; i += 1) {
+            _notchCounts[i] = new int[_size + 1];
+            for (int c = 0; c < _size; c += 1) {
+                _notchCounts[i][c + 1] =
+                    _notchCounts[i][c] + (_notches[i][c] ? 1 : 0);
+            }
+            _notchList[i] = new int[_notchCounts[i][_size]];
+            _openList[i] = new int[_size - _notchCounts[i][_size]];
+            for (int c = 0; c < _size; c += 1) {
+                if (_notches[i][c]) {
+                    _notchList[i][_notchCounts[i][c]] = c;
+                    if (i > _numRotors - _numPawls
+                        && _notches[i][next(c)]) {
+                        closedForm = false;
+                    }
+                } else {
+                    _openList[i][c - _notchCounts[i][c]] = c;
+                }
+            }
+        }
+        _closedForm = closedForm;
+        if (plugboard == null) {
+            plugboard = new Permutation("", alphabet);
+        }
+        _plugboard = plugboard;
+        _plugForward = plugboard.forwardTable();
+        _plugInverse = plugboard.inverseTable();
+        if (alphabet.isBytes()) {
+            _forwardBytes = new byte[_numRotors * BYTES];
+            _inverseBytes = new byte[_numRotors * BYTES];
+            for (int i = 0; i < _numRotors; i += 1) {
+                for (int c = 0; c < BYTES; c += 1) {
+                    _forwardBytes[i * BYTES + c] = (byte) _forward[i][c];
+                    _inverseBytes[i * BYTES + c] = (byte) _inverse[i][c];
+                }
+            }
+            _plugBytes = new byte[2 * BYTES];
+            for (int c = 0; c < BYTES; c += 1) {
+                _plugBytes[c] = (byte) _plugForward[c];
+                _plugBytes[BYTES + c] = (byte) _plugInverse[c];
+            }
+        } else {
+            _forwardBytes = null;
+            _inverseBytes = null;
+            _plugBytes = null;
+        }
+        _engine = generated
+            ? EngineGenerator.engine(_size, _numPawls, _rotors, _notches,
+                                     _ringSettings, _plugForward,
+                                     _plugInverse)
+            : null;
+    }
+
+    /** A specification like SPEC, sharing all its tables, but whose ring
+     *  settings are RINGSETTINGS and which has no generated engine. */
+    private MachineSpec(MachineSpec spec, int[] ringSettings) {
+        _alphabet = spec._alphabet;
+        _size = spec._size;
+        _numRotors = spec._numRotors;
+        _numPawls = spec._numPawls;
+        _rotors = spec._rotors;
+        _ringSettings = ringSettings.clone();
+        _forward = spec._forward;
+        _inverse = spec._inverse;
+        _notches = spec._notches;
+        _notchCounts = spec._notchCounts;
+        _notchList = spec._notchList;
+        _openList = spec._openList;
+        _closedForm = spec._closedForm;
+        _plugboard = spec._plugboard;
+        _plugForward = spec._plugForward;
+        _plugInverse = spec._plugInverse;
+        _forwardBytes = spec._forwardBytes;
+        _inverseBytes = spec._inverseBytes;
+        _plugBytes = spec._plugBytes;
+        _engine = null;
+    }
+
+    /** Return true iff I convert with a generated engine. */
+    boolean generated() {
+        return _engine != null;
+    }
+
+    /** Return an estimate of the number of bytes of memory taken by me and
+     *  the tables I do not share with my rotors, which are those of my
+     *  plugboard and my byte tables. */
+    long footprint() {
+        long res = FOOTPRINT_OVERHEAD + 32L * _numRotors + 16L * _size;
+        if (_forwardBytes != null) {
+            res += _forwardBytes.length + _inverseBytes.length
+                + _plugBytes.length;
+        }
+        return res;
+    }
+
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Return the number of rotor slots I have. */
+    int numRotors() {
+        return _numRotors;
+    }
+
+    /** Return the number pawls (and thus rotating rotors) I have. */
+    int numPawls() {
+        return _numPawls;
+    }
+
+    /** Return the rotor in slot I, the reflector being in slot 0. */
+    Rotor rotor(int i) {
+        return _rotors[i];
+    }
+
+    /** Return the ring setting of the rotor in slot I. */
+    int ringSetting(int i) {
+        return _ringSettings[i];
+    }
+
+    /** Return a specification like me whose ring settings are
+     *  RINGSETTINGS.  It shares all my tables, so it needs no
+     *  compilation, but it converts without a generated engine, whose
+     *  code depends on the ring settings. */
+    MachineSpec withRingSettings(int[] ringSettings) {
+        return new MachineSpec(this, ringSettings);
+    }
+
+    /** Return my plugboard. */
+    Permutation plugboard() {
+        return _plugboard;
+    }
+
+    /** Return a new state for me with all rotors at their 0 setting. */
+    MachineState newState() {
+        return new MachineState(_numRotors);
+    }
+
+    /** Returns the result of converting the input character C (as an
+     *  index in the range 0..alphabet size - 1), after first advancing
+     *  the rotors of STATE. */
+    int convert(MachineState state, int c) {
+        int[] settings = state.settings();
+        state.step();
+        if (_engine != null) {
+            return _engine.convert(settings, c);
+        }
+        advance(settings);
+        return translate(settings, c);
+    }
+
+    /** Convert the LEN alphabet indices of MSG starting at OFF in place,
+     *  starting from and updating STATE. */
+    void convert(MachineState state, int[] msg, int off, int len) {
+        int[] settings = state.settings();
+        if (_engine != null) {
+            _engine.convert(settings, msg, off, len);
+            state.step(len);
+            return;
+        }
+        for (int i = off; i < off + len; i += 1) {
+            advance(settings);
+            msg[i] = translate(settings, msg[i]);
+        }
+        state.step(len);
+    }
+
+    /** Convert the LEN alphabet indices of MSG starting at OFF in place,
+     *  starting from and updating STATE, as a specification like me whose
+     *  ring settings are RINGSETTINGS would.  A search over ring settings
+     *  can thus vary them in one array, without a specification per
+     *  trial (see KeySearch). */
+    void convert(MachineState state, int[] ringSettings, int[] msg, int off,
+                 int len) {
+        int[] settings = state.settings();
+        for (int i = off; i < off + len; i += 1) {
+            advance(settings);
+            msg[i] = translate(settings, ringSettings, msg[i]);
+        }
+        state.step(len);
+    }
+
+    /** Convert the LEN bytes of IN starting at index OFF and store the
+     *  result in OUT starting at index OUTOFF, starting from and updating
+     *  STATE.  Unless my alphabet is the alphabet of all bytes, bytes that
+     *  are not characters of my alphabet are stored unchanged and do not
+     *  advance the rotors.  The positions of IN and OUT are not used, and
+     *  IN and OUT may be the same buffer. */
+    void convert(MachineState state, ByteBuffer in, int off, ByteBuffer out,
+                 int outOff, int len) {
+        int[] settings = state.settings();
+        if (_forwardBytes == null) {
+            int converted = 0;
+            for (int k = 0; k < len; k += 1) {
+                char c = (char) (in.get(off + k) & 0xff);
+                if (_alphabet.contains(c)) {
+                    advance(settings);
+                    c = _alphabet.toChar(translate(settings,
+                                                   _alphabet.toInt(c)));
+                    converted += 1;
+                }
+                out.put(outOff + k, (byte) c);
+            }
+            state.step(converted);
+            return;
+        }
+        for (int k = 0; k < len; k += 1) {
+            advance(settings);
+            out.put(outOff + k,
+                    translateByte(settings, in.get(off + k) & 0xff));
+        }
+        state.step(len);
+    }
+
+    /** Returns the result of sending the byte C, 0 <= C < 256, through the
+     *  byte tables of the plugboard, the rotors and the reflector at
+     *  SETTINGS, without advancing.  Since the alphabet has 256
+     *  characters, shifts wrap around by masking. */
+    private byte translateByte(int[] settings, int c) {
+        final byte[] forward = _forwardBytes;
+        final byte[] inverse = _inverseBytes;
+        c = _plugBytes[c] & 0xff;
+        for (int i = _numRotors - 1; i >= 0; i -= 1) {
+            int shift = settings[i] - _ringSettings[i];
+            c = (forward[i * BYTES + ((c + shift) & 0xff)] - shift) & 0xff;
+        }
+        for (int i = 1; i < _numRotors; i += 1) {
+            int shift = settings[i] - _ringSettings[i];
+            c = (inverse[i * BYTES + ((c + shift) & 0xff)] - shift) & 0xff;
+        }
+        return _plugBytes[BYTES + c];
+    }
+
+    /** Advance the rotors whose settings are SETTINGS by one position,
+     *  according to the double-stepping rules.  A moving rotor whose right
+     *  neighbor is at a notch advances together with that neighbor, which
+     *  is then not considered again.  The rightmost rotor always
+     *  advances. */
+    void advance(int[] settings) {
+        final int last = _numRotors - 1;
+        for (int i = _numRotors - _numPawls; i <= last; i += 1) {
+            if (i == last || _notches[i + 1][settings[i + 1]]) {
+                settings[i] = next(settings[i]);
+                if (i < last) {
+                    settings[i + 1] = next(settings[i + 1]);
+                    i += 1;
+                }
+            }
+        }
+    }
+
+    /** Advance the rotors whose settings are SETTINGS by N >= 0 positions,
+     *  exactly as advance(SETTINGS) does N times, but without taking every
+     *  step.  Unless a moving rotor other than the leftmost one has two
+     *  adjacent notches, the settings are computed from the notches in
+     *  O(P^2) operations for P pawls, however large N is (see moves).
+     *  Otherwise, the stretches in which only the two rightmost rotors
+     *  move are skipped at once, and the other steps are taken one by
+     *  one; for an alphabet of size S and rotors with few notches, this
+     *  takes about N / S^2 single steps. */
+    void advance(int[] settings, long n) {
+        advance(settings, n, null);
+    }
+
+    /** Advance the rotors whose settings are SETTINGS by N positions, as
+     *  advance(SETTINGS, N) does, and unless COUNTS is null, add the
+     *  number of rotor movements to COUNTS[0] and the number of double
+     *  steps, in which a rotor other than the rightmost moves because it
+     *  is at a notch itself, to COUNTS[1]. */
+    void advance(int[] settings, long n, long[] counts) {
+        if (_numPawls == 0) {
+            return;
+        }
+        if (!_closedForm) {
+            skipAdvance(settings, n, counts);
+            return;
+        }
+        while (n > 0 && !regular(settings)) {
+            step(settings, counts);
+            n -= 1;
+        }
+        if (n == 0) {
+            return;
+        }
+        for (int k = _numPawls - 1; k >= 0; k -= 1) {
+            int slot = _numRotors - 1 - k;
+            long moves = moves(settings, k, n);
+            if (counts != null) {
+                counts[0] += moves;
+                if (k > 0 && k < _numPawls - 1) {
+                    counts[1] += notchesIn(slot, settings[slot],
+                                           moves(settings, k, n - 1) + 1);
+                }
+            }
+            settings[slot] = rotated(settings[slot], moves);
+        }
+    }
+
+    /** Return the number of times the moving rotor K places left of the
+     *  rightmost one moves in the first N steps from SETTINGS, which must
+     *  be regular.  Every moving rotor other than the leftmost one stays
+     *  at a notch for exactly one step, in which it moves, so its left
+     *  neighbor is pushed once for every notch it passes; as the settings
+     *  are regular and no two notches are adjacent, such a push never
+     *  falls on a step in which that neighbor is itself at a notch, except
+     *  at the first step.  A rotor other than the leftmost one thus moves
+     *  once per push, plus once more for every notch it lands on before
+     *  step N.  The pushes in N steps are counted from the moves of the
+     *  right neighbor in N - 1 steps, so this takes O(K) operations. */
+    private long moves(int[] settings, int k, long n) {
+        if (n <= 0) {
+            return 0;
+        }
+        if (k == 0) {
+            return n;
+        }
+        int slot = _numRotors - 1 - k;
+        int right = slot + 1;
+        int from = settings[right];
+        long passed = moves(settings, k - 1, n - 1);
+        long pushes = notchesIn(right, from, passed + 1);
+        if (k == _numPawls - 1) {
+            return pushes;
+        }
+        boolean lastPush = _notches[right][rotated(from, passed)];
+        int start = settings[slot];
+        long res = 0;
+        if (_notches[slot][start]) {
+            if (_notches[right][from]) {
+                pushes -= 1;
+            }
+            start = next(start);
+            res = 1;
+        }
+        if (pushes > 0) {
+            long moves = toOpen(slot, start, pushes);
+            if (lastPush && _notches[slot][rotated(start, moves - 1)]) {
+                moves -= 1;
+            }
+            res += moves;
+        }
+        return res;
+    }
+
+    /** Return true iff no two adjacent moving rotors other than the
+     *  leftmost and the rightmost one are at a notch in SETTINGS, so that
+     *  every moving rotor other than the leftmost one that is at a notch
+     *  moves in the next step.  Advancing keeps settings regular if no
+     *  such rotor has two adjacent notches. */
+    private boolean regular(int[] settings) {
+        for (int i = _numRotors - _numPawls + 1; i < _numRotors - 2;
+             i += 1) {
+            if (_notches[i][settings[i]] && _notches[i + 1][settings[i + 1]]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Advance SETTINGS by one position, as advance(SETTINGS) does,
+     *  counting the rotor movements and double steps into COUNTS unless
+     *  it is null (see advance(int[], long, long[])). */
+    private void step(int[] settings, long[] counts) {
+        final int last = _numRotors - 1;
+        for (int i = _numRotors - _numPawls; i <= last; i += 1) {
+            if (i == last) {
+                settings[i] = next(settings[i]);
+                if (counts != null) {
+                    counts[0] += 1;
+                }
+            } else if (_notches[i + 1][settings[i + 1]]) {
+                settings[i] = next(settings[i]);
+                settings[i + 1] = next(settings[i + 1]);
+                if (counts != null) {
+                    counts[0] += 2;
+                    counts[1] += i + 1 < last ? 1 : 0;
+                }
+                i += 1;
+            }
+        }
+    }
+
+    /** Advance SETTINGS by N positions as advance(SETTINGS, N, COUNTS)
+     *  does for rotors with adjacent notches.  As long as no moving rotor
+     *  other than the two rightmost ones is at a notch, only those two
+     *  move: the rightmost one at every step and its neighbor whenever the
+     *  rightmost one is at a notch.  Such a stretch is skipped at once, up
+     *  to the step at which the neighbor reaches a notch itself, and the
+     *  steps up to the end of the stretch are taken one by one. */
+    private void skipAdvance(int[] settings, long n, long[] counts) {
+        final int last = _numRotors - 1;
+        while (n > 0) {
+            if (quiet(settings)) {
+                long steps = Math.min(n, stepsToNotch(settings));
+                long moves = steps;
+                if (_numPawls > 1) {
+                    long ticks = notchesIn(last, settings[last], steps);
+                    settings[last - 1] = rotated(settings[last - 1], ticks);
+                    moves += ticks;
+                }
+                settings[last] = rotated(settings[last], steps);
+                if (counts != null) {
+                    counts[0] += moves;
+                }
+                n -= steps;
+                continue;
+            }
+            step(settings, counts);
+            n -= 1;
+        }
+    }
+
+    /** Return true iff no moving rotor other than the two rightmost ones
+     *  is at a notch in SETTINGS, so that only those two move. */
+    private boolean quiet(int[] settings) {
+        for (int i = _numRotors - _numPawls + 1; i < _numRotors - 1;
+             i += 1) {
+            if (_notches[i][settings[i]]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return the number of steps from SETTINGS, which must be quiet, after
+     *  which the left neighbor of the rightmost rotor is at a notch and
+     *  not the leftmost moving rotor, or Long.MAX_VALUE if that never
+     *  happens. */
+    private long stepsToNotch(int[] settings) {
+        final int last = _numRotors - 1;
+        if (_numPawls < 3 || _notchList[last].length == 0
+            || _notchList[last - 1].length == 0) {
+            return Long.MAX_VALUE;
+        }
+        int[] counts = _notchCounts[last - 1];
+        int[] list = _notchList[last - 1];
+        int start = next(settings[last - 1]);
+        int moves = counts[start] < list.length
+            ? list[counts[start]] - start + 1
+            : list[0] + _size - start + 1;
+        return tickStep(settings[last], moves) + 1;
+    }
+
+    /** Return the number of the step, counting from 0, at which the
+     *  rightmost rotor, starting at SETTING, is at a notch for the
+     *  MOVES-th time, MOVES > 0. */
+    private long tickStep(int setting, int moves) {
+        final int last = _numRotors - 1;
+        int[] list = _notchList[last];
+        long revolutions = (moves - 1) / list.length;
+        int k = _notchCounts[last][setting] + (moves - 1) % list.length;
+        int offset = k < list.length ? list[k] - setting
+            : list[k - list.length] + _size - setting;
+        return revolutions * _size + offset;
+    }
+
+    /** Return the number of notches of the rotor in SLOT among the LEN
+     *  positions starting at SETTING, counting a position once for each
+     *  time it is reached. */
+    private long notchesIn(int slot, int setting, long len) {
+        int[] counts = _notchCounts[slot];
+        long res = len / _size * counts[_size];
+        int end = setting + (int) (len % _size);
+        if (end <= _size) {
+            res += counts[end] - counts[setting];
+        } else {
+            res += counts[_size] - counts[setting] + counts[end - _size];
+        }
+        return res;
+    }
+
+    /** Return the number of positions from SETTING, which is not a notch,
+     *  to the COUNT-th position after it that is not a notch of the rotor
+     *  in SLOT, COUNT > 0. */
+    private long toOpen(int slot, int setting, long count) {
+        int[] open = _openList[slot];
+        int first = next(setting);
+        long revolutions = (count - 1) / open.length;
+        int k = first - _notchCounts[slot][first]
+            + (int) ((count - 1) % open.length);
+        int offset = k < open.length ? open[k] - first
+            : open[k - open.length] + _size - first;
+        return revolutions * _size + offset + 1;
+    }
+
+    /** Return the setting N >= 0 positions after SETTING. */
+    private int rotated(int setting, long n) {
+        return (int) ((setting + n % _size) % _size);
+    }
+
+    /** Return the setting following SETTING. */
+    private int next(int setting) {
+        setting += 1;
+        return setting == _size ? 0 : setting;
+    }
+
+    /** Returns the result of sending C through the plugboard, the rotors
+     *  and the reflector at SETTINGS, without advancing. */
+    int translate(int[] settings, int c) {
+        return translate(settings, _ringSettings, c);
+    }
+
+    /** Returns the result of sending C through the plugboard, the rotors
+     *  and the reflector at SETTINGS with ring settings RINGSETTINGS,
+     *  without advancing. */
+    private int translate(int[] settings, int[] ringSettings, int c) {
+        final int size = _size;
+        c = _plugForward[c];
+        for (int i = _numRotors - 1; i >= 0; i -= 1) {
+            c = through(_forward[i], settings[i] - ringSettings[i], c, size);
+        }
+        for (int i = 1; i < _numRotors; i += 1) {
+            c = through(_inverse[i], settings[i] - ringSettings[i], c, size);
+        }
+        return _plugInverse[c];
+    }
+
+    /** Returns the result of sending C from the right through the rotor
+     *  in slot SLOT at setting SETTING. */
+    int forward(int slot, int setting, int c) {
+        return through(_forward[slot], setting - _ringSettings[slot], c,
+                       _size);
+    }
+
+    /** Returns the result of sending C from the left through the rotor in
+     *  slot SLOT at setting SETTING. */
+    int backward(int slot, int setting, int c) {
+        return through(_inverse[slot], setting - _ringSettings[slot], c,
+                       _size);
+    }
+
+    /** Returns the result of sending C from the right through the rotors
+     *  in slots SLOTS - 1 down to 0 and back through slots 1 to SLOTS - 1,
+     *  at SETTINGS, bypassing the plugboard and the other slots. */
+    int reflect(int[] settings, int slots, int c) {
+        for (int i = slots - 1; i >= 0; i -= 1) {
+            c = forward(i, settings[i], c);
+        }
+        for (int i = 1; i < slots; i += 1) {
+            c = backward(i, settings[i], c);
+        }
+        return c;
+    }
+
+    /** Return the result of sending C through the permutation TABLE of
+     *  SIZE entries of a rotor shifted by SHIFT, where -SIZE < SHIFT
+     *  < SIZE. */
+    private static int through(int[] table, int shift, int c, int size) {
+        if (shift < 0) {
+            shift += size;
+        }
+        c += shift;
+        if (c >= size) {
+            c -= size;
+        }
+        c = table[c] - shift;
+        return c < 0 ? c + size : c;
+    }
+
+    /** Common alphabet of my rotors. */
+    private final Alphabet _alphabet;
+
+    /** Size of _alphabet. */
+    private final int _size;
+
+    /** Number of rotor slots. */
+    private final int _numRotors;
+
+    /** Number of pawls. */
+    private final int _numPawls;
+
+    /** The rotor in each slot. */
+    private final Rotor[] _rotors;
+
+    /** Ring setting of the rotor in each slot. */
+    private final int[] _ringSettings;
+
+    /** Forward permutation table of the rotor in each slot. */
+    private final int[][] _forward;
+
+    /** Inverse permutation table of the rotor in each slot. */
+    private final int[][] _inverse;
+
+    /** For the rotor in each slot, whether each position is a notch. */
+    private final boolean[][] _notches;
+
+    /** For the moving rotors, the number of notches before each
+     *  position, up to the alphabet size; null for the other slots. */
+    private final int[][] _notchCounts;
+
+    /** For the moving rotors, the positions of the notches in increasing
+     *  order; null for the other slots. */
+    private final int[][] _notchList;
+
+    /** For the moving rotors, the positions that are not notches in
+     *  increasing order; null for the other slots. */
+    private final int[][] _openList;
+
+    /** True iff no moving rotor other than the leftmost one has two
+     *  adjacent notches, so that advance(int[], long) computes the
+     *  settings from the notches (see moves). */
+    private final boolean _closedForm;
+
+    /** The plugboard. */
+    private final Permutation _plugboard;
+
+    /** Plugboard as forward permutation table. */
+    private final int[] _plugForward;
+
+    /** Plugboard as inverse permutation table. */
+    private final int[] _plugInverse;
+
+    /** Size of the alphabet of all bytes. */
+    private static final int BYTES = 256;
+
+    /** Generated engine converting in place of my convert methods, or
+     *  null. */
+    private final Engine _engine;
+
+    /** Estimated number of bytes of a specification and its plugboard
+     *  apart from their arrays. */
+    private static final long FOOTPRINT_OVERHEAD = 256;
+
+    /** Forward permutation tables of the rotors in all slots as bytes,
+     *  BYTES entries per slot, or null unless my alphabet is the alphabet
+     *  of all bytes. */
+    private final byte[] _forwardBytes;
+
+    /** Inverse permutation tables of the rotors in all slots as bytes, or
+     *  null (see _forwardBytes). */
+    private final byte[] _inverseBytes;
+
+    /** Forward followed by inverse permutation table of the plugboard as
+     *  bytes, or null (see _forwardBytes). */
+    private final byte[] _plugBytes;
+}
@@ -0,0 +1,66 @@
+package enigma;
+
+/** The mutable part of an enigma machine: the current settings of the
+ *  rotors in its slots and the number of characters converted since they
+ *  were set.  A state is only meaningful together with a MachineSpec and
+ *  must not be used by more than one thread at a time.
+ *  @author Philipp Kurz
+ */
+final class MachineState {
+
+    /** A state for a machine with NUMROTORS slots, with all rotors at their
+     *  0 setting. */
+    MachineState(int numRotors) {
+        _settings = new int[numRotors];
+    }
+
+    /** A copy of STATE. */
+    private MachineState(MachineState state) {
+        _settings = state._settings.clone();
+        _position = state._position;
+    }
+
+    /** Return a copy of me. */
+    MachineState copy() {
+        return new MachineState(this);
+    }
+
+    /** Set me to a copy of STATE, which must have as many slots. */
+    void copyFrom(MachineState state) {
+        System.arraycopy(state._settings, 0, _settings, 0, _settings.length);
+        _position = state._position;
+    }
+
+    /** Return the settings of the rotors in my slots, the reflector being
+     *  in slot 0.  The array is mine and may be modified. */
+    int[] settings() {
+        return _settings;
+    }
+
+    /** Return the number of characters converted since my settings were
+     *  last set. */
+    long position() {
+        return _position;
+    }
+
+    /** Set position() to POSITION. */
+    void setPosition(long position) {
+        _position = position;
+    }
+
+    /** Record that one character has been converted. */
+    void step() {
+        _position += 1;
+    }
+
+    /** Record that N characters have been converted. */
+    void step(int n) {
+        _position += n;
+    }
+
+    /** Setting of the rotor in each slot. */
+    private final int[] _settings;
+
+    /** Number of characters converted since my settings were last set. */
+    private long _position;
+}
@@ -1,12 +1,24 @@
 package enigma;
 
-import java.io.File;
 import java.io.IOException;
-import java.io.PrintStream;
-import java.util.HashMap;
-import java.util.Scanner;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import static enigma.EnigmaException.*;
-import java.util.NoSuchElementException;
 
 /** Enigma simulator.
  *  @author Philipp Kurz
@@ -14,14 +26,42 @@ import java.util.NoSuchElementException;
 public final class Main {
 
     /** Process a sequence of encryptions and decryptions, as
-     *  specified by ARGS, where 1 <= ARGS.length <= 3.
-     *  ARGS[0] is the name of a configuration file.
-     *  ARGS[1] is optional; when present, it names an input file
-     *  containing messages.  Otherwise, input comes from the standard
-     *  input.  ARGS[2] is optional; when present, it names an output
-     *  file for processed messages.  Otherwise, output goes to the
-     *  standard output. Exits normally if there are no errors in the input;
-     *  otherwise with code 1. */
+     *  specified by ARGS, which are options followed by CONF [IN [OUT]]:
+     *  the configuration file, the file of messages (by default the
+     *  standard input) and the file for processed messages (by default
+     *  the standard output).  A compiled file next to CONF is used in its
+     *  place unless CONF has changed since (see CompiledConfig).  Exits
+     *  normally if there are no errors in the input; otherwise with
+     *  code 1.  The options are (see also README.md):
+     *
+     *  --parallel            process messages on all processors.
+     *  --threads=N           process messages, search or attack on N
+     *                        threads.
+     *  --serve=PORT          serve messages on PORT (see EnigmaServer);
+     *                        CONF is the only argument.
+     *  --compile-config      compile CONF into IN, by default CONF.bin.
+     *  --encrypt-file        convert the file IN in place with the
+     *                        setting line OUT (see FileCipher).
+     *  --search=K            write the K best keys of the ciphertext IN
+     *                        (see KeySearch).
+     *  --ngrams=FILE         score keys by the trigrams of FILE instead
+     *                        of the index of coincidence.
+     *  --rings               also search the ring settings.
+     *  --crib=TEXT           attack the ciphertext IN with the plaintext
+     *                        TEXT (see CribAttack).
+     *  --crib-at=N           place the crib at offset N instead of 0.
+     *  --stats               publish and write statistics (see
+     *                        EnigmaStats).
+     *  --machine-cache=N[,MB]  cache up to N setups in MB megabytes (see
+     *                        MachineCache); 0 turns the cache off.
+     *  --keystream-cache=N[,MB]  cache the first N characters of
+     *                        recurring setups (see KeystreamCache).
+     *  --engine=E            convert with code generated for the shape
+     *                        of the machine if E is generated (see
+     *                        EngineGenerator), or with the generic loops
+     *                        if E is interpreted, the default.
+     *  --keystream-table     convert in keystream table mode (see
+     *                        Machine.setKeystreamTable). */
     public static void main(String... args) {
         try {
             new Main(args).process();
@@ -34,39 +74,168 @@ public final class Main {
 
     /** Check ARGS and open the necessary files (see comment on main). */
     Main(String[] args) {
+        int k;
+        for (k = 0; k < args.length && args[k].startsWith("--"); k += 1) {
+            if (args[k].equals("--parallel")) {
+                _threads = Runtime.getRuntime().availableProcessors();
+            } else if (args[k].startsWith("--threads=")) {
+                try {
+                    _threads = Integer.parseInt(args[k].substring(10));
+                } catch (NumberFormatException excp) {
+                    _threads = 0;
+                }
+                if (_threads < 1) {
+                    throw error("Invalid number of threads.");
+                }
+            } else if (args[k].startsWith("--search=")) {
+                try {
+                    _searchKeys = Integer.parseInt(args[k].substring(9));
+                } catch (NumberFormatException excp) {
+                    _searchKeys = 0;
+                }
+                if (_searchKeys < 1) {
+                    throw error("Invalid number of keys.");
+                }
+            } else if (args[k].startsWith("--ngrams=")) {
+                _ngramFile = args[k].substring(9);
+            } else if (args[k].startsWith("--crib=")) {
+                _crib = args[k].substring(7);
+            } else if (args[k].startsWith("--crib-at=")) {
+                try {
+                    _cribOffset = Integer.parseInt(args[k].substring(10));
+                } catch (NumberFormatException excp) {
+                    throw error("Invalid crib offset.");
+                }
+            } else if (args[k].startsWith("--machine-cache=")) {
+                long[] limits = parseLimits(args[k].substring(16), 0,
+                                            MachineCache.DEFAULT_BYTES,
+                                            "machine cache size");
+                _machines = new MachineCache((int) limits[0], limits[1]);
+            } else if (args[k].startsWith("--keystream-cache=")) {
+                long[] limits = parseLimits(args[k].substring(18), 1,
+                                            KeystreamCache.DEFAULT_BYTES,
+                                            "keystream cache size");
+                _keystreams = new KeystreamCache((int) limits[0], limits[1]);
+            } else if (args[k].startsWith("--engine=")) {
+                String engine = args[k].substring(9);
+                if (!engine.equals("generated")
+                    && !engine.equals("interpreted")) {
+                    throw error("Unknown engine %s", engine);
+                }
+                _generatedEngine = engine.equals("generated");
+            } else if (args[k].equals("--keystream-table")) {
+                _keystreamTable = true;
+            } else if (args[k].equals("--stats")) {
+                _stats = new EnigmaStats();
+            } else if (args[k].equals("--rings")) {
+                _searchRings = true;
+            } else if (args[k].equals("--compile-config")) {
+                _compile = true;
+            } else if (args[k].equals("--encrypt-file")) {
+                _encryptFile = true;
+            } else if (args[k].startsWith("--serve=")) {
+                try {
+                    _servePort = Integer.parseInt(args[k].substring(8));
+                } catch (NumberFormatException excp) {
+                    throw error("Invalid port %s", args[k].substring(8));
+                }
+            } else {
+                throw error("Unknown option %s", args[k]);
+            }
+        }
+        args = Arrays.copyOfRange(args, k, args.length);
+        if (_keystreams != null && !_machines.enabled()) {
+            throw error("--keystream-cache needs the machine cache, "
+                        + "which --machine-cache=0 turns off");
+        }
+        if (_compile) {
+            if (args.length < 1 || args.length > 2) {
+                throw error("Only the configuration file and the compiled "
+                            + "file are allowed with --compile-config");
+            }
+            _configName = args[0];
+            _compiledName = args.length > 1 ? args[1]
+                : CompiledConfig.compiledName(args[0]);
+            _config = ConfigParser.open(args[0]);
+            return;
+        }
+        if (_encryptFile) {
+            if (args.length != 3) {
+                throw error("Only the configuration file, the file to "
+                            + "convert and the setting line are allowed "
+                            + "with --encrypt-file");
+            }
+            _configName = args[0];
+            _config = ConfigParser.open(args[0]);
+            _fileName = args[1];
+            _settingLine = args[2];
+            return;
+        }
+        if (_servePort >= 0) {
+            if (args.length != 1) {
+                throw error("Only the configuration file is allowed "
+                            + "with --serve");
+            }
+            _configName = args[0];
+            _config = ConfigParser.open(args[0]);
+            return;
+        }
         if (args.length < 1 || args.length > 3) {
             throw error("Only 1, 2, or 3 command-line arguments allowed");
         }
 
-        _config = getInput(args[0]);
+        _configName = args[0];
+        _config = ConfigParser.open(args[0]);
 
         if (args.length > 1) {
-            _input = getInput(args[1]);
+            _input = getMessageInput(args[1]);
         } else {
-            _input = new Scanner(System.in);
+            _input = new MessageInput(Channels.newChannel(System.in));
         }
 
         if (args.length > 2) {
             _output = getOutput(args[2]);
         } else {
-            _output = System.out;
+            _output = new MessageOutput(System.out);
+        }
+    }
+
+    /** Return the limits given by SPEC, the WHAT, which is a number of at
+     *  least MIN optionally followed by a comma and a number of megabytes,
+     *  as the number and the number of bytes, which is DEFAULTBYTES if
+     *  there are no megabytes. */
+    private static long[] parseLimits(String spec, int min,
+                                      long defaultBytes, String what) {
+        String[] limits = spec.split(",", 2);
+        try {
+            int number = Integer.parseInt(limits[0]);
+            long megabytes = limits.length > 1 ? Long.parseLong(limits[1])
+                : defaultBytes >> 20;
+            if (number < min || megabytes < 0 || megabytes > 1L << 40) {
+                throw error("Invalid %s %s", what, spec);
+            }
+            return new long[] { number, megabytes << 20 };
+        } catch (NumberFormatException excp) {
+            throw error("Invalid %s %s", what, spec);
         }
     }
 
-    /** Return a Scanner reading from the file named NAME. */
-    private Scanner getInput(String name) {
+    /** Return a MessageInput reading from the file named NAME. */
+    private MessageInput getMessageInput(String name) {
         try {
-            return new Scanner(new File(name));
-        } catch (IOException excp) {
+            return new MessageInput(FileChannel.open(Paths.get(name)));
+        } catch (IOException | InvalidPathException excp) {
             throw error("could not open %s", name);
         }
     }
 
-    /** Return a PrintStream writing to the file named NAME. */
-    private PrintStream getOutput(String name) {
+    /** Return a MessageOutput writing to the file named NAME. */
+    private MessageOutput getOutput(String name) {
         try {
-            return new PrintStream(new File(name));
-        } catch (IOException excp) {
+            return new MessageOutput(FileChannel.open(Paths.get(name),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING));
+        } catch (IOException | InvalidPathException excp) {
             throw error("could not open %s", name);
         }
     }
@@ -75,170 +244,391 @@ public final class Main {
      *  file _config and apply it to the messages in _input, sending the
      *  results to _output. */
     private void process() {
-        Machine mach = readConfig();
-
-        if (!_input.hasNext("(?<=^|\n)\\*.*")) {
-            throw error("Invalid start of input file.");
+        if (_stats != null) {
+            _stats.setMachineCache(_machines);
+            _stats.setKeystreamCache(_keystreams);
+            _stats.register();
         }
-
-        while (_input.hasNext("(?<=^|\n)\\*.*")) {
-            String[] rotors = new String[mach.numRotors()];
-
-            String start = _input.next();
-            if (start.equals("*")) {
-                rotors[0] = _input.next();
+        try {
+            if (_compile) {
+                CompiledConfig.write(readConfig(), _configName,
+                                     _compiledName);
+            } else if (_encryptFile) {
+                encryptFile(readConfig());
+            } else if (_servePort >= 0) {
+                EnigmaServer server =
+                    new EnigmaServer(readConfig(), _servePort, _stats,
+                                     _machines);
+                System.err.printf("Listening on port %d%n", server.port());
+                server.run();
+            } else if (_crib != null) {
+                attackCrib(readConfig());
+            } else if (_searchKeys > 0) {
+                searchKeys(readConfig());
+            } else if (_threads > 1) {
+                processMessagesParallel(readConfig());
             } else {
-                rotors[0] = start.substring(1);
+                processMessages(readConfig());
             }
-
-            for (int i = 1; i < mach.numRotors(); i += 1) {
-                rotors[i] = _input.next();
+        } finally {
+            if (_output != null) {
+                _output.close();
             }
-            mach.insertRotors(rotors);
-
-            String setting = _input.next();
-            setUp(mach, setting);
-
-            String rest = _input.nextLine();
-            Scanner sc = new Scanner(rest);
-            String ringSetting = "";
-            if (sc.hasNext() && !sc.hasNext("(?<!\\()(\\(.+\\))(?!\\))")) {
-                ringSetting = sc.next();
+            if (_stats != null) {
+                System.err.print(_stats.summary());
             }
+        }
+    }
 
-            mach.setRingSetting(ringSetting);
+    /** Apply machine MACH to the messages in _input, sending the results
+     *  to _output. */
+    private void processMessages(Machine mach) {
+        if (!_input.skipToSetting()) {
+            throw error("Invalid start of input file.");
+        }
 
-            String cycles = "";
-            while (sc.hasNext(".*[\\(|\\)]+.*")) {
-                cycles += sc.next();
+        while (_input.hasNextLine()) {
+            long start = _stats == null ? 0 : System.nanoTime();
+            long chars = 0;
+            _machines.apply(SettingLine.read(_input, mach.numRotors()),
+                            mach);
+
+            while (_input.hasNextLine() && !_input.atSetting()) {
+                int len = 0;
+                do {
+                    if (len == _buffer.length) {
+                        _buffer = Arrays.copyOf(_buffer, 2 * len);
+                    }
+                    len += _input.readMessage(_buffer, len);
+                } while (!_input.lineEnded());
+                mach.convert(_buffer, 0, len, _buffer, 0);
+                _output.write(_buffer, 0, len);
+                _output.endLine();
+                chars += len;
             }
-            Permutation.checkCycleValidity(cycles);
-            mach.setPlugboard(new Permutation(cycles, _alphabet));
+            if (_stats != null) {
+                _stats.recordMessage(mach, chars, System.nanoTime() - start);
+            }
+        }
+    }
 
-            while (_input.hasNextLine() && !_input.hasNext("(?<=^|\n)\\*.*")) {
-                String nextLine = _input.nextLine().replaceAll("[ \t]", "");
-                printMessageLine(mach.convert(nextLine));
+    /** Set up MACH according to _settingLine and convert the file
+     *  _fileName in place with it. */
+    private void encryptFile(Machine mach) {
+        SettingLine.parse(_settingLine, mach.numRotors()).apply(mach);
+        ForkJoinPool pool = new ForkJoinPool(_threads > 0 ? _threads
+            : Runtime.getRuntime().availableProcessors());
+        try {
+            long start = System.nanoTime();
+            new FileCipher(mach).convert(_fileName, pool);
+            if (_stats != null) {
+                _stats.recordMessage(mach, mach.snapshot().position(),
+                                     System.nanoTime() - start);
             }
+        } finally {
+            pool.shutdown();
+        }
+    }
 
-            if (_input.hasNextLine()) {
+    /** Search the key of the ciphertext in _input among the rotors
+     *  available to MACH and write the best _searchKeys keys to
+     *  _output. */
+    private void searchKeys(Machine mach) {
+        Alphabet alpha = mach.alphabet();
+        int[] ciphertext = readCiphertext(alpha);
 
-                _input.useDelimiter("[ \t*]+");
-                while (_input.hasNext("(\r\n)+") || _input.hasNext("(\n)+")) {
-                    String str = _input.next();
-                    str = str.replaceAll("\r", "");
-                    for (int i = 0; i < str.length(); i += 1) {
-                        _output.print("\r\n");
-                    }
-                }
-                _input.useDelimiter("\\s+");
+        TextScorer scorer;
+        if (_ngramFile == null) {
+            scorer = new CoincidenceScorer(alpha.size());
+        } else {
+            try {
+                scorer = new NgramScorer(alpha,
+                    new String(Files.readAllBytes(Paths.get(_ngramFile)),
+                               StandardCharsets.ISO_8859_1), NGRAM_LENGTH);
+            } catch (IOException | InvalidPathException excp) {
+                throw error("could not open %s", _ngramFile);
             }
         }
+
+        KeySearch search = new KeySearch(mach, ciphertext, null, scorer,
+                                         _searchKeys);
+        search.setRingStage(_searchRings);
+        ForkJoinPool pool = new ForkJoinPool(_threads > 0 ? _threads
+            : Runtime.getRuntime().availableProcessors());
+        List<KeySearch.Candidate> keys;
+        try {
+            keys = search.search(pool);
+        } finally {
+            pool.shutdown();
+        }
+        for (KeySearch.Candidate key : keys) {
+            _output.writeText(String.format("%s  %.6f", key, key.score()));
+            _output.endLine();
+        }
+        System.err.printf("%d rotor orders, %d trials in %.1f s "
+                          + "(%.0f trials/s)%n", search.numOrders(),
+                          search.trials(), search.elapsed() / 1e9,
+                          search.trialsPerSecond());
     }
 
-    /** Return an Enigma machine configured from the contents of configuration
-     *  file _config. */
-    private Machine readConfig() {
+    /** Attack the ciphertext in _input with the crib _crib at
+     *  _cribOffset among the rotors available to MACH and write the
+     *  surviving stops to _output. */
+    private void attackCrib(Machine mach) {
+        Alphabet alpha = mach.alphabet();
+        int[] ciphertext = readCiphertext(alpha);
+        int[] crib = new int[_crib.length()];
+        alpha.toInts(_crib, crib);
+        CribAttack attack = new CribAttack(mach, ciphertext, crib,
+                                           _cribOffset);
+        System.err.printf("Menu loops: %s, test character %c%n",
+                          attack.loops(), attack.testCharacter());
+        ForkJoinPool pool = new ForkJoinPool(_threads > 0 ? _threads
+            : Runtime.getRuntime().availableProcessors());
+        List<CribAttack.Stop> stops;
         try {
-            String strAlphabet = _config.next();
-            _alphabet = new Alphabet(strAlphabet);
+            stops = attack.run(pool);
+        } finally {
+            pool.shutdown();
+        }
+        for (CribAttack.Stop stop : stops) {
+            _output.writeText(stop.toString());
+            _output.endLine();
+        }
+        System.err.printf("%d stops tested in %.1f s, %d survived%n",
+                          attack.stops(), attack.elapsed() / 1e9,
+                          stops.size());
+    }
 
-            int numRotors = _config.nextInt();
-            int numPawls = _config.nextInt();
+    /** Return the characters of all lines of _input as indices in
+     *  ALPHA. */
+    private int[] readCiphertext(Alphabet alpha) {
+        StringBuilder text = new StringBuilder();
+        while (_input.hasNextLine()) {
+            text.append(_buffer, 0, _input.readMessage(_buffer));
+        }
+        int[] res = new int[text.length()];
+        alpha.toInts(text, res);
+        return res;
+    }
 
-            HashMap<String, Rotor> rotors = new HashMap<String, Rotor>();
-            while (_config.hasNext()) {
-                Rotor newRotor = readRotor();
-                if (rotors.containsKey(newRotor.name())) {
-                    throw error("Duplicate rotor in conf file detected.");
+    /** Apply machines configured like MACH to the messages in _input,
+     *  sending the results to _output, with _threads worker threads.
+     *  A parser thread splits the input into messages, each of which is
+     *  converted by a worker with its own machine.  The results are
+     *  written in their original order, exactly as processMessages would,
+     *  including the output preceding an error. */
+    private void processMessagesParallel(Machine mach) {
+        ExecutorService workers = Executors.newFixedThreadPool(_threads);
+        ThreadLocal<Machine> machines =
+            ThreadLocal.withInitial(mach::newMachine);
+        BlockingQueue<Future<Message>> pending =
+            new ArrayBlockingQueue<>(PENDING_PER_THREAD * _threads);
+        Thread parser = new Thread(() -> {
+            try {
+                parseMessages(mach.numRotors(), workers, machines, pending);
+            } catch (InterruptedException excp) {
+                return;
+            }
+        });
+        parser.start();
+        try {
+            while (true) {
+                Message msg = pending.take().get();
+                if (msg == null) {
+                    break;
                 }
-                rotors.put(newRotor.name(), newRotor);
+                msg.write(_output);
             }
-            return new Machine(_alphabet, numRotors, numPawls, rotors);
-        } catch (NoSuchElementException excp) {
-            throw error("configuration file truncated");
+        } catch (InterruptedException excp) {
+            throw error("interrupted");
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) excp.getCause();
+            }
+            if (excp.getCause() instanceof Error) {
+                throw (Error) excp.getCause();
+            }
+            throw new Error(excp.getCause());
+        } finally {
+            parser.interrupt();
+            workers.shutdownNow();
         }
     }
 
-    /** Return a rotor, reading its description from _config. */
-    private Rotor readRotor() {
+    /** Split _input into messages for machines with NUMROTORS rotor
+     *  slots, submit their conversion to WORKERS, which take their
+     *  machines from MACHINES, and add the results to PENDING in order
+     *  (see submitMessages).  The end of the input is marked by a null
+     *  result.  Any failure other than an error in the input is added as
+     *  a failed result in its place, so that it is rethrown rather than
+     *  waited for forever. */
+    private void parseMessages(int numRotors, ExecutorService workers,
+                               ThreadLocal<Machine> machines,
+                               BlockingQueue<Future<Message>> pending)
+        throws InterruptedException {
+        Future<Message> end = CompletableFuture.completedFuture(null);
         try {
-            Rotor res;
-            String name = _config.next();
-            if (name.contains("(") || name.contains(")")) {
-                throw error("Characters ( or ) not allowed "
-                        + "in rotor name.");
-            }
-            String info = _config.next();
-            String notches = info.substring(1);
-
-            String cycles = "";
-            while (_config.hasNext(".*[\\(|\\)]+.*")) {
-                cycles += _config.next();
-            }
-            Permutation.checkCycleValidity(cycles);
-            Permutation perm = new Permutation(cycles, _alphabet);
-            switch (info.charAt(0)) {
-            case 'M':
-                if (notches.length() < 1) {
-                    throw error("No notch specified for moving rotor.");
-                }
-                for (int i = 0; i < notches.length(); i += 1) {
-                    if (!_alphabet.contains(notches.charAt(i))) {
-                        throw error("Notch not found in alphabet.");
-                    }
+            submitMessages(numRotors, workers, machines, pending);
+        } catch (RuntimeException | Error excp) {
+            end = CompletableFuture.failedFuture(excp);
+        }
+        pending.put(end);
+    }
 
+    /** Split _input into messages as parseMessages(NUMROTORS, WORKERS,
+     *  MACHINES, PENDING) does, without marking the end.  An error in the
+     *  input is added to PENDING as a message that failed. */
+    private void submitMessages(int numRotors, ExecutorService workers,
+                                ThreadLocal<Machine> machines,
+                                BlockingQueue<Future<Message>> pending)
+        throws InterruptedException {
+        try {
+            if (!_input.skipToSetting()) {
+                throw error("Invalid start of input file.");
+            }
+            while (_input.hasNextLine()) {
+                Message msg = new Message(SettingLine.read(_input,
+                                                           numRotors));
+                while (_input.hasNextLine() && !_input.atSetting()) {
+                    do {
+                        msg.append(_buffer, _input.readMessage(_buffer));
+                    } while (!_input.lineEnded());
+                    msg.endLine();
                 }
-                res = new MovingRotor(name, perm, notches); break;
-            case 'N':
-                if (notches.length() != 0) {
-                    throw error("Notch for fixed rotor detected.");
-                }
-                res = new FixedRotor(name, perm); break;
-            case 'R':
-                if (notches.length() != 0) {
-                    throw error("Notch for reflector detected.");
-                }
-                res = new Reflector(name, perm);
-                if (!res.permutation().derangement()) {
-                    throw error("Reflector is not a derangement.");
-                }
-                break;
-            default:
-                throw error("Wrong rotor type. Must be M, N or R.");
+                pending.put(workers.submit(() -> {
+                    long start = _stats == null ? 0 : System.nanoTime();
+                    Machine worker = machines.get();
+                    msg.convert(worker, _machines);
+                    if (_stats != null && msg.error() == null) {
+                        _stats.recordMessage(worker, msg.length(),
+                                             System.nanoTime() - start);
+                    }
+                    return msg;
+                }));
             }
-            return res;
-        } catch (NoSuchElementException excp) {
-            throw error("bad rotor description");
+        } catch (EnigmaException excp) {
+            Message msg = new Message(null);
+            msg.fail(excp);
+            pending.put(CompletableFuture.completedFuture(msg));
         }
     }
 
-    /** Set M according to the specification given on SETTINGS,
-     *  which must have the format specified in the assignment. */
-    private void setUp(Machine M, String settings) {
-        M.setRotors(settings);
+    /** Return an Enigma machine configured as by parseConfig that uses
+     *  _keystreams, the engine selected by _generatedEngine and keystream
+     *  table mode iff _keystreamTable, recording the time this takes in
+     *  _stats. */
+    private Machine readConfig() {
+        long start = System.nanoTime();
+        Machine mach = parseConfig();
+        mach.setKeystreamCache(_keystreams);
+        if (_generatedEngine && !mach.setGeneratedEngine(true)) {
+            System.err.println("Warning: no engine can be generated for "
+                               + "this machine; using the interpreted "
+                               + "engine.");
+        }
+        if (_keystreamTable && !mach.setKeystreamTable(true)) {
+            System.err.println("Warning: the keystream tables of this "
+                               + "machine would be too large; converting "
+                               + "without them.");
+        }
+        if (_stats != null) {
+            _stats.recordConfigLoad(System.nanoTime() - start);
+        }
+        return mach;
     }
 
-    /** Print MSG in groups of five (except that the last group may
-     *  have fewer letters). */
-    private void printMessageLine(String msg) {
-        for (int i = 0; i < msg.length(); i += 1) {
-            _output.print(msg.charAt(i));
-            if (((i + 1) % 5 == 0) && (i != msg.length() - 1)) {
-                _output.print(" ");
+    /** Return an Enigma machine configured from the contents of configuration
+     *  file _config, or from its compiled file if that is up to date. */
+    private Machine parseConfig() {
+        if (!_compile) {
+            Machine mach =
+                CompiledConfig.load(CompiledConfig.compiledName(_configName),
+                                    _configName);
+            if (mach != null) {
+                return mach;
             }
         }
-        _output.print("\r\n");
+        return _config.parse();
     }
 
-    /** Alphabet used in this machine. */
-    private Alphabet _alphabet;
-
     /** Source of input messages. */
-    private Scanner _input;
+    private MessageInput _input;
+
+    /** Parser of the machine configuration. */
+    private ConfigParser _config;
+
+    /** Name of the configuration file. */
+    private String _configName;
+
+    /** True iff the configuration is to be compiled rather than used. */
+    private boolean _compile;
 
-    /** Source of machine configuration. */
-    private Scanner _config;
+    /** Name of the file the configuration is compiled into. */
+    private String _compiledName;
+
+    /** True iff a file is to be converted in place. */
+    private boolean _encryptFile;
+
+    /** Name of the file converted in place. */
+    private String _fileName;
+
+    /** Setting line for the file converted in place. */
+    private String _settingLine;
 
     /** File for encoded/decoded messages. */
-    private PrintStream _output;
+    private MessageOutput _output;
+
+    /** Number of threads converting messages or searching keys, or 0 if
+     *  none was given. */
+    private int _threads;
+
+    /** Number of keys to search for, or 0 to process messages. */
+    private int _searchKeys;
+
+    /** True iff the key search includes the ring settings. */
+    private boolean _searchRings;
+
+    /** Name of the sample text for n-gram scoring, or null to score by
+     *  index of coincidence. */
+    private String _ngramFile;
+
+    /** Setups of the setting lines of the messages. */
+    private MachineCache _machines =
+        new MachineCache(MachineCache.DEFAULT_ENTRIES,
+                         MachineCache.DEFAULT_BYTES);
+
+    /** True iff messages are converted by generated engines. */
+    private boolean _generatedEngine;
+
+    /** True iff messages are converted in keystream table mode. */
+    private boolean _keystreamTable;
+
+    /** Keystream prefixes of the setups in _machines, or null for
+     *  none. */
+    private KeystreamCache _keystreams;
+
+    /** Crib for a known-plaintext attack, or null for none. */
+    private String _crib;
+
+    /** Offset of _crib in the ciphertext. */
+    private int _cribOffset;
+
+    /** Statistics of the conversion, or null if they are not kept. */
+    private EnigmaStats _stats;
+
+    /** Length of the n-grams used for scoring. */
+    private static final int NGRAM_LENGTH = 3;
+
+    /** Port on which messages are served, or -1 to process files. */
+    private int _servePort = -1;
+
+    /** Maximum number of messages per thread that are parsed but not yet
+     *  written. */
+    private static final int PENDING_PER_THREAD = 64;
+
+    /** Reusable buffer holding the message line being converted, which
+     *  grows to the longest line, so that a line that cannot be converted
+     *  is not written at all. */
+    private char[] _buffer = new char[1 << 13];
 }
@@ -0,0 +1,107 @@
+package enigma;
+
+import java.util.Arrays;
+
+/** A message of the input together with its setting line, which is
+ *  converted as a unit, possibly on another thread than the one that
+ *  read it.
+ *  @author Philipp Kurz
+ */
+class Message {
+
+    /** A message with setting line SETTING and no lines yet. */
+    Message(SettingLine setting) {
+        _setting = setting;
+    }
+
+    /** Append the first LEN characters of CHARS to the last line. */
+    void append(char[] chars, int len) {
+        if (_length + len > _text.length) {
+            _text = Arrays.copyOf(_text,
+                                  Math.max(_length + len,
+                                           2 * _text.length));
+        }
+        System.arraycopy(chars, 0, _text, _length, len);
+        _length += len;
+    }
+
+    /** Terminate the last line. */
+    void endLine() {
+        if (_numLines == _lineEnds.length) {
+            _lineEnds = Arrays.copyOf(_lineEnds, 2 * _numLines);
+        }
+        _lineEnds[_numLines] = _length;
+        _numLines += 1;
+    }
+
+    /** Set up MACH according to my setting line, through CACHE unless it
+     *  is null, and convert my lines with it, one at a time.  Stop at the
+     *  first error. */
+    void convert(Machine mach, MachineCache cache) {
+        try {
+            if (cache == null) {
+                _setting.apply(mach);
+            } else {
+                cache.apply(_setting, mach);
+            }
+            int start = 0;
+            for (; _converted < _numLines; _converted += 1) {
+                int end = _lineEnds[_converted];
+                mach.convert(_text, start, end - start, _text, start);
+                start = end;
+            }
+        } catch (EnigmaException excp) {
+            fail(excp);
+        }
+    }
+
+    /** Record that converting me failed with EXCP. */
+    void fail(EnigmaException excp) {
+        _error = excp;
+    }
+
+    /** Return the number of characters of my lines. */
+    int length() {
+        return _length;
+    }
+
+    /** Return the error that stopped my conversion, or null. */
+    EnigmaException error() {
+        return _error;
+    }
+
+    /** Write my converted lines to OUTPUT and throw the error that
+     *  stopped my conversion, if any. */
+    void write(MessageOutput output) {
+        int start = 0;
+        for (int i = 0; i < _converted; i += 1) {
+            output.write(_text, start, _lineEnds[i] - start);
+            output.endLine();
+            start = _lineEnds[i];
+        }
+        if (_error != null) {
+            throw _error;
+        }
+    }
+
+    /** My setting line. */
+    private final SettingLine _setting;
+
+    /** The characters of all my lines. */
+    private char[] _text = new char[64];
+
+    /** Number of characters in _text. */
+    private int _length;
+
+    /** Offset in _text of the end of each line. */
+    private int[] _lineEnds = new int[4];
+
+    /** Number of my lines. */
+    private int _numLines;
+
+    /** Number of my lines converted so far. */
+    private int _converted;
+
+    /** Error that stopped my conversion, or null. */
+    private EnigmaException _error;
+}
@@ -0,0 +1,228 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+import static enigma.EnigmaException.*;
+
+/** Source of the setting lines and message lines processed by Main, read
+ *  in a single pass over the bytes of the input.  Files are memory-mapped
+ *  in windows of WINDOW bytes; other channels are read into a direct
+ *  buffer.  Characters are single bytes, which covers every alphabet.
+ *  @author Philipp Kurz
+ */
+class MessageInput {
+
+    /** Input read from the file opened as CHANNEL. */
+    MessageInput(FileChannel channel) {
+        _channel = channel;
+        _file = channel;
+        _buffer = ByteBuffer.allocate(0);
+    }
+
+    /** Input read from CHANNEL, which is not a file. */
+    MessageInput(ReadableByteChannel channel) {
+        _channel = channel;
+        _file = null;
+        _buffer = ByteBuffer.allocateDirect(STREAM_BUFFER_SIZE);
+        _buffer.flip();
+    }
+
+    /** Skip whitespace, including line terminators, and return true iff
+     *  the next character is a '*' at the beginning of a line, i.e. a
+     *  setting line follows. */
+    boolean skipToSetting() {
+        while (isWhitespace(peek())) {
+            read();
+        }
+        return peek() == '*' && _atLineStart;
+    }
+
+    /** Return true iff a setting line starts at the current position,
+     *  which must be the beginning of a line. */
+    boolean atSetting() {
+        return peek() == '*';
+    }
+
+    /** Return true iff the current line is empty, i.e. a line terminator
+     *  follows. */
+    boolean atLineEnd() {
+        return isLineEnd(peek());
+    }
+
+    /** Return true iff any characters remain, i.e. there is another
+     *  line. */
+    boolean hasNextLine() {
+        return peek() >= 0;
+    }
+
+    /** Skip whitespace, including line terminators, and return the next
+     *  token, i.e. the longest sequence of non-whitespace characters. */
+    String next() {
+        while (isWhitespace(peek())) {
+            read();
+        }
+        _token.setLength(0);
+        for (int c = peek(); c >= 0 && !isWhitespace(c); c = peek()) {
+            _token.append((char) read());
+        }
+        if (_token.length() == 0) {
+            throw error("Input file truncated.");
+        }
+        return _token.toString();
+    }
+
+    /** Return the rest of the current line and move to the beginning of
+     *  the next one. */
+    String nextLine() {
+        _token.setLength(0);
+        for (int c = peek(); c >= 0 && !isLineEnd(c); c = peek()) {
+            _token.append((char) read());
+        }
+        skipLineEnd();
+        return _token.toString();
+    }
+
+    /** Read the characters of the current line into BUF, skipping blanks
+     *  and tabs, until BUF is full or the line ends, and return their
+     *  number.  At the end of the line, the line terminator is consumed
+     *  and lineEnded() becomes true. */
+    int readMessage(char[] buf) {
+        return readMessage(buf, 0);
+    }
+
+    /** Read the characters of the current line into BUF starting at OFF,
+     *  as readMessage(BUF) does, and return their number. */
+    int readMessage(char[] buf, int off) {
+        int len = off;
+        _lineEnded = false;
+        while (len < buf.length) {
+            if (!_buffer.hasRemaining() && !fill()) {
+                _lineEnded = true;
+                return len - off;
+            }
+            int pos = _buffer.position();
+            int end = Math.min(_buffer.limit(), pos + buf.length - len);
+            for (; pos < end; pos += 1) {
+                int c = _buffer.get(pos) & 0xFF;
+                if (c == ' ' || c == '\t') {
+                    continue;
+                } else if (isLineEnd(c)) {
+                    _buffer.position(pos);
+                    skipLineEnd();
+                    _lineEnded = true;
+                    return len - off;
+                }
+                buf[len] = (char) c;
+                len += 1;
+            }
+            _buffer.position(pos);
+            _atLineStart = false;
+        }
+        if (!hasNextLine()) {
+            _lineEnded = true;
+        }
+        return len - off;
+    }
+
+    /** Return true iff the last call to readMessage reached the end of its
+     *  line. */
+    boolean lineEnded() {
+        return _lineEnded;
+    }
+
+    /** Consume the line terminator at the current position, if any. */
+    private void skipLineEnd() {
+        if (read() == '\r' && peek() == '\n') {
+            read();
+        }
+    }
+
+    /** Return the next character without consuming it, or -1 at the end
+     *  of the input. */
+    private int peek() {
+        if (!_buffer.hasRemaining() && !fill()) {
+            return -1;
+        }
+        return _buffer.get(_buffer.position()) & 0xFF;
+    }
+
+    /** Consume and return the next character, or -1 at the end of the
+     *  input. */
+    private int read() {
+        int c = peek();
+        if (c >= 0) {
+            _buffer.position(_buffer.position() + 1);
+            _atLineStart = isLineEnd(c);
+        }
+        return c;
+    }
+
+    /** Make the next part of the input available in _buffer and return
+     *  false iff there is none. */
+    private boolean fill() {
+        try {
+            if (_file != null) {
+                long size = _file.size();
+                if (_mapped >= size) {
+                    return false;
+                }
+                long len = Math.min(WINDOW, size - _mapped);
+                _buffer = _file.map(FileChannel.MapMode.READ_ONLY, _mapped,
+                                    len);
+                _mapped += len;
+                return true;
+            }
+            _buffer.clear();
+            int n;
+            do {
+                n = _channel.read(_buffer);
+            } while (n == 0);
+            _buffer.flip();
+            return n > 0;
+        } catch (IOException excp) {
+            throw error("could not read input: %s", excp.getMessage());
+        }
+    }
+
+    /** Return true iff C is a whitespace character. */
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r'
+            || c == '\f' || c == 0x0B;
+    }
+
+    /** Return true iff C terminates a line. */
+    private static boolean isLineEnd(int c) {
+        return c == '\n' || c == '\r';
+    }
+
+    /** Size of the windows in which files are mapped. */
+    static final long WINDOW = 1 << 26;
+
+    /** Size of the buffer for input that is not a file. */
+    static final int STREAM_BUFFER_SIZE = 1 << 16;
+
+    /** Channel from which the input is read. */
+    private final ReadableByteChannel _channel;
+
+    /** _channel if it is a file, which is then mapped, or null. */
+    private final FileChannel _file;
+
+    /** Number of bytes of _file mapped so far. */
+    private long _mapped;
+
+    /** The part of the input currently available. */
+    private ByteBuffer _buffer;
+
+    /** True iff the current position is the beginning of a line. */
+    private boolean _atLineStart = true;
+
+    /** True iff the last call to readMessage reached the end of its
+     *  line. */
+    private boolean _lineEnded;
+
+    /** Reusable buffer for tokens and lines. */
+    private final StringBuilder _token = new StringBuilder();
+}
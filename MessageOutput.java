@@ -0,0 +1,140 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import static enigma.EnigmaException.*;
+
+/** Destination of the message lines printed by Main.  Characters are
+ *  collected in a reusable byte buffer together with the blanks that
+ *  separate groups of five and the line terminators, and written to a
+ *  file or stream in blocks of BUFFER_SIZE bytes.  Characters are single
+ *  bytes, which covers every alphabet.
+ *  @author Philipp Kurz
+ */
+class MessageOutput {
+
+    /** Output written to the file opened as CHANNEL, which is closed by
+     *  close(). */
+    MessageOutput(FileChannel channel) {
+        _file = channel;
+        _stream = null;
+    }
+
+    /** Output written to STREAM, which is flushed but not closed by
+     *  close(). */
+    MessageOutput(OutputStream stream) {
+        _file = null;
+        _stream = stream;
+    }
+
+    /** Append the LEN characters of MSG starting at OFF to the current
+     *  message line, in groups of five (except that the last group may
+     *  have fewer letters). */
+    void write(char[] msg, int off, int len) {
+        byte[] buf = _buffer;
+        int count = _count;
+        int group = _group;
+        for (int i = off; i < off + len; i += 1) {
+            if (count > buf.length - 2) {
+                _count = count;
+                flushBuffer();
+                count = 0;
+            }
+            if (group == 5) {
+                buf[count] = ' ';
+                count += 1;
+                group = 0;
+            }
+            buf[count] = (byte) msg[i];
+            count += 1;
+            group += 1;
+        }
+        _count = count;
+        _group = group;
+    }
+
+    /** Append TEXT, which consists of single-byte characters, to the
+     *  current line as it is, without grouping. */
+    void writeText(String text) {
+        for (int i = 0; i < text.length(); i += 1) {
+            if (_count == _buffer.length) {
+                flushBuffer();
+            }
+            _buffer[_count] = (byte) text.charAt(i);
+            _count += 1;
+        }
+    }
+
+    /** Terminate the current message line. */
+    void endLine() {
+        if (_count > _buffer.length - 2) {
+            flushBuffer();
+        }
+        _buffer[_count] = '\r';
+        _buffer[_count + 1] = '\n';
+        _count += 2;
+        _group = 0;
+    }
+
+    /** Write all buffered output. */
+    void flush() {
+        flushBuffer();
+        if (_stream != null) {
+            try {
+                _stream.flush();
+            } catch (IOException excp) {
+                throw error("could not write output: %s", excp.getMessage());
+            }
+        }
+    }
+
+    /** Write all buffered output and close the output file, if any. */
+    void close() {
+        flush();
+        if (_file != null) {
+            try {
+                _file.close();
+            } catch (IOException excp) {
+                throw error("could not write output: %s", excp.getMessage());
+            }
+        }
+    }
+
+    /** Write the contents of _buffer and empty it. */
+    private void flushBuffer() {
+        try {
+            if (_file != null) {
+                ByteBuffer bytes = ByteBuffer.wrap(_buffer, 0, _count);
+                while (bytes.hasRemaining()) {
+                    _file.write(bytes);
+                }
+            } else {
+                _stream.write(_buffer, 0, _count);
+            }
+        } catch (IOException excp) {
+            throw error("could not write output: %s", excp.getMessage());
+        }
+        _count = 0;
+    }
+
+    /** Size of the output buffer. */
+    static final int BUFFER_SIZE = 1 << 16;
+
+    /** Output file, or null if writing to _stream. */
+    private final FileChannel _file;
+
+    /** Output stream, or null if writing to _file. */
+    private final OutputStream _stream;
+
+    /** Buffered output. */
+    private final byte[] _buffer = new byte[BUFFER_SIZE];
+
+    /** Number of bytes in _buffer. */
+    private int _count;
+
+    /** Number of characters in the last group of the current line. */
+    private int _group;
+}
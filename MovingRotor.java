@@ -1,7 +1,5 @@
 package enigma;
 
-import java.util.HashSet;
-
 import static enigma.EnigmaException.*;
 
 /** Class that represents a rotating rotor in the enigma machine.
@@ -16,15 +14,24 @@ class MovingRotor extends Rotor {
      */
     MovingRotor(String name, Permutation perm, String notches) {
         super(name, perm);
-        _notches = new HashSet<Integer>();
-        if (notches.length() > 0) {
-            for (int i = 0; i < notches.length(); i += 1) {
-                char notch = notches.charAt(i);
-                _notches.add(permutation().alphabet().toInt(notch));
-            }
+        _notches = new boolean[perm.size()];
+        for (int i = 0; i < notches.length(); i += 1) {
+            char notch = notches.charAt(i);
+            _notches[permutation().alphabet().toInt(notch)] = true;
         }
     }
 
+    /** A rotor named NAME whose permutation in its default setting is
+     *  PERM, and whose notches are at the positions P for which NOTCHES[P]
+     *  is true. */
+    MovingRotor(String name, Permutation perm, boolean[] notches) {
+        super(name, perm);
+        if (notches.length != perm.size()) {
+            throw error("Notch table has wrong size.");
+        }
+        _notches = notches.clone();
+    }
+
     @Override
     boolean rotates() {
         return true;
@@ -32,7 +39,12 @@ class MovingRotor extends Rotor {
 
     @Override
     boolean atNotch() {
-        return _notches.contains(permutation().wrap(_setting));
+        return _notches[_setting];
+    }
+
+    @Override
+    boolean[] notches() {
+        return _notches;
     }
 
     @Override
@@ -45,7 +57,7 @@ class MovingRotor extends Rotor {
         return "MovingRotor " + name();
     }
 
-    /** Stores notches in a HashSet. */
-    private HashSet<Integer> _notches;
+    /** Stores for every position whether it is a notch. */
+    private final boolean[] _notches;
 
 }
@@ -0,0 +1,89 @@
+package enigma;
+
+import static enigma.EnigmaException.*;
+
+/** Scores texts by the log-likelihood of their n-grams (sequences of N
+ *  consecutive characters) under the n-gram frequencies of a sample of
+ *  plaintext.  N-grams that do not occur in the sample get the
+ *  likelihood of a tenth of an occurrence.  The frequency table is
+ *  immutable, so a scorer may be shared between threads.
+ *  @author Philipp Kurz
+ */
+class NgramScorer implements TextScorer {
+
+    /** A scorer for texts over ALPHABET using the N-grams of SAMPLE, in
+     *  which all characters outside ALPHABET are ignored. */
+    NgramScorer(Alphabet alphabet, CharSequence sample, int n) {
+        long entries = 1;
+        for (int i = 0; i < n; i += 1) {
+            entries *= alphabet.size();
+        }
+        if (n < 1 || entries > MAX_ENTRIES) {
+            throw error("n-gram tables of length %d are too large", n);
+        }
+        _n = n;
+        _size = alphabet.size();
+        _logProbs = new float[(int) entries];
+
+        int[] counts = new int[(int) entries];
+        long total = 0;
+        int gram = 0;
+        int seen = 0;
+        for (int i = 0; i < sample.length(); i += 1) {
+            char c = sample.charAt(i);
+            if (!alphabet.contains(c)) {
+                continue;
+            }
+            gram = (int) ((gram * (long) _size + alphabet.toInt(c))
+                          % entries);
+            seen += 1;
+            if (seen >= n) {
+                counts[gram] += 1;
+                total += 1;
+            }
+        }
+        if (total == 0) {
+            throw error("n-gram sample is too short");
+        }
+        for (int g = 0; g < counts.length; g += 1) {
+            double count = counts[g] == 0 ? UNSEEN : counts[g];
+            _logProbs[g] = (float) Math.log(count / total);
+        }
+    }
+
+    @Override
+    public double score(int[] text, int len) {
+        final float[] logProbs = _logProbs;
+        final int entries = logProbs.length;
+        double res = 0;
+        int gram = 0;
+        for (int i = 0; i < len; i += 1) {
+            gram = gram % (entries / _size) * _size + text[i];
+            if (i >= _n - 1) {
+                res += logProbs[gram];
+            }
+        }
+        return res;
+    }
+
+    @Override
+    public TextScorer copy() {
+        return this;
+    }
+
+    /** Largest number of entries of the frequency table. */
+    private static final long MAX_ENTRIES = 1 << 24;
+
+    /** Count assumed for n-grams that do not occur in the sample. */
+    private static final double UNSEEN = 0.1;
+
+    /** Length of my n-grams. */
+    private final int _n;
+
+    /** Size of my alphabet. */
+    private final int _size;
+
+    /** Natural logarithm of the frequency of every n-gram, indexed by the
+     *  n-gram read as a number in base _size. */
+    private final float[] _logProbs;
+}
@@ -1,9 +1,7 @@
 package enigma;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Arrays;
+import java.util.function.IntFunction;
 
 import static enigma.EnigmaException.*;
 
@@ -25,66 +23,126 @@ class Permutation {
      *  form "(cccc) (cc) ..." where the c's are characters in ALPHABET, which
      *  is interpreted as a permutation in cycle notation.  Characters in the
      *  alphabet that are not included in any cycle map to themselves.
-     *  Whitespace is ignored. */
+     *  Whitespace is ignored.  Over the alphabet of all bytes, each c is a
+     *  pair of hexadecimal digits.  Errors are reported with their
+     *  position in CYCLES, counting from 1. */
     Permutation(String cycles, Alphabet alphabet) {
-        _alphabet = alphabet;
-        _cycles = new ArrayList<Cycle>();
-        _intToCycleMap = new HashMap<Integer, Cycle>();
-        boolean[] charExistence = new boolean[_alphabet.size()];
+        this(cycles, 0, cycles.length(), alphabet,
+             i -> "position " + (i + 1));
+    }
 
-        Pattern r = Pattern.compile("\\A(\\s*\\(.+\\)\\s*)*\\z");
-        Matcher m = r.matcher(cycles);
-        if (!m.find()) {
-            throw error("Invalid permutation format.");
+    /** Set this Permutation to that specified by the characters START to
+     *  END - 1 of TEXT in cycle notation over ALPHABET, as above.  The
+     *  cycles are checked and the tables filled in a single pass over the
+     *  characters.  An error at TEXT[I] is reported at WHERE(I). */
+    Permutation(CharSequence text, int start, int end, Alphabet alphabet,
+                IntFunction<String> where) {
+        _alphabet = alphabet;
+        _forward = new int[_alphabet.size()];
+        _inverse = new int[_alphabet.size()];
+        Arrays.fill(_inverse, -1);
+
+        int open = -1;
+        int first = -1;
+        int previous = -1;
+        for (int i = start; i < end; i += 1) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                continue;
+            } else if (c == '(') {
+                if (open >= 0) {
+                    throw error("%s: Permutation cycles invalid: nested '('.",
+                                where.apply(i));
+                }
+                open = i;
+                first = -1;
+            } else if (c == ')') {
+                if (open < 0) {
+                    throw error("%s: Permutation cycles invalid: "
+                                + "unmatched ')'.", where.apply(i));
+                }
+                if (first < 0) {
+                    throw error("%s: Permutation cycles invalid: "
+                                + "empty cycle.", where.apply(open));
+                }
+                _forward[previous] = first;
+                _inverse[first] = previous;
+                open = -1;
+            } else if (open < 0) {
+                throw error("%s: Permutation cycles invalid: '%c' outside "
+                            + "of a cycle.", where.apply(i), c);
+            } else {
+                int index = symbol(text, i, end);
+                if (index < 0) {
+                    throw error("%s: Permutation cycles invalid: '%c' not "
+                                + "in alphabet.", where.apply(i), c);
+                }
+                int at = i;
+                if (_alphabet.isBytes()) {
+                    i += 1;
+                }
+                if (_inverse[index] >= 0) {
+                    throw error("%s: Duplicate character '%s' in "
+                                + "permutation cycles.", where.apply(at),
+                                text.subSequence(at, i + 1));
+                }
+                if (first < 0) {
+                    first = index;
+                    _inverse[index] = index;
+                } else {
+                    _forward[previous] = index;
+                    _inverse[index] = previous;
+                }
+                previous = index;
+            }
         }
-
-
-        r = Pattern.compile("(?<=\\()([^\\)]+)\\)");
-        m = r.matcher(cycles);
-        while (m.find()) {
-            addCycle(m.group(1), charExistence);
+        if (open >= 0) {
+            throw error("%s: Permutation cycles invalid: unterminated "
+                        + "cycle.", where.apply(open));
         }
 
-        for (int index = 0; index < charExistence.length; index += 1) {
-            if (!charExistence[index]) {
-                addSingularCycle(index);
+        for (int index = 0; index < _inverse.length; index += 1) {
+            if (_inverse[index] < 0) {
+                _forward[index] = index;
+                _inverse[index] = index;
             }
         }
-
     }
 
-    /** Add the cycle c0->c1->...->cm->c0 to the permutation, where CYCLE is
-     *  c0c1...cm.
-     *  Add the cycle to the cycle hash map, so that the correct cycle can
-     *  be retrieved quickly.
-     *  Set all respective elements in CHAREXISTENCE to true. */
-    private void addCycle(String cycle, boolean[] charExistence) {
-        Cycle newCycle = new Cycle();
-        for (int i = 0; i < cycle.length(); i += 1) {
-            int charIndex = _alphabet.toInt(cycle.charAt(i));
-            if (charExistence[charIndex]) {
-                throw error("Duplicate character in permutation "
-                        + "cycles detected.");
-            }
-            charExistence[charIndex] = true;
-            newCycle.add(charIndex);
-            _intToCycleMap.put(charIndex, newCycle);
+    /** Return the index of the character written at TEXT[I], or at TEXT[I]
+     *  and TEXT[I + 1] as two hexadecimal digits if my alphabet is the
+     *  alphabet of all bytes, or -1 if there is no such character.  TEXT
+     *  ends before END. */
+    private int symbol(CharSequence text, int i, int end) {
+        if (!_alphabet.isBytes()) {
+            char c = text.charAt(i);
+            return _alphabet.contains(c) ? _alphabet.toInt(c) : -1;
         }
-        _cycles.add(newCycle);
-    }
-
-    /** Add the singular cycle ...c0->c0->c0... where c is the character
-     * from the alphabet that corresponds to INDEX. */
-    private void addSingularCycle(int index) {
-        Cycle newCycle = new Cycle();
-        newCycle.add(index);
-        _intToCycleMap.put(index, newCycle);
-        _cycles.add(newCycle);
+        if (i + 1 >= end) {
+            return -1;
+        }
+        int high = Character.digit(text.charAt(i), 16);
+        int low = Character.digit(text.charAt(i + 1), 16);
+        return high < 0 || low < 0 ? -1 : high * 16 + low;
     }
 
-    /** Return cycle that includes character which corresponds to INDEX. */
-    private Cycle getCycle(int index) {
-        return ((Cycle) _intToCycleMap.get(index));
+    /** Set this Permutation to the one mapping every index I of ALPHABET
+     *  to FORWARD[I], which must be a permutation of the indices. */
+    Permutation(int[] forward, Alphabet alphabet) {
+        _alphabet = alphabet;
+        if (forward.length != _alphabet.size()) {
+            throw error("Permutation table has wrong size.");
+        }
+        _forward = forward.clone();
+        _inverse = new int[_alphabet.size()];
+        Arrays.fill(_inverse, -1);
+        for (int i = 0; i < _forward.length; i += 1) {
+            int c = _forward[i];
+            if (c < 0 || c >= _inverse.length || _inverse[c] >= 0) {
+                throw error("Permutation table is not a permutation.");
+            }
+            _inverse[c] = i;
+        }
     }
 
     /** Return the value of P modulo the size of this permutation. */
@@ -104,13 +162,13 @@ class Permutation {
     /** Return the result of applying this permutation to P modulo the
      *  alphabet size. */
     int permute(int p) {
-        return getCycle(p).getNext(p);
+        return _forward[p];
     }
 
     /** Return the result of applying the inverse of this permutation
      *  to  C modulo the alphabet size. */
     int invert(int c) {
-        return getCycle(c).getPrevious(c);
+        return _inverse[c];
     }
 
     /** Return the result of applying this permutation to the index of P
@@ -132,160 +190,98 @@ class Permutation {
     /** Return true iff this permutation is a derangement (i.e., a
      *  permutation for which no value maps to itself). */
     boolean derangement() {
-        int minSize = _cycles.get(0).size();
-        for (Cycle cyc : _cycles) {
-            minSize = Math.min(minSize, cyc.size());
-        }
-        return minSize > 1;
-    }
-
-    /** Throws EnigmaException if CYCLE is invalid. */
-    static void checkCycleValidity(String cycle) {
-        if (cycle.isEmpty()) {
-            return;
-        }
-        EnigmaException e = new EnigmaException("Permutation cycles invalid.");
-        cycle = cycle.replaceAll(" ", "");
-        if (cycle.charAt(0) != '(' || cycle.charAt(cycle.length() - 1) != ')') {
-            throw e;
-        }
-        int bracketCounter = 0;
-        int charCounter = 0;
-        for (int i = 0; i < cycle.length(); i++) {
-            char c = cycle.charAt(i);
-            if (c == '(') {
-                bracketCounter += 1;
-            } else if (c == ')') {
-                if (charCounter == 0) {
-                    throw e;
-                }
-                charCounter = 0;
-                bracketCounter -= 1;
-            } else if ((c >= '!' && c <= '\'') || (c >= '+' && c <= '~')) {
-                if (bracketCounter != 1) {
-                    throw e;
-                }
-                charCounter += 1;
-            } else {
-                throw e;
+        for (int i = 0; i < _forward.length; i += 1) {
+            if (_forward[i] == i) {
+                return false;
             }
         }
+        return true;
     }
 
-    /** Alphabet of this permutation. */
-    private Alphabet _alphabet;
-
-    /** Permutation cycles of this permutation. */
-    private ArrayList<Cycle> _cycles;
-
-    /** Mapping of char to permutation cycle. */
-    private HashMap<Integer, Cycle> _intToCycleMap;
-
-
-    /** Represents a cycle of a permutation.
-     *  Every cycle is basically a circular doubly linked list with a hash map
-     *  storing the reference from every index to the respective node.
-     *  @author Philipp Kurz
-     */
-    class Cycle {
-
-        /** Represents a cycle node of a permutation cycle.
-         *  @author Philipp Kurz
-         */
-        private class CycleNode {
-
-            /** Constructs a new cycle node and sets its index to IND. */
-            CycleNode(int ind) {
-                _index = ind;
-            }
-
-            /** Index in alphabet of this node. */
-            private int _index;
-
-            /** Returns alphabet index of this node. */
-            int getIndex() {
-                return _index;
-            }
-
-            /** Reference to previous node. */
-            private CycleNode _previous;
-
-            /** Returns reference to the previous node. */
-            CycleNode getPrevious() {
-                return _previous;
-            }
-
-            /** Sets reference to previous node to PREV. */
-            void setPrevious(CycleNode prev) {
-                _previous = prev;
-            }
-
-            /** Reference to next node. */
-            private CycleNode _next;
+    /** Return the forward table of this permutation, mapping every index
+     *  to its image.  The array is shared and must not be modified. */
+    int[] forwardTable() {
+        return _forward;
+    }
 
-            /** Returns reference to next node. */
-            CycleNode getNext() {
-                return _next;
-            }
+    /** Return the inverse table of this permutation, mapping every index
+     *  to its preimage.  The array is shared and must not be modified. */
+    int[] inverseTable() {
+        return _inverse;
+    }
 
-            /** Sets reference to next node to NEXT. */
-            void setNext(CycleNode next) {
-                _next = next;
-            }
+    /** Return the forward table of this permutation for every shift of a
+     *  rotor carrying it, whose entry SHIFT * size() + C is the image of C
+     *  with the rotor shifted by SHIFT, i.e. (forward((C + SHIFT) mod
+     *  size()) - SHIFT) mod size().  The array is computed on first use,
+     *  shared, and must not be modified. */
+    int[] shiftedForwardTable() {
+        int[] res = _shiftedForward;
+        if (res == null) {
+            res = shifted(_forward);
+            _shiftedForward = res;
         }
+        return res;
+    }
 
-        /** Constructs a new cycle. */
-        Cycle() {
-            _indexToNodeMap = new HashMap<Integer, CycleNode>();
-            _size = 0;
+    /** Return the inverse table of this permutation for every shift of a
+     *  rotor carrying it, like shiftedForwardTable(). */
+    int[] shiftedInverseTable() {
+        int[] res = _shiftedInverse;
+        if (res == null) {
+            res = shifted(_inverse);
+            _shiftedInverse = res;
         }
-        /** Stores information on in which cycle a specific index lies. */
-        private HashMap<Integer, CycleNode> _indexToNodeMap;
-
-        /** Reference to the first node. */
-        private CycleNode _first;
-
-        /** Reference to the last node. */
-        private CycleNode _last;
-
-        /** Size of the circular linked list. */
-        private int _size;
+        return res;
+    }
 
-        /** Returns index of node previous to node with INDEX. */
-        int getPrevious(int index) {
-            return getNode(index).getPrevious().getIndex();
+    /** Return the table TABLE of this permutation for every shift (see
+     *  shiftedForwardTable()). */
+    private int[] shifted(int[] table) {
+        int size = table.length;
+        int[] res = new int[size * size];
+        for (int shift = 0; shift < size; shift += 1) {
+            for (int c = 0; c < size; c += 1) {
+                int x = c + shift;
+                int y = table[x < size ? x : x - size] - shift;
+                res[shift * size + c] = y < 0 ? y + size : y;
+            }
         }
+        return res;
+    }
 
-        /** Returns index of node after node with INDEX. */
-        int getNext(int index) {
-            return getNode(index).getNext().getIndex();
+    /** Return this permutation in cycle notation, derived from the
+     *  forward table.  Singular cycles are omitted. */
+    @Override
+    public String toString() {
+        StringBuilder res = new StringBuilder();
+        boolean[] visited = new boolean[_forward.length];
+        for (int i = 0; i < _forward.length; i += 1) {
+            if (visited[i] || _forward[i] == i) {
+                continue;
+            }
+            res.append('(');
+            for (int k = i; !visited[k]; k = _forward[k]) {
+                visited[k] = true;
+                res.append(_alphabet.toChar(k));
+            }
+            res.append(')');
         }
+        return res.toString();
+    }
 
-        /** Returns node with INDEX. */
-        private CycleNode getNode(int index) {
-            return _indexToNodeMap.get(index);
-        }
+    /** Alphabet of this permutation. */
+    private Alphabet _alphabet;
 
-        /** Add new node with INDEX. */
-        void add(int index) {
-            CycleNode newNode = new CycleNode(index);
-            if (_first == null && _last == null) {
-                _first = _last = newNode;
-            }
-            newNode.setPrevious(_last);
-            newNode.setNext(_first);
-            _last.setNext(newNode);
-            _last = newNode;
-            _first.setPrevious(_last);
-            _indexToNodeMap.put(index, newNode);
-            _size += 1;
-        }
+    /** Image of every index under this permutation. */
+    private final int[] _forward;
 
-        /** Return size of circular linked list. */
-        int size() {
-            return _size;
-        }
-    }
+    /** Preimage of every index under this permutation. */
+    private final int[] _inverse;
 
+    /** Forward table for every shift, or null if not yet computed. */
+    private volatile int[] _shiftedForward;
 
+    /** Inverse table for every shift, or null if not yet computed. */
+    private volatile int[] _shiftedInverse;
 }
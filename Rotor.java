@@ -72,31 +72,17 @@ class Rotor {
     /** Return the conversion of P (an integer in the range 0..size()-1)
      *  according to my permutation. */
     int convertForward(int p) {
-        int intoPerm = _permutation.wrap(p + _setting - _ringSetting);
-        if (intoPerm != p + _setting - _ringSetting) {
-            int setBr = 0;
-        }
-        int outOfPerm = _permutation.permute(intoPerm);
-        int ret = _permutation.wrap(outOfPerm - _setting + _ringSetting);
-        if (ret != outOfPerm - _setting + _ringSetting) {
-            int setBr = 0;
-        }
-        return ret;
+        int shift = _permutation.wrap(_setting - _ringSetting);
+        int outOfPerm = _permutation.permute(_permutation.wrap(p + shift));
+        return _permutation.wrap(outOfPerm - shift);
     }
 
     /** Return the conversion of E (an integer in the range 0..size()-1)
      *  according to the inverse of my permutation. */
     int convertBackward(int e) {
-        int intoPerm = _permutation.wrap(e + _setting - _ringSetting);
-        if (intoPerm != e + _setting - _ringSetting) {
-            int setBr = 0;
-        }
-        int outOfPerm = _permutation.invert(intoPerm);
-        int ret = _permutation.wrap(outOfPerm - _setting + _ringSetting);
-        if (ret != outOfPerm - _setting + _ringSetting) {
-            int setBr = 0;
-        }
-        return ret;
+        int shift = _permutation.wrap(_setting - _ringSetting);
+        int outOfPerm = _permutation.invert(_permutation.wrap(e + shift));
+        return _permutation.wrap(outOfPerm - shift);
     }
 
     /** Returns true iff I am positioned to allow the rotor to my left
@@ -105,6 +91,12 @@ class Rotor {
         return false;
     }
 
+    /** Return for every position whether it is one of my notches, or null
+     *  if I have none.  The array is shared and must not be modified. */
+    boolean[] notches() {
+        return null;
+    }
+
     /** Advance me one position, if possible. By default, does nothing. */
     void advance() {
     }
@@ -0,0 +1,118 @@
+package enigma;
+
+import java.util.Arrays;
+
+import static enigma.EnigmaException.*;
+
+/** The contents of a setting line of the input, i.e. a line starting with
+ *  '*' that selects the rotors, their settings and ring settings and the
+ *  plugboard for the following message.
+ *  @author Philipp Kurz
+ */
+class SettingLine {
+
+    /** A setting line naming ROTORS (the reflector first) with SETTING,
+     *  RINGSETTING (possibly empty) and plugboard CYCLES (possibly
+     *  empty). */
+    SettingLine(String[] rotors, String setting, String ringSetting,
+                String cycles) {
+        _rotors = rotors;
+        _setting = setting;
+        _ringSetting = ringSetting;
+        _cycles = cycles;
+    }
+
+    /** Read a setting line for a machine with NUMROTORS rotor slots from
+     *  INPUT, which must be positioned at its '*'.  Afterwards, INPUT is
+     *  positioned at the beginning of the next line.  The setting line
+     *  must not continue on the lines after it (see parse). */
+    static SettingLine read(MessageInput input, int numRotors) {
+        return parse(input.nextLine(), numRotors);
+    }
+
+    /** Return the setting line LINE, which starts with '*', for a machine
+     *  with NUMROTORS rotor slots.  It is an error if LINE holds fewer
+     *  than NUMROTORS rotor names and a setting. */
+    static SettingLine parse(String line, int numRotors) {
+        String[] tokens = line.trim().split("\\s+");
+        if (!tokens[0].startsWith("*")) {
+            throw error("Setting line must start with '*'.");
+        }
+        int k;
+        if (tokens[0].equals("*")) {
+            k = 1;
+        } else {
+            tokens[0] = tokens[0].substring(1);
+            k = 0;
+        }
+        if (tokens.length < k + numRotors + 1) {
+            throw error("Setting line needs %d rotors and a setting.",
+                        numRotors);
+        }
+
+        String[] rotors = Arrays.copyOfRange(tokens, k, k + numRotors);
+        k += numRotors;
+        String setting = tokens[k];
+        k += 1;
+
+        String ringSetting = "";
+        if (k < tokens.length && !isCycles(tokens[k])) {
+            ringSetting = tokens[k];
+            k += 1;
+        }
+
+        StringBuilder cycles = new StringBuilder();
+        for (; k < tokens.length && containsParens(tokens[k]); k += 1) {
+            cycles.append(tokens[k]);
+        }
+        return new SettingLine(rotors, setting, ringSetting,
+                               cycles.toString());
+    }
+
+    /** Set up MACH according to this setting line. */
+    void apply(Machine mach) {
+        mach.insertRotors(_rotors);
+        Alphabet alpha = mach.alphabet();
+        mach.setRotors(alpha.decode(_setting));
+        mach.setRingSetting(alpha.decode(_ringSetting));
+        mach.setPlugboard(new Permutation(_cycles, mach.alphabet()));
+    }
+
+    /** Return the normalized text of this setting line, which is the same
+     *  for all setting lines that differ only in spacing and therefore set
+     *  up machines identically. */
+    String key() {
+        StringBuilder key = new StringBuilder();
+        for (String rotor : _rotors) {
+            key.append(rotor).append(' ');
+        }
+        return key.append(_setting).append(' ').append(_ringSetting)
+            .append(' ').append(_cycles).toString();
+    }
+
+    /** Return true iff TOKEN of a setting line is a parenthesized
+     *  sequence of plugboard cycles rather than a ring setting. */
+    private static boolean isCycles(String token) {
+        return token.length() > 2 && token.charAt(0) == '('
+            && token.charAt(token.length() - 1) == ')';
+    }
+
+    /** Return true iff TOKEN of a setting line belongs to the plugboard
+     *  cycles. */
+    private static boolean containsParens(String token) {
+        return token.indexOf('(') >= 0 || token.indexOf(')') >= 0
+            || token.indexOf('|') >= 0;
+    }
+
+    /** Names of the selected rotors, the reflector first. */
+    private final String[] _rotors;
+
+    /** Initial settings of the rotors. */
+    private final String _setting;
+
+    /** Ring settings of the rotors, or "" for the default. */
+    private final String _ringSetting;
+
+    /** Plugboard cycles, or "" for none. */
+    private final String _cycles;
+}
@@ -0,0 +1,17 @@
+package enigma;
+
+/** A measure of how much a candidate decryption resembles plaintext, used
+ *  by KeySearch.  Higher scores are better.  A scorer may keep scratch
+ *  space and is therefore used by one thread at a time; other threads use
+ *  copies.
+ *  @author Philipp Kurz
+ */
+interface TextScorer {
+
+    /** Return the score of the first LEN alphabet indices of TEXT. */
+    double score(int[] text, int len);
+
+    /** Return a scorer computing the same scores as me that may be used
+     *  on another thread. */
+    TextScorer copy();
+}
@@ -0,0 +1,462 @@
+package enigma;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.function.IntSupplier;
+
+/** Benchmarks of the enigma machine, from single permutations up to Main
+ *  on generated configuration and input files.  For every benchmark, the
+ *  time and the number of heap bytes allocated per operation are
+ *  reported, the latter from the allocation counter of the running
+ *  thread (as with JMH's gc profiler).  Compile and run from the
+ *  directory containing the sources with
+ *
+ *      javac -d classes *.java bench/*.java
+ *      java -cp classes enigma.Benchmarks [FILTER]
+ *
+ *  Only benchmarks whose name contains FILTER are run.
+ *  @author Philipp Kurz
+ */
+public final class Benchmarks {
+
+    /** Run the benchmarks whose names contain ARGS[0], or all of them. */
+    public static void main(String... args) throws IOException {
+        new Benchmarks(args.length > 0 ? args[0] : "").run();
+    }
+
+    /** Benchmarks whose names contain FILTER. */
+    private Benchmarks(String filter) {
+        _filter = filter;
+    }
+
+    /** Run all selected benchmarks. */
+    private void run() throws IOException {
+        System.out.printf("%-64s %14s %12s%n", "benchmark", "ns/op", "B/op");
+        for (int alphSize : ALPHABET_SIZES) {
+            Catalog cat = new Catalog(alphSize, 5, 3, 8);
+            Permutation perm = cat._rotors.get("R0").permutation();
+            Rotor rotor = cat._rotors.get("R0");
+            int[] data = randomIndices(alphSize, 1 << 12);
+            String suffix = "[alph=" + alphSize + "]";
+
+            measure("Permutation.permute" + suffix, data.length, () -> {
+                int x = 0;
+                for (int c : data) {
+                    x += perm.permute(c);
+                }
+                return x;
+            });
+            measure("Permutation.invert" + suffix, data.length, () -> {
+                int x = 0;
+                for (int c : data) {
+                    x += perm.invert(c);
+                }
+                return x;
+            });
+            measure("Rotor.convertForward" + suffix, data.length, () -> {
+                int x = 0;
+                for (int c : data) {
+                    x += rotor.convertForward(c);
+                }
+                return x;
+            });
+            measure("Rotor.convertBackward" + suffix, data.length, () -> {
+                int x = 0;
+                for (int c : data) {
+                    x += rotor.convertBackward(c);
+                }
+                return x;
+            });
+        }
+
+        for (int[] shape : MACHINE_SHAPES) {
+            Catalog cat = new Catalog(shape[0], shape[1], shape[2],
+                                      shape[1] + 2);
+            Machine mach = cat.machine();
+            String suffix = String.format("[alph=%d,rotors=%d,pawls=%d]",
+                                          shape[0], shape[1], shape[2]);
+            int[] data = randomIndices(shape[0], 1 << 12);
+            measure("Machine.convert(int)" + suffix, data.length, () -> {
+                int x = 0;
+                for (int c : data) {
+                    x += mach.convert(c);
+                }
+                return x;
+            });
+            for (int len : MESSAGE_SIZES) {
+                String msg = randomText(cat._alphabet, len);
+                measure("Machine.convert(String)" + suffix + "[len=" + len
+                        + "]", len, () -> mach.convert(msg).length());
+            }
+            Machine gen = cat.machine();
+            if (gen.setGeneratedEngine(true)) {
+                measure("Machine.convert(int)" + suffix + "[generated]",
+                        data.length, () -> {
+                        int x = 0;
+                        for (int c : data) {
+                            x += gen.convert(c);
+                        }
+                        return x;
+                    });
+                int[] indices = randomIndices(shape[0], 1 << 12);
+                measure("Machine.convert(int[])" + suffix, indices.length,
+                        () -> {
+                        mach.convert(indices, 0, indices.length);
+                        return indices[0];
+                    });
+                measure("Machine.convert(int[])" + suffix + "[generated]",
+                        indices.length, () -> {
+                        gen.convert(indices, 0, indices.length);
+                        return indices[0];
+                    });
+                for (int len : MESSAGE_SIZES) {
+                    String msg = randomText(cat._alphabet, len);
+                    measure("Machine.convert(String)" + suffix + "[len="
+                            + len + "][generated]", len,
+                            () -> gen.convert(msg).length());
+                }
+            }
+            Machine table = cat.machine();
+            if (table.setKeystreamTable(true)) {
+                measure("Machine.convert(int)" + suffix + "[keystream table]",
+                        data.length, () -> {
+                        int x = 0;
+                        for (int c : data) {
+                            x += table.convert(c);
+                        }
+                        return x;
+                    });
+                for (int len : MESSAGE_SIZES) {
+                    String msg = randomText(cat._alphabet, len);
+                    measure("Machine.convert(String)" + suffix + "[len="
+                            + len + "][keystream table]", len,
+                            () -> table.convert(msg).length());
+                }
+            }
+            MachineSpec[] specs = new MachineSpec[BATCH_LANES];
+            MachineState[] states = new MachineState[BATCH_LANES];
+            int[][] msgs = new int[BATCH_LANES][];
+            for (int k = 0; k < BATCH_LANES; k += 1) {
+                specs[k] = mach.spec();
+                states[k] = mach.snapshot();
+                msgs[k] = randomIndices(shape[0], 1 << 10);
+            }
+            BatchMachine batch = new BatchMachine(specs, states);
+            measure("BatchMachine.convert" + suffix + "[lanes="
+                    + BATCH_LANES + "]", BATCH_LANES << 10, () -> {
+                    batch.convert(msgs, 0, 1 << 10);
+                    return msgs[0][0];
+                });
+            SettingLine setting =
+                new SettingLine(cat.rotorNames(),
+                                randomText(cat._alphabet, shape[1] - 1), "",
+                                cat.randomCycles(true).substring(0, 10)
+                                .replace(" ", ""));
+            measure("SettingLine.apply" + suffix, 1, () -> {
+                    setting.apply(mach);
+                    return mach.convert(0);
+                });
+            MachineCache cache =
+                new MachineCache(MachineCache.DEFAULT_ENTRIES,
+                                 MachineCache.DEFAULT_BYTES);
+            measure("MachineCache.apply" + suffix, 1, () -> {
+                    cache.apply(setting, mach);
+                    return mach.convert(0);
+                });
+            String shortMsg = randomText(cat._alphabet, SHORT_MESSAGE);
+            measure("MachineCache+convert(String)" + suffix + "[len="
+                    + SHORT_MESSAGE + "]", SHORT_MESSAGE, () -> {
+                    cache.apply(setting, mach);
+                    return mach.convert(shortMsg).length();
+                });
+            mach.setKeystreamCache(
+                new KeystreamCache(SHORT_MESSAGE,
+                                   KeystreamCache.DEFAULT_BYTES));
+            measure("KeystreamCache+convert(String)" + suffix + "[len="
+                    + SHORT_MESSAGE + "]", SHORT_MESSAGE, () -> {
+                    cache.apply(setting, mach);
+                    return mach.convert(shortMsg).length();
+                });
+            mach.setKeystreamCache(null);
+        }
+
+        for (int[] shape : MACHINE_SHAPES) {
+            Catalog cat = new Catalog(shape[0], shape[1], shape[2],
+                                      shape[1] + 2);
+            File conf = File.createTempFile("enigma", ".conf");
+            File input = File.createTempFile("enigma", ".in");
+            File output = File.createTempFile("enigma", ".out");
+            conf.deleteOnExit();
+            input.deleteOnExit();
+            output.deleteOnExit();
+            cat.write(conf);
+            int chars = cat.writeInput(input, 1000, 1000);
+            String[] args = { conf.getPath(), input.getPath(),
+                              output.getPath() };
+            measure(String.format("Main[alph=%d,rotors=%d,pawls=%d]",
+                                  shape[0], shape[1], shape[2]),
+                    chars, () -> {
+                    Main.main(args);
+                    return (int) output.length();
+                });
+        }
+    }
+
+    /** Run BODY, which performs OPS operations, repeatedly if my name
+     *  filter admits NAME, and report the time and allocation per
+     *  operation. */
+    private void measure(String name, long ops, IntSupplier body) {
+        if (!name.contains(_filter)) {
+            return;
+        }
+        runFor(WARMUP_NANOS, body);
+        long calls = 0;
+        long bytes = 0;
+        long nanos = 0;
+        for (int i = 0; i < ITERATIONS; i += 1) {
+            long bytes0 = allocatedBytes();
+            long start = System.nanoTime();
+            calls += runFor(ITERATION_NANOS, body);
+            nanos += System.nanoTime() - start;
+            bytes += allocatedBytes() - bytes0;
+        }
+        System.out.printf("%-64s %14.3f %12.3f%n", name,
+                          (double) nanos / (calls * ops),
+                          (double) bytes / (calls * ops));
+    }
+
+    /** Call BODY repeatedly for at least NANOS nanoseconds and return the
+     *  number of calls. */
+    private long runFor(long nanos, IntSupplier body) {
+        long end = System.nanoTime() + nanos;
+        long calls = 0;
+        do {
+            _sink += body.getAsInt();
+            calls += 1;
+        } while (System.nanoTime() < end);
+        return calls;
+    }
+
+    /** Return the number of bytes allocated by the current thread so
+     *  far. */
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean)
+                ManagementFactory.getThreadMXBean())
+            .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /** Return LEN random indices into an alphabet of size SIZE. */
+    private static int[] randomIndices(int size, int len) {
+        Random random = new Random(len);
+        int[] res = new int[len];
+        for (int i = 0; i < len; i += 1) {
+            res[i] = random.nextInt(size);
+        }
+        return res;
+    }
+
+    /** Return LEN random characters of ALPHABET. */
+    private static String randomText(Alphabet alphabet, int len) {
+        Random random = new Random(len);
+        char[] res = new char[len];
+        for (int i = 0; i < len; i += 1) {
+            res[i] = alphabet.toChar(random.nextInt(alphabet.size()));
+        }
+        return new String(res);
+    }
+
+    /** A randomly generated configuration: alphabet, rotors and
+     *  reflectors. */
+    private static class Catalog {
+
+        /** A catalog over the first ALPHSIZE characters allowed in
+         *  alphabets, for machines with NUMROTORS slots and NUMPAWLS pawls,
+         *  with NUMMOVING moving rotors, enough fixed rotors and two
+         *  reflectors.  ALPHSIZE must be even. */
+        Catalog(int alphSize, int numRotors, int numPawls, int numMoving) {
+            StringBuilder chars = new StringBuilder();
+            for (char c = '!'; chars.length() < alphSize; c += 1) {
+                if (c != '(' && c != ')' && c != '*') {
+                    chars.append(c);
+                }
+            }
+            _chars = chars.toString();
+            _alphabet = new Alphabet(_chars);
+            _numRotors = numRotors;
+            _numPawls = numPawls;
+            _random = new Random(alphSize * 31 + numRotors * 7 + numPawls);
+            for (int i = 0; i < numMoving; i += 1) {
+                String notches = "M" + _alphabet.toChar(i % alphSize);
+                add("R" + i, notches, randomCycles(false));
+            }
+            for (int i = 0; i < numRotors - numPawls - 1; i += 1) {
+                add("F" + i, "N", randomCycles(false));
+            }
+            add("B", "R", randomCycles(true));
+            add("C", "R", randomCycles(true));
+        }
+
+        /** Add a rotor NAME of type and notches INFO and permutation
+         *  CYCLES. */
+        private void add(String name, String info, String cycles) {
+            Permutation perm = new Permutation(cycles, _alphabet);
+            Rotor rotor;
+            switch (info.charAt(0)) {
+            case 'M':
+                rotor = new MovingRotor(name, perm, info.substring(1));
+                break;
+            case 'N':
+                rotor = new FixedRotor(name, perm);
+                break;
+            default:
+                rotor = new Reflector(name, perm);
+                break;
+            }
+            _rotors.put(name, rotor);
+            _lines.append(name).append(' ').append(info).append(' ')
+                .append(cycles).append('\n');
+        }
+
+        /** Return a random permutation of my alphabet in cycle notation.
+         *  If PAIRS, it consists of cycles of length two only. */
+        private String randomCycles(boolean pairs) {
+            int size = _alphabet.size();
+            int[] order = new int[size];
+            for (int i = 0; i < size; i += 1) {
+                order[i] = i;
+            }
+            for (int i = size - 1; i > 0; i -= 1) {
+                int k = _random.nextInt(i + 1);
+                int tmp = order[i];
+                order[i] = order[k];
+                order[k] = tmp;
+            }
+            StringBuilder res = new StringBuilder();
+            for (int i = 0; i < size; ) {
+                int len = pairs ? 2 : 1 + _random.nextInt(size - i);
+                res.append('(');
+                for (int k = i; k < i + len; k += 1) {
+                    res.append(_alphabet.toChar(order[k]));
+                }
+                res.append(") ");
+                i += len;
+            }
+            return res.toString();
+        }
+
+        /** Return a machine using my rotors, set up with a message key. */
+        Machine machine() {
+            Machine mach = new Machine(_alphabet, _numRotors, _numPawls,
+                                       _rotors);
+            mach.insertRotors(rotorNames());
+            mach.setRotors(randomText(_alphabet, _numRotors - 1));
+            mach.setRingSetting("");
+            mach.setPlugboard(new Permutation("", _alphabet));
+            return mach;
+        }
+
+        /** Return the names of the rotors of my default machine, reflector
+         *  first. */
+        String[] rotorNames() {
+            String[] names = new String[_numRotors];
+            names[0] = "B";
+            for (int i = 1; i < _numRotors - _numPawls; i += 1) {
+                names[i] = "F" + (i - 1);
+            }
+            for (int i = _numRotors - _numPawls; i < _numRotors; i += 1) {
+                names[i] = "R" + (i - _numRotors + _numPawls);
+            }
+            return names;
+        }
+
+        /** Write my configuration to FILE. */
+        void write(File file) throws IOException {
+            try (PrintWriter out = new PrintWriter(file)) {
+                out.println(_chars);
+                out.println(_numRotors + " " + _numPawls);
+                out.print(_lines);
+            }
+        }
+
+        /** Write NUMMESSAGES messages of NUMCHARS characters each, in lines
+         *  of at most 60 characters, to FILE, and return the total number
+         *  of message characters. */
+        int writeInput(File file, int numMessages, int numChars)
+            throws IOException {
+            try (PrintWriter out = new PrintWriter(file)) {
+                for (int m = 0; m < numMessages; m += 1) {
+                    out.print("*");
+                    for (String name : rotorNames()) {
+                        out.print(" " + name);
+                    }
+                    out.println(" " + randomText(_alphabet, _numRotors - 1)
+                                + " " + randomCycles(true).substring(0, 10));
+                    for (int i = 0; i < numChars; i += 60) {
+                        out.println(randomText(_alphabet,
+                                               Math.min(60, numChars - i)));
+                    }
+                }
+            }
+            return numMessages * numChars;
+        }
+
+        /** The characters of my alphabet. */
+        private final String _chars;
+
+        /** My alphabet. */
+        private final Alphabet _alphabet;
+
+        /** Number of rotor slots of my machines. */
+        private final int _numRotors;
+
+        /** Number of pawls of my machines. */
+        private final int _numPawls;
+
+        /** All my rotors by name. */
+        private final HashMap<String, Rotor> _rotors = new HashMap<>();
+
+        /** My rotor descriptions in configuration file format. */
+        private final StringBuilder _lines = new StringBuilder();
+
+        /** Source of my permutations. */
+        private final Random _random;
+    }
+
+    /** Alphabet sizes of the permutation and rotor benchmarks. */
+    private static final int[] ALPHABET_SIZES = { 26, 90 };
+
+    /** Alphabet size, number of rotor slots and number of pawls of the
+     *  machine benchmarks. */
+    private static final int[][] MACHINE_SHAPES = {
+        { 26, 5, 3 }, { 26, 8, 5 }, { 90, 5, 3 },
+    };
+
+    /** Message lengths of the Machine.convert(String) benchmarks. */
+    private static final int[] MESSAGE_SIZES = { 100, 10000, 1000000 };
+
+    /** Length of the messages of the keystream cache benchmarks. */
+    private static final int SHORT_MESSAGE = 20;
+
+    /** Number of lanes of the batch benchmarks. */
+    private static final int BATCH_LANES = 64;
+
+    /** Duration of the warmup of each benchmark. */
+    private static final long WARMUP_NANOS = 1_000_000_000L;
+
+    /** Number of measured iterations of each benchmark. */
+    private static final int ITERATIONS = 5;
+
+    /** Duration of each measured iteration. */
+    private static final long ITERATION_NANOS = 400_000_000L;
+
+    /** Names of benchmarks to run must contain this string. */
+    private final String _filter;
+
+    /** Accumulates benchmark results so that they are not optimized
+     *  away. */
+    private long _sink;
+}
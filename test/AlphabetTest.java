@@ -0,0 +1,95 @@
+package enigma;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Tests of the direct-indexed lookups of Alphabet.
+ *  @author Philipp Kurz
+ */
+public class AlphabetTest {
+
+    /** Every character of an alphabet maps to its index and back, and all
+     *  other characters, including those beyond ASCII, are not in it. */
+    @Test
+    public void lookups() {
+        String chars = "QWERTZUIOP0123456789!&+_~";
+        Alphabet alpha = new Alphabet(chars);
+        assertEquals(chars.length(), alpha.size());
+        for (int i = 0; i < chars.length(); i += 1) {
+            assertTrue(alpha.contains(chars.charAt(i)));
+            assertEquals(i, alpha.toInt(chars.charAt(i)));
+            assertEquals(chars.charAt(i), alpha.toChar(i));
+        }
+        for (char c = 0; c < 1000; c += 1) {
+            assertEquals(chars.indexOf(c) >= 0, alpha.contains(c));
+        }
+        assertFalse(alpha.isBytes());
+    }
+
+    /** The bulk conversions agree with the single ones. */
+    @Test
+    public void bulk() {
+        Alphabet alpha = new Alphabet();
+        int[] indices = new int[30];
+        alpha.toInts("HELLOWORLD", indices);
+        for (int i = 0; i < 10; i += 1) {
+            assertEquals(alpha.toInt("HELLOWORLD".charAt(i)), indices[i]);
+        }
+        assertEquals(0, indices[10]);
+        char[] chars = new char[12];
+        alpha.toChars(indices, 10, chars);
+        assertEquals("HELLOWORLD", new String(chars, 0, 10));
+        assertEquals(0, chars[10]);
+    }
+
+    /** The alphabet of all bytes holds every byte as its own index and
+     *  decodes hexadecimal tokens. */
+    @Test
+    public void bytes() {
+        Alphabet alpha = Alphabet.bytes();
+        assertTrue(alpha.isBytes());
+        assertEquals(256, alpha.size());
+        for (char c = 0; c < 256; c += 1) {
+            assertTrue(alpha.contains(c));
+            assertEquals(c, alpha.toInt(c));
+            assertEquals(c, alpha.toChar(c));
+        }
+        assertFalse(alpha.contains((char) 256));
+        assertEquals("\u0000\u00ff\u007fA", alpha.decode("00fF7F41"));
+        assertEquals("ABC", new Alphabet().decode("ABC"));
+    }
+
+    /** Check that ACTION throws an EnigmaException, reporting WHAT
+     *  otherwise. */
+    static void assertFails(String what, Runnable action) {
+        try {
+            action.run();
+        } catch (EnigmaException excp) {
+            return;
+        }
+        fail(what + " did not fail");
+    }
+
+    /** Characters outside the alphabet are errors, not garbage. */
+    @Test
+    public void errors() {
+        Alphabet alpha = new Alphabet("ABC");
+        assertFails("toInt('D')", () -> alpha.toInt('D'));
+        assertFails("toInt of a non-ASCII character",
+                    () -> alpha.toInt('\u0141'));
+        assertFails("toChar(3)", () -> alpha.toChar(3));
+        assertFails("toChar(-1)", () -> alpha.toChar(-1));
+    }
+
+    /** Invalid alphabets and hexadecimal tokens are rejected. */
+    @Test
+    public void invalid() {
+        for (String chars : new String[] { "A", "ABCA", "AB C", "AB*" }) {
+            assertFails("Alphabet " + chars, () -> new Alphabet(chars));
+        }
+        for (String token : new String[] { "0", "0G", "1x" }) {
+            assertFails("decode " + token,
+                        () -> Alphabet.bytes().decode(token));
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package enigma;
+
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Tests of BatchMachine, each lane checked against a Machine with the
+ *  same key.
+ *  @author Philipp Kurz
+ */
+public class BatchMachineTest {
+
+    /** Return a batch with a lane for each of MACHINES, set as they are
+     *  now. */
+    private static BatchMachine batch(Machine[] machines) {
+        MachineSpec[] specs = new MachineSpec[machines.length];
+        MachineState[] states = new MachineState[machines.length];
+        for (int k = 0; k < machines.length; k += 1) {
+            specs[k] = machines[k].spec();
+            states[k] = machines[k].snapshot();
+        }
+        return new BatchMachine(specs, states);
+    }
+
+    /** Lanes with different rotors, ring settings, plugboards and
+     *  settings convert as their machines do, through the notches of all
+     *  moving rotors, and end at the same settings, also without any
+     *  moving rotor. */
+    @Test
+    public void convertLanes() {
+        Alphabet[] alphabets = {
+            new Alphabet("ABCDEFGHIJKLMNOPQRSTUVWXYZ"), Alphabet.bytes()
+        };
+        for (Alphabet alpha : alphabets) {
+            for (int pawls = 0; pawls <= 4; pawls += 1) {
+                Machine[] machines = new Machine[13];
+                for (int k = 0; k < machines.length; k += 1) {
+                    machines[k] = MachineTest.randomMachine(alpha, 5, pawls,
+                                                            100 * pawls + k);
+                }
+                BatchMachine batch = batch(machines);
+                assertEquals(machines.length, batch.lanes());
+                Random random = new Random(pawls);
+                int[][] msgs = new int[machines.length][];
+                for (int k = 0; k < machines.length; k += 1) {
+                    msgs[k] = MachineTest.randomIndices(alpha, 3000,
+                                                        random.nextLong());
+                }
+                int[][] expected = new int[machines.length][];
+                for (int k = 0; k < machines.length; k += 1) {
+                    expected[k] = msgs[k].clone();
+                    machines[k].convert(expected[k], 0, 3000);
+                }
+                batch.convert(msgs, 0, 3000);
+                MachineState state = machines[0].spec().newState();
+                for (int k = 0; k < machines.length; k += 1) {
+                    String what = "alphabet size " + alpha.size()
+                        + ", pawls=" + pawls + ", lane " + k;
+                    assertArrayEquals(what, expected[k], msgs[k]);
+                    batch.getState(k, state);
+                    assertArrayEquals(what,
+                                      machines[k].snapshot().settings(),
+                                      state.settings());
+                }
+            }
+        }
+    }
+
+    /** Converting one message with every lane agrees with the machines,
+     *  also after a lane has been set to another state. */
+    @Test
+    public void convertOneMessage() {
+        Alphabet alpha = new Alphabet("ABCDEFGHIJKLMNOPQRSTUVWXYZ");
+        Machine[] machines = new Machine[5];
+        for (int k = 0; k < machines.length; k += 1) {
+            machines[k] = MachineTest.randomMachine(alpha, 6, 4, k);
+        }
+        BatchMachine batch = batch(machines);
+        machines[2].convert(MachineTest.randomIndices(alpha, 77, 1), 0, 77);
+        batch.setState(2, machines[2].snapshot());
+        int[] msg = MachineTest.randomIndices(alpha, 500, 2);
+        int[][] out = new int[machines.length][msg.length];
+        batch.convert(msg, 0, msg.length, out);
+        for (int k = 0; k < machines.length; k += 1) {
+            int[] expected = msg.clone();
+            machines[k].convert(expected, 0, expected.length);
+            assertArrayEquals("lane " + k, expected, out[k]);
+        }
+    }
+
+    /** Machines of different shapes cannot share a batch. */
+    @Test(expected = EnigmaException.class)
+    public void differentShapes() {
+        Alphabet alpha = new Alphabet("ABCDEFGHIJKLMNOPQRSTUVWXYZ");
+        batch(new Machine[] {
+                MachineTest.randomMachine(alpha, 5, 3, 1),
+                MachineTest.randomMachine(alpha, 5, 2, 2)
+            });
+    }
+}
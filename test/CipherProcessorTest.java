@@ -0,0 +1,199 @@
+package enigma;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Tests of CipherProcessor, driven directly through its Flow methods
+ *  and through a SubmissionPublisher.
+ *  @author Philipp Kurz
+ */
+public class CipherProcessorTest {
+
+    /** A subscriber that collects the chunks it receives and requests
+     *  whatever its owner asks for. */
+    private static class Collector<B> implements Flow.Subscriber<B> {
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            _subscription = subscription;
+        }
+
+        @Override
+        public void onNext(B chunk) {
+            _chunks.add(chunk);
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            _done.completeExceptionally(error);
+        }
+
+        @Override
+        public void onComplete() {
+            _done.complete(null);
+        }
+
+        /** Subscription received. */
+        private Flow.Subscription _subscription;
+
+        /** Chunks received. */
+        private final List<B> _chunks = new ArrayList<>();
+
+        /** Completed when the stream ends. */
+        private final CompletableFuture<Void> _done =
+            new CompletableFuture<>();
+    }
+
+    /** An upstream subscription that records the requests made on it. */
+    private static class Upstream implements Flow.Subscription {
+
+        @Override
+        public void request(long n) {
+            _requested.add(n);
+        }
+
+        @Override
+        public void cancel() {
+            _cancelled = true;
+        }
+
+        /** Requests made. */
+        private final List<Long> _requested = new ArrayList<>();
+
+        /** True iff cancelled. */
+        private boolean _cancelled;
+    }
+
+    /** The alphabet of the tests with characters. */
+    private static final Alphabet LETTERS =
+        new Alphabet("ABCDEFGHIJKLMNOPQRSTUVWXYZ");
+
+    /** Chunks of random lengths are converted as one message: each starts
+     *  at the settings where the previous one ended.  The chunks, both
+     *  writable and read-only, are not modified. */
+    @Test
+    public void charChunks() {
+        Machine serial = MachineTest.randomMachine(LETTERS, 5, 3, 1);
+        CipherProcessor<CharBuffer> processor =
+            CipherProcessor.chars(MachineTest.randomMachine(LETTERS, 5, 3,
+                                                            1));
+        Collector<CharBuffer> collector = new Collector<>();
+        processor.subscribe(collector);
+        processor.onSubscribe(new Upstream());
+        collector._subscription.request(Long.MAX_VALUE);
+        Random random = new Random(2);
+        String msg = MachineTest.randomText(LETTERS, 5000, random);
+        List<CharBuffer> chunks = new ArrayList<>();
+        for (int i = 0; i < msg.length();) {
+            int len = Math.min(msg.length() - i, random.nextInt(100));
+            CharBuffer chunk = CharBuffer.wrap(msg.substring(i, i + len)
+                                               .toCharArray());
+            chunks.add(chunks.size() % 3 == 0 ? chunk.asReadOnlyBuffer()
+                       : chunk);
+            processor.onNext(chunks.get(chunks.size() - 1));
+            i += len;
+        }
+        processor.onComplete();
+        assertTrue(collector._done.isDone());
+        StringBuilder converted = new StringBuilder();
+        StringBuilder unchanged = new StringBuilder();
+        for (int k = 0; k < chunks.size(); k += 1) {
+            assertNotSame(chunks.get(k), collector._chunks.get(k));
+            converted.append(collector._chunks.get(k));
+            unchanged.append(chunks.get(k));
+        }
+        assertEquals(serial.convert(msg), converted.toString());
+        assertEquals(msg, unchanged.toString());
+    }
+
+    /** Processors created to convert in place pass writable chunks on
+     *  themselves, converted, and still carry the settings over. */
+    @Test
+    public void byteChunksInPlace() {
+        Alphabet alpha = Alphabet.bytes();
+        Machine serial = MachineTest.randomMachine(alpha, 5, 3, 3);
+        CipherProcessor<ByteBuffer> processor =
+            CipherProcessor.bytes(MachineTest.randomMachine(alpha, 5, 3, 3),
+                                  true);
+        Collector<ByteBuffer> collector = new Collector<>();
+        processor.subscribe(collector);
+        processor.onSubscribe(new Upstream());
+        collector._subscription.request(Long.MAX_VALUE);
+        byte[] data = new byte[3000];
+        new Random(4).nextBytes(data);
+        byte[] expected = data.clone();
+        serial.convert(ByteBuffer.wrap(expected));
+        for (int i = 0; i < data.length; i += 1000) {
+            ByteBuffer chunk = ByteBuffer.wrap(data, i, 1000).slice();
+            processor.onNext(chunk);
+        }
+        assertArrayEquals(expected, data);
+        assertEquals(3, collector._chunks.size());
+    }
+
+    /** Requests of the subscriber reach the publisher one for one, those
+     *  made before the processor is subscribed once it is, and invalid
+     *  requests cancel the upstream subscription with an error. */
+    @Test
+    public void demand() {
+        CipherProcessor<CharBuffer> processor =
+            CipherProcessor.chars(MachineTest.randomMachine(LETTERS, 5, 3,
+                                                            5));
+        Collector<CharBuffer> collector = new Collector<>();
+        processor.subscribe(collector);
+        collector._subscription.request(3);
+        collector._subscription.request(4);
+        Upstream upstream = new Upstream();
+        processor.onSubscribe(upstream);
+        assertEquals(List.of(7L), upstream._requested);
+        collector._subscription.request(2);
+        assertEquals(List.of(7L, 2L), upstream._requested);
+        assertFalse(upstream._cancelled);
+        collector._subscription.request(0);
+        assertTrue(upstream._cancelled);
+        assertTrue(collector._done.isCompletedExceptionally());
+    }
+
+    /** A SubmissionPublisher hands the same chunks to the processor and to
+     *  another subscriber, which sees them unconverted. */
+    @Test(timeout = 10000)
+    public void sharedChunks() throws Exception {
+        Machine serial = MachineTest.randomMachine(LETTERS, 5, 3, 6);
+        CipherProcessor<CharBuffer> processor =
+            CipherProcessor.chars(MachineTest.randomMachine(LETTERS, 5, 3,
+                                                            6));
+        Collector<CharBuffer> collector = new Collector<>();
+        processor.subscribe(collector);
+        StringBuilder seen = new StringBuilder();
+        String msg = MachineTest.randomText(LETTERS, 2000, new Random(7));
+        SubmissionPublisher<CharBuffer> publisher =
+            new SubmissionPublisher<>();
+        publisher.subscribe(processor);
+        collector._subscription.request(Long.MAX_VALUE);
+        CompletableFuture<Void> other =
+            publisher.consume(chunk -> seen.append(chunk));
+        for (int i = 0; i < msg.length(); i += 100) {
+            publisher.submit(CharBuffer.wrap(msg.substring(i, i + 100)
+                                             .toCharArray()));
+        }
+        publisher.close();
+        other.get(5, TimeUnit.SECONDS);
+        collector._done.get(5, TimeUnit.SECONDS);
+        assertEquals(msg, seen.toString());
+        StringBuilder converted = new StringBuilder();
+        for (CharBuffer chunk : collector._chunks) {
+            converted.append(chunk);
+        }
+        assertEquals(serial.convert(msg), converted.toString());
+    }
+}
@@ -0,0 +1,139 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Tests of compiled configuration files: they load as the machine they
+ *  were compiled from, and damaged or stale files are refused.
+ *  @author Philipp Kurz
+ */
+public class CompiledConfigTest {
+
+    /** Return the machine parsed from the text configuration in SOURCE. */
+    private static Machine parse(Path source) throws IOException {
+        String text = new String(Files.readAllBytes(source),
+                                 StandardCharsets.ISO_8859_1);
+        return new ConfigParser(source.toString(), text).parse();
+    }
+
+    /** Check that MACH and LOADED have the same shape and rotors. */
+    private static void assertSameConfig(Machine mach, Machine loaded) {
+        Alphabet alpha = mach.alphabet();
+        assertEquals(alpha.size(), loaded.alphabet().size());
+        for (int c = 0; c < alpha.size(); c += 1) {
+            assertEquals(alpha.toChar(c), loaded.alphabet().toChar(c));
+        }
+        assertEquals(mach.numRotors(), loaded.numRotors());
+        assertEquals(mach.numPawls(), loaded.numPawls());
+        assertEquals(mach.allRotors().keySet(),
+                     loaded.allRotors().keySet());
+        for (Rotor rotor : mach.allRotors().values()) {
+            Rotor other = loaded.allRotors().get(rotor.name());
+            assertEquals(rotor.reflecting(), other.reflecting());
+            assertEquals(rotor.rotates(), other.rotates());
+            for (int c = 0; c < alpha.size(); c += 1) {
+                assertEquals(rotor.permutation().permute(c),
+                             other.permutation().permute(c));
+            }
+            if (rotor.rotates()) {
+                assertTrue(Arrays.equals(rotor.notches(), other.notches()));
+            }
+        }
+    }
+
+    /** A compiled file loads as the machine it was written from, which
+     *  converts as that machine does. */
+    @Test
+    public void roundTrip() throws IOException {
+        Path source = MainTest.tempFile(MainTest.DEFAULT_CONFIG);
+        Path target = Files.createTempFile("enigma", ".bin");
+        try {
+            Machine mach = parse(source);
+            CompiledConfig.write(mach, source.toString(), target.toString());
+            Machine loaded = CompiledConfig.load(target.toString(),
+                                                 source.toString());
+            assertNotNull(loaded);
+            assertSameConfig(mach, loaded);
+            String msg = MachineTest.randomText(mach.alphabet(), 2000,
+                                                new Random(1));
+            for (Machine m : new Machine[] { mach, loaded }) {
+                m.insertRotors(new String[] { "B", "Beta", "III", "IV",
+                                              "I" });
+                m.setRotors("AXLE");
+                m.setRingSetting("QRST");
+            }
+            assertEquals(mach.convert(msg), loaded.convert(msg));
+        } finally {
+            Files.delete(source);
+            Files.delete(target);
+        }
+    }
+
+    /** Files with any byte changed, truncated, or missing load as null. */
+    @Test
+    public void damaged() throws IOException {
+        Path source = MainTest.tempFile(MainTest.DEFAULT_CONFIG);
+        Path target = Files.createTempFile("enigma", ".bin");
+        try {
+            CompiledConfig.write(parse(source), source.toString(),
+                                 target.toString());
+            byte[] bytes = Files.readAllBytes(target);
+            for (int i = 0; i < bytes.length; i += 7) {
+                byte[] changed = bytes.clone();
+                changed[i] ^= 1 << (i % 8);
+                Files.write(target, changed);
+                assertNull("byte " + i + " changed",
+                           CompiledConfig.load(target.toString(),
+                                               source.toString()));
+            }
+            for (int len : new int[] { 0, 10, bytes.length - 1 }) {
+                Files.write(target, Arrays.copyOf(bytes, len));
+                assertNull(len + " bytes",
+                           CompiledConfig.load(target.toString(),
+                                               source.toString()));
+            }
+            Files.write(target, bytes);
+            assertNotNull(CompiledConfig.load(target.toString(),
+                                              source.toString()));
+            Files.delete(target);
+            assertNull(CompiledConfig.load(target.toString(),
+                                           source.toString()));
+        } finally {
+            Files.deleteIfExists(target);
+            Files.delete(source);
+        }
+    }
+
+    /** A compiled file is refused once its text configuration changes,
+     *  even to a text of the same length. */
+    @Test
+    public void stale() throws IOException {
+        Path source = MainTest.tempFile(MainTest.DEFAULT_CONFIG);
+        Path target = Files.createTempFile("enigma", ".bin");
+        try {
+            CompiledConfig.write(parse(source), source.toString(),
+                                 target.toString());
+            Files.write(source, (MainTest.DEFAULT_CONFIG + "\n").getBytes());
+            assertNull(CompiledConfig.load(target.toString(),
+                                           source.toString()));
+            Files.write(source, MainTest.DEFAULT_CONFIG.replace("(IV)",
+                                                                "(VI)")
+                        .getBytes());
+            assertNull(CompiledConfig.load(target.toString(),
+                                           source.toString()));
+            Files.write(source, MainTest.DEFAULT_CONFIG.getBytes());
+            assertNotNull(CompiledConfig.load(target.toString(),
+                                              source.toString()));
+        } finally {
+            Files.delete(source);
+            Files.delete(target);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package enigma;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Tests of ConfigParser, in particular of the positions it reports in
+ *  its error messages.
+ *  @author Philipp Kurz
+ */
+public class ConfigParserTest {
+
+    /** The beginning of the configurations of the tests. */
+    private static final String HEADER = "ABCD\n3 1\n";
+
+    /** Check that parsing TEXT as the file t.conf fails with MESSAGE. */
+    private static void assertError(String text, String message) {
+        try {
+            new ConfigParser("t.conf", text).parse();
+        } catch (EnigmaException excp) {
+            assertEquals(message, excp.getMessage());
+            return;
+        }
+        fail("parsing did not fail: " + text);
+    }
+
+    /** Valid configurations, with any whitespace between tokens. */
+    @Test
+    public void valid() {
+        Machine mach = new ConfigParser("t.conf", HEADER
+                                        + "B R (AB) (CD)\n"
+                                        + "F\tN (ABC)\r\n"
+                                        + "  M   MAC   (ACBD)").parse();
+        assertEquals(4, mach.alphabet().size());
+        assertEquals(3, mach.numRotors());
+        assertEquals(1, mach.numPawls());
+        assertTrue(mach.allRotors().get("B").reflecting());
+        assertFalse(mach.allRotors().get("F").rotates());
+        Rotor moving = mach.allRotors().get("M");
+        assertTrue(moving.rotates());
+        assertEquals(2, moving.permutation().permute(0));
+        assertEquals(1, mach.allRotors().get("F").permutation().permute(0));
+        assertEquals(3, mach.allRotors().get("F").permutation().permute(3));
+
+        mach = new ConfigParser("default.conf", MainTest.DEFAULT_CONFIG)
+            .parse();
+        assertEquals(12, mach.allRotors().size());
+        assertEquals(5, mach.numRotors());
+        assertEquals(3, mach.numPawls());
+    }
+
+    /** Errors in the header. */
+    @Test
+    public void header() {
+        assertError("", "t.conf:1:1: configuration file truncated, "
+                    + "expected alphabet");
+        assertError("ABCD\n3\n", "t.conf:3:1: configuration file "
+                    + "truncated, expected number of pawls");
+        assertError("ABCD\n3 x\n", "t.conf:2:3: expected number of pawls");
+        assertError("ABCD\n  -3 1\n", "t.conf:2:3: expected number of "
+                    + "rotor slots");
+        assertError("ABCD\n99999999999 1\n", "t.conf:2:1: expected number "
+                    + "of rotor slots");
+    }
+
+    /** Errors in the descriptions of rotors. */
+    @Test
+    public void rotors() {
+        assertError(HEADER + "B R (AB) (CD)\nF N (AB)\nF N (CD)\n",
+                    "t.conf:5:1: Duplicate rotor F in conf file detected.");
+        assertError(HEADER + "(B R (AB) (CD)\n",
+                    "t.conf:3:1: Characters ( or ) not allowed in rotor "
+                    + "name.");
+        assertError(HEADER + "B X (AB) (CD)\n",
+                    "t.conf:3:3: Wrong rotor type. Must be M, N or R.");
+        assertError(HEADER + "B R (AB) (CD)\nM M (AB)\n",
+                    "t.conf:4:3: No notch specified for moving rotor.");
+        assertError(HEADER + "M MAE (AB)\n",
+                    "t.conf:3:5: Notch not found in alphabet.");
+        assertError(HEADER + "F NA (AB)\n",
+                    "t.conf:3:4: Notch for fixed rotor detected.");
+        assertError(HEADER + "B RA (AB) (CD)\n",
+                    "t.conf:3:4: Notch for reflector detected.");
+        assertError(HEADER + "B R (AB)\n",
+                    "t.conf:3:3: Reflector is not a derangement.");
+        assertError(HEADER + "B R (AB) (CD)\nF\n",
+                    "t.conf:5:1: configuration file truncated, expected "
+                    + "type of rotor F");
+    }
+
+    /** Errors in the cycles of permutations. */
+    @Test
+    public void cycles() {
+        assertError(HEADER + "B R (AB)\n    (CE)\n",
+                    "t.conf:4:7: Permutation cycles invalid: 'E' not in "
+                    + "alphabet.");
+        assertError(HEADER + "F N (ABCA)\n",
+                    "t.conf:3:9: Duplicate character 'A' in permutation "
+                    + "cycles.");
+        assertError(HEADER + "F N (AB) (C\nM MA (CD)\n",
+                    "t.conf:3:10: Permutation cycles invalid: "
+                    + "unterminated cycle.");
+        assertError(HEADER + "F N (A(B))\n",
+                    "t.conf:3:7: Permutation cycles invalid: nested '('.");
+        assertError(HEADER + "F N (AB))\n",
+                    "t.conf:3:9: Permutation cycles invalid: unmatched "
+                    + "')'.");
+        assertError(HEADER + "F N (AB) () \n",
+                    "t.conf:3:10: Permutation cycles invalid: empty "
+                    + "cycle.");
+        assertError(HEADER + "F N (AB)C|\n",
+                    "t.conf:3:9: Permutation cycles invalid: 'C' outside "
+                    + "of a cycle.");
+    }
+}
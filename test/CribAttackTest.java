@@ -0,0 +1,111 @@
+package enigma;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Tests of CribAttack on the small machine of KeySearchTest, with a
+ *  plugboard.
+ *  @author Philipp Kurz
+ */
+public class CribAttackTest {
+
+    /** The plugboard of the tests. */
+    private static final String PLUGBOARD = "(AQ) (BZ) (TX) (EM)";
+
+    /** Return the indices of the characters of TEXT over ALPHA. */
+    private static int[] indices(Alphabet alpha, String text) {
+        int[] res = new int[text.length()];
+        alpha.toInts(text, res);
+        return res;
+    }
+
+    /** Return the surviving stops of an attack on CIPHERTEXT with CRIB at
+     *  OFFSET, run with THREADS threads, checking that every stop was
+     *  tested. */
+    private static List<CribAttack.Stop> attack(Machine mach,
+                                                String ciphertext,
+                                                String crib, int offset,
+                                                int threads) {
+        Alphabet alpha = mach.alphabet();
+        CribAttack attack =
+            new CribAttack(mach, indices(alpha, ciphertext),
+                           indices(alpha, crib), offset);
+        assertFalse(attack.loops().isEmpty());
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            List<CribAttack.Stop> res = attack.run(pool);
+            assertEquals(2 * 8 * 7 * 26 * 26, attack.stops());
+            return res;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** The key of a message is among the few surviving stops, with
+     *  plugboard pairs that are all pairs of the actual plugboard, and the
+     *  stops do not depend on the number of threads. */
+    @Test(timeout = 60000)
+    public void recoverKey() {
+        String[] rotors = { "B", "IV", "II" };
+        Machine mach = KeySearchTest.smallMachine(rotors, "RJ", "");
+        Permutation plugboard = new Permutation(PLUGBOARD, mach.alphabet());
+        mach.setPlugboard(plugboard);
+        String plain = KeySearchTest.plaintext(300);
+        String ciphertext = mach.convert(plain);
+        int offset = 17;
+        String crib = plain.substring(offset, offset + 30);
+
+        List<CribAttack.Stop> stops =
+            attack(mach, ciphertext, crib, offset, 1);
+        assertTrue(stops.size() <= 5);
+        CribAttack.Stop found = null;
+        for (CribAttack.Stop stop : stops) {
+            if (String.join(" ", stop.rotors()).equals("B IV II")
+                && stop.setting().equals("RJ")) {
+                found = stop;
+            }
+        }
+        assertNotNull("key not found among " + stops, found);
+        String cycles = found.cycles();
+        assertFalse(cycles.isEmpty());
+        for (int i = 0; i < cycles.length(); i += 4) {
+            assertEquals(cycles, cycles.charAt(i + 2),
+                         plugboard.permute(cycles.charAt(i + 1)));
+        }
+
+        List<CribAttack.Stop> parallel =
+            attack(mach, ciphertext, crib, offset, 4);
+        assertEquals(stops.toString(), parallel.toString());
+    }
+
+    /** Cribs that cannot be right or do not fit are rejected. */
+    @Test
+    public void invalidCribs() {
+        Machine mach = KeySearchTest.smallMachine(new String[] { "B", "I",
+                                                                 "II" },
+                                                  "AA", "");
+        Alphabet alpha = mach.alphabet();
+        int[] ciphertext = indices(alpha, "QWERTZUIOP");
+        AlphabetTest.assertFails("self-encryption", () ->
+            new CribAttack(mach, ciphertext, indices(alpha, "AEB"), 1));
+        AlphabetTest.assertFails("too long", () ->
+            new CribAttack(mach, ciphertext, indices(alpha, "ABC"), 8));
+        AlphabetTest.assertFails("empty", () ->
+            new CribAttack(mach, ciphertext, new int[0], 0));
+        AlphabetTest.assertFails("negative offset", () ->
+            new CribAttack(mach, ciphertext, indices(alpha, "ABC"), -1));
+    }
+
+    /** An attack with rotors that fit no rotor order is rejected. */
+    @Test(timeout = 10000)
+    public void noRotorOrder() {
+        Machine mach = KeySearchTest.noOrderMachine();
+        Alphabet alpha = mach.alphabet();
+        AlphabetTest.assertFails("no rotor order", () ->
+            new CribAttack(mach, indices(alpha, "QWERTZUIOP"),
+                           indices(alpha, "HELLO"), 0));
+    }
+}
@@ -0,0 +1,73 @@
+package enigma;
+
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+
+/** Tests of the engines of EngineGenerator, each checked against the
+ *  loops of MachineSpec on a machine with the same key.
+ *  @author Philipp Kurz
+ */
+public class EngineGeneratorTest {
+
+    /** Check that a machine over ALPHA with NUMROTORS slots and PAWLS
+     *  pawls, chosen at random from SEED, converts with a generated engine
+     *  exactly as without, one character at a time and in bulk. */
+    private static void check(Alphabet alpha, int numRotors, int pawls,
+                              long seed) {
+        Machine interpreted =
+            MachineTest.randomMachine(alpha, numRotors, pawls, seed);
+        Machine generated =
+            MachineTest.randomMachine(alpha, numRotors, pawls, seed);
+        assumeTrue(generated.setGeneratedEngine(true));
+        assertTrue(generated.spec().generated());
+        assertFalse(interpreted.spec().generated());
+        Machine single = generated.copy();
+        Machine reference = interpreted.copy();
+
+        String shape = numRotors + "x" + pawls;
+        String msg = MachineTest.randomText(alpha, 20000, new Random(seed));
+        assertEquals(shape, interpreted.convert(msg),
+                     generated.convert(msg));
+        for (int i = 0; i < 2000; i += 1) {
+            int c = alpha.toInt(msg.charAt(i));
+            assertEquals(shape + " at " + i, reference.convert(c),
+                         single.convert(c));
+        }
+    }
+
+    /** Engines of many shapes, including those without moving rotors
+     *  and with every rotor but the reflector moving. */
+    @Test(timeout = 120000)
+    public void shapes() {
+        Alphabet letters = new Alphabet();
+        int[][] shapes = {
+            { 2, 0 }, { 2, 1 }, { 3, 2 }, { 5, 3 }, { 6, 4 }, { 8, 7 },
+            { 10, EngineGenerator.MAX_PAWLS },
+        };
+        for (int k = 0; k < shapes.length; k += 1) {
+            check(letters, shapes[k][0], shapes[k][1], k);
+            check(Alphabet.bytes(), shapes[k][0], shapes[k][1], k);
+        }
+    }
+
+    /** Without an engine for their shape, machines convert with the loops
+     *  of MachineSpec. */
+    @Test
+    public void unavailable() {
+        int pawls = EngineGenerator.MAX_PAWLS + 1;
+        assertFalse(EngineGenerator.available(pawls + 1, pawls));
+        Machine mach = MachineTest.randomMachine(new Alphabet(), pawls + 1,
+                                                 pawls, 1);
+        Machine other = MachineTest.randomMachine(new Alphabet(),
+                                                  pawls + 1, pawls, 1);
+        assertFalse(mach.setGeneratedEngine(true));
+        assertFalse(mach.spec().generated());
+        String msg = MachineTest.randomText(new Alphabet(), 1000,
+                                            new Random(2));
+        assertEquals(other.convert(msg), mach.convert(msg));
+        assertFalse(EngineGenerator.available(3, 3));
+    }
+}
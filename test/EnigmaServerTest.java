@@ -0,0 +1,70 @@
+package enigma;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Tests of the line protocol of EnigmaServer over a loopback
+ *  connection.
+ *  @author Philipp Kurz
+ */
+public class EnigmaServerTest {
+
+    /** Return a machine over the letters with rotors B and R1 to R4. */
+    private static Machine machine() {
+        return MachineTest.randomMachine(
+            new Alphabet("ABCDEFGHIJKLMNOPQRSTUVWXYZ"), 5, 3, 1);
+    }
+
+    /** Send REQUEST on the connection with OUT and return the lines of the
+     *  response read from IN, up to the empty line ending it. */
+    private static String send(OutputStream out, BufferedReader in,
+                               String request) throws IOException {
+        out.write(request.getBytes(StandardCharsets.ISO_8859_1));
+        out.flush();
+        StringBuilder res = new StringBuilder();
+        for (String line = in.readLine(); !line.isEmpty();
+             line = in.readLine()) {
+            res.append(line).append('\n');
+        }
+        return res.toString();
+    }
+
+    /** A setting line with too few rotors is answered with an error from
+     *  that line alone, without consuming the message lines as rotor
+     *  names or waiting for more, and the connection goes on serving. */
+    @Test(timeout = 10000)
+    public void settingLineOnOneLine() throws IOException {
+        EnigmaServer server = new EnigmaServer(machine(), 0);
+        Thread thread = new Thread(server::run);
+        thread.start();
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(),
+                                        server.port())) {
+            OutputStream out = socket.getOutputStream();
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                socket.getInputStream(), StandardCharsets.ISO_8859_1));
+            String reply = send(out, in, "* B R1 R2\nHELLO WORLD\n\n");
+            assertTrue(reply, reply.startsWith("Error: "));
+            assertEquals(reply, 1, reply.split("\n").length);
+
+            Machine mach = machine();
+            SettingLine.parse("* B R1 R2 R3 R4 QRST", 5).apply(mach);
+            String expected = mach.convert("HELLOWORLD");
+            reply = send(out, in, "* B R1 R2 R3 R4 QRST\nHELLO WORLD\n\n");
+            assertEquals(expected, reply.replaceAll("\\s", ""));
+
+            reply = send(out, in, "STATS\n");
+            assertTrue(reply, reply.contains("requests=2\n"));
+            assertTrue(reply, reply.contains("errors=1\n"));
+        } finally {
+            server.close();
+        }
+    }
+}
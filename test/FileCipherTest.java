@@ -0,0 +1,93 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Tests of FileCipher, checked against converting the contents of the
+ *  file in one buffer with the same key.
+ *  @author Philipp Kurz
+ */
+public class FileCipherTest {
+
+    /** Check that converting a file of SIZE random bytes in regions of
+     *  REGIONSIZE bytes with a machine over ALPHA, after converting a few
+     *  characters first, agrees with converting them in one buffer, and
+     *  leaves the machine at the same settings. */
+    private void checkFile(Alphabet alpha, int size, int regionSize)
+        throws IOException {
+        Machine mach = MachineTest.randomMachine(alpha, 5, 3, size);
+        Machine serial = MachineTest.randomMachine(alpha, 5, 3, size);
+        for (int i = 0; i < 7; i += 1) {
+            assertEquals(serial.convert(i), mach.convert(i));
+        }
+        byte[] data = new byte[size];
+        new Random(regionSize).nextBytes(data);
+        byte[] expected = data.clone();
+        serial.convert(ByteBuffer.wrap(expected));
+        Path file = Files.createTempFile("enigma", ".bin");
+        try {
+            Files.write(file, data);
+            new FileCipher(mach, regionSize)
+                .convert(file.toString(), ForkJoinPool.commonPool());
+            String what = "alphabet size " + alpha.size() + ", " + size
+                + " bytes in regions of " + regionSize;
+            assertArrayEquals(what, expected, Files.readAllBytes(file));
+            for (int i = 0; i < 20; i += 1) {
+                assertEquals(what, serial.convert(i), mach.convert(i));
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /** Files of one region, of several regions and empty files, over all
+     *  bytes and over letters, where the other bytes pass through. */
+    @Test
+    public void convert() throws IOException {
+        Alphabet[] alphabets = {
+            Alphabet.bytes(), new Alphabet("ABCDEFGHIJKLMNOPQRSTUVWXYZ")
+        };
+        for (Alphabet alpha : alphabets) {
+            checkFile(alpha, 0, 1000);
+            checkFile(alpha, 999, 1000);
+            checkFile(alpha, 1000, 1000);
+            checkFile(alpha, 1001, 1000);
+            checkFile(alpha, 20500, 1000);
+            checkFile(alpha, 100000, 4096);
+        }
+    }
+
+    /** A file of letters and line ends, whose regions hold different
+     *  numbers of characters. */
+    @Test
+    public void convertLetters() throws IOException {
+        Alphabet alpha = new Alphabet("ABCDEFGHIJKLMNOPQRSTUVWXYZ");
+        Machine mach = MachineTest.randomMachine(alpha, 5, 3, 1);
+        Machine serial = MachineTest.randomMachine(alpha, 5, 3, 1);
+        Random random = new Random(2);
+        byte[] data = new byte[50000];
+        for (int i = 0; i < data.length; i += 1) {
+            data[i] = (byte) (random.nextInt(4) == 0 ? '\n'
+                              : 'A' + random.nextInt(alpha.size()));
+        }
+        byte[] expected = data.clone();
+        serial.convert(ByteBuffer.wrap(expected));
+        Path file = Files.createTempFile("enigma", ".txt");
+        try {
+            Files.write(file, data);
+            new FileCipher(mach, 3000)
+                .convert(file.toString(), ForkJoinPool.commonPool());
+            assertArrayEquals(expected, Files.readAllBytes(file));
+            assertEquals(serial.convert(0), mach.convert(0));
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
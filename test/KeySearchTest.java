@@ -0,0 +1,168 @@
+package enigma;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Tests of KeySearch on the rotors of the usual configuration in a
+ *  machine with two moving rotors, whose key space is small enough to be
+ *  searched completely.
+ *  @author Philipp Kurz
+ */
+public class KeySearchTest {
+
+    /** Plaintext from which the n-gram frequencies are taken, and whose
+     *  beginning is the message that is encrypted. */
+    static final String SAMPLE =
+        "WHEN THE MACHINE IS SET UP FOR THE DAY THE OPERATOR CHOOSES THE "
+        + "ROTORS FROM THE BOX AND PLACES THEM IN THEIR SLOTS AND THEN "
+        + "TURNS EACH OF THEM TO THE LETTER GIVEN IN THE KEY LIST FOR THAT "
+        + "DAY AFTER WHICH THE MESSAGE IS TYPED ONE LETTER AT A TIME WHILE "
+        + "A SECOND OPERATOR WRITES DOWN THE LETTERS THAT LIGHT UP ON THE "
+        + "LAMP BOARD THE RECEIVING STATION SETS ITS OWN MACHINE IN THE "
+        + "SAME WAY AND TYPES THE CIPHERTEXT TO RECOVER THE ORIGINAL "
+        + "MESSAGE BECAUSE THE MACHINE IS ITS OWN INVERSE NO SEPARATE "
+        + "PROCEDURE IS NEEDED FOR DECRYPTION AND THE SAME KEY SERVES "
+        + "BOTH ENDS OF THE LINK THE STRENGTH OF THE SYSTEM RESTS ON THE "
+        + "NUMBER OF POSSIBLE KEYS WHICH IS VERY LARGE WHEN THE PLUGBOARD "
+        + "IS USED BUT THE ROTOR SETTINGS ALONE CAN BE SEARCHED BY A "
+        + "PATIENT ENEMY WITH ENOUGH MACHINES WORKING IN PARALLEL ON THE "
+        + "SAME INTERCEPTED TRAFFIC DAY AFTER DAY UNTIL THE KEY IS FOUND";
+
+    /** Return the machine of the usual configuration with only three
+     *  slots, two of them for moving rotors, and rotors ROTORS at SETTING
+     *  with ring setting RINGSETTING. */
+    static Machine smallMachine(String[] rotors, String setting,
+                                String ringSetting) {
+        Machine mach =
+            new ConfigParser("small.conf",
+                             MainTest.DEFAULT_CONFIG.replace("5 3\n",
+                                                             "3 2\n"))
+            .parse();
+        mach.insertRotors(rotors);
+        mach.setRotors(setting);
+        mach.setRingSetting(ringSetting);
+        return mach;
+    }
+
+    /** Return a machine of the usual configuration with only rotors I
+     *  and II among its moving rotors, which are too few for its three
+     *  pawls, so that no rotor order fits its slots. */
+    static Machine noOrderMachine() {
+        StringBuilder config = new StringBuilder();
+        for (String line : MainTest.DEFAULT_CONFIG.split("\n")) {
+            if (!line.matches("(III|IV|V|VI|VII|VIII) .*")) {
+                config.append(line).append('\n');
+            }
+        }
+        return new ConfigParser("no-order.conf", config.toString()).parse();
+    }
+
+    /** Return the letters of the first LEN characters of SAMPLE. */
+    static String plaintext(int len) {
+        return SAMPLE.substring(0, len).replace(" ", "");
+    }
+
+    /** Return the indices of the characters of TEXT over ALPHA. */
+    private static int[] indices(Alphabet alpha, String text) {
+        int[] res = new int[text.length()];
+        alpha.toInts(text, res);
+        return res;
+    }
+
+    /** Return the decryption of CIPHERTEXT with the key of CANDIDATE. */
+    private static String decrypt(KeySearch.Candidate candidate,
+                                  String ciphertext) {
+        return smallMachine(candidate.rotors(), candidate.setting(),
+                            candidate.ringSetting()).convert(ciphertext);
+    }
+
+    /** Return the best keys of a search for the key of CIPHERTEXT with
+     *  THREADS threads, searching ring settings iff RINGS. */
+    private static List<KeySearch.Candidate> search(String ciphertext,
+                                                    int threads,
+                                                    boolean rings) {
+        Machine mach = smallMachine(new String[] { "B", "I", "II" }, "AA",
+                                    "");
+        TextScorer scorer = new NgramScorer(mach.alphabet(), SAMPLE, 3);
+        KeySearch search =
+            new KeySearch(mach, indices(mach.alphabet(), ciphertext), null,
+                          scorer, 5);
+        search.setRingStage(rings);
+        assertEquals(2 * 8 * 7, search.numOrders());
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            List<KeySearch.Candidate> res = search.search(pool);
+            assertEquals(5, res.size());
+            assertEquals(search.numOrders() * 26 * 26
+                         + (rings ? 5 * 26 * 26 : 0), search.trials());
+            return res;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** The key of a message is the best one found, with any number of
+     *  threads, and the candidates are ordered best first. */
+    @Test(timeout = 60000)
+    public void recoverKey() {
+        String[] rotors = { "C", "III", "VII" };
+        String plain = plaintext(300);
+        String ciphertext = smallMachine(rotors, "KX", "").convert(plain);
+        List<KeySearch.Candidate> serial = search(ciphertext, 1, false);
+        assertEquals("* C III VII KX", serial.get(0).toString());
+        assertEquals(plain, decrypt(serial.get(0), ciphertext));
+        for (int k = 1; k < serial.size(); k += 1) {
+            assertTrue(serial.get(k - 1).score() >= serial.get(k).score());
+        }
+        List<KeySearch.Candidate> parallel = search(ciphertext, 4, false);
+        for (int k = 0; k < serial.size(); k += 1) {
+            assertEquals(serial.get(k).score(), parallel.get(k).score(),
+                         0);
+        }
+        assertEquals(serial.get(0).toString(), parallel.get(0).toString());
+    }
+
+    /** With the ring stage, a key with other ring settings is found
+     *  up to an equivalent key, which decrypts the whole message. */
+    @Test(timeout = 60000)
+    public void recoverRings() {
+        String[] rotors = { "B", "V", "II" };
+        String plain = plaintext(300);
+        String ciphertext =
+            smallMachine(rotors, "QD", "FM").convert(plain);
+        KeySearch.Candidate best = search(ciphertext, 4, true).get(0);
+        assertArrayEquals(rotors, best.rotors());
+        assertEquals(plain, decrypt(best, ciphertext));
+    }
+
+    /** A search among rotors that fit no rotor order is rejected. */
+    @Test(timeout = 10000)
+    public void noRotorOrder() {
+        Machine mach = noOrderMachine();
+        TextScorer scorer = new NgramScorer(mach.alphabet(), SAMPLE, 3);
+        int[] ciphertext = indices(mach.alphabet(), plaintext(50));
+        AlphabetTest.assertFails("no rotor order", () ->
+            new KeySearch(mach, ciphertext, null, scorer, 5));
+    }
+
+    /** Trigrams of the alphabet of all bytes, whose table has 2^24
+     *  entries, are scored without overflow at the largest indices. */
+    @Test
+    public void byteTrigrams() {
+        StringBuilder sample = new StringBuilder();
+        for (int k = 0; k < 300; k += 1) {
+            sample.append((char) (255 - k % 3));
+        }
+        sample.append("\u00ff\u00ff\u00ff");
+        NgramScorer scorer = new NgramScorer(Alphabet.bytes(), sample, 3);
+        int[] text = { 255, 255, 255, 255 };
+        double once = scorer.score(text, 3);
+        assertTrue(once > Math.log(0.1 / 300));
+        assertEquals(2 * once, scorer.score(text, 4), 1e-9);
+        assertEquals(once, scorer.score(new int[] { 0, 255, 255, 255 }, 4)
+                     - scorer.score(new int[] { 0, 255, 255 }, 3), 1e-9);
+    }
+}
@@ -0,0 +1,138 @@
+package enigma;
+
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Tests of the eviction and the counters of MachineCache.
+ *  @author Philipp Kurz
+ */
+public class MachineCacheTest {
+
+    /** Setting lines of the usual configuration, all of the same
+     *  length. */
+    private static final String[] LINES = {
+        "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)",
+        "* B Beta I II III AAAA (HQ) (EX) (IP) (TR) (BY)",
+        "* C Gamma V VI VII QRST (AB) (CD)",
+        "* B Beta VIII IV I ZZZZ ABCD (YZ)",
+    };
+
+    /** Return a machine of the usual configuration. */
+    private static Machine newMachine() {
+        return new ConfigParser("default.conf", MainTest.DEFAULT_CONFIG)
+            .parse();
+    }
+
+    /** Return the setting line LINE. */
+    private static SettingLine line(String line) {
+        return SettingLine.parse(line, 5);
+    }
+
+    /** Set up MACH with CACHE according to LINE and check that it
+     *  converts exactly as a machine set up without the cache. */
+    private static void apply(MachineCache cache, Machine mach,
+                              String line) {
+        cache.apply(line(line), mach);
+        Machine plain = newMachine();
+        line(line).apply(plain);
+        String msg = MachineTest.randomText(mach.alphabet(), 500,
+                                            new Random(line.hashCode()));
+        assertEquals(plain.convert(msg), mach.convert(msg));
+    }
+
+    /** Lines that differ only in spacing are hits, other lines misses. */
+    @Test
+    public void hitsAndMisses() {
+        MachineCache cache = new MachineCache(10, MachineCache.DEFAULT_BYTES);
+        assertTrue(cache.enabled());
+        Machine mach = newMachine();
+        apply(cache, mach, LINES[0]);
+        apply(cache, mach, LINES[1]);
+        apply(cache, mach, "*  B Beta  III IV\tI AXLE (HQ)(EX) (IP) (TR) "
+              + "(BY)");
+        apply(cache, mach.newMachine(), LINES[0]);
+        assertEquals(2, cache.hits());
+        assertEquals(2, cache.misses());
+        assertEquals(2, cache.size());
+        assertEquals(0, cache.evictions());
+        assertEquals("hits=2 misses=2 evictions=0 entries=2 bytes="
+                     + cache.bytes(), cache.summary());
+    }
+
+    /** The least recently used setup is evicted when the number of
+     *  entries is exceeded. */
+    @Test
+    public void evictByEntries() {
+        MachineCache cache = new MachineCache(2, MachineCache.DEFAULT_BYTES);
+        Machine mach = newMachine();
+        apply(cache, mach, LINES[0]);
+        apply(cache, mach, LINES[1]);
+        apply(cache, mach, LINES[0]);
+        apply(cache, mach, LINES[2]);
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.evictions());
+        apply(cache, mach, LINES[0]);
+        assertEquals(2, cache.hits());
+        apply(cache, mach, LINES[1]);
+        assertEquals(2, cache.hits());
+        assertEquals(4, cache.misses());
+        assertEquals(2, cache.evictions());
+    }
+
+    /** The least recently used setups are evicted when the estimated size
+     *  is exceeded, and setups larger than the whole cache are not
+     *  cached. */
+    @Test
+    public void evictByBytes() {
+        MachineCache probe = new MachineCache(10, MachineCache.DEFAULT_BYTES);
+        probe.apply(line(LINES[0]), newMachine());
+        long entry = probe.bytes();
+        assertTrue(entry > 0);
+        probe.apply(line(LINES[1]), newMachine());
+        assertEquals(2 * entry, probe.bytes());
+
+        MachineCache cache = new MachineCache(10, 2 * entry + entry / 2);
+        Machine mach = newMachine();
+        apply(cache, mach, LINES[0]);
+        apply(cache, mach, LINES[1]);
+        apply(cache, mach, LINES[0]);
+        apply(cache, mach, LINES[3]);
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.evictions());
+        assertTrue(cache.bytes() <= 2 * entry + entry / 2);
+        apply(cache, mach, LINES[0]);
+        assertEquals(2, cache.hits());
+
+        MachineCache tiny = new MachineCache(10, entry - 1);
+        apply(tiny, mach, LINES[0]);
+        apply(tiny, mach, LINES[0]);
+        assertEquals(0, tiny.size());
+        assertEquals(0, tiny.bytes());
+        assertEquals(2, tiny.misses());
+    }
+
+    /** A cache without entries caches nothing, and invalid setting lines
+     *  are not cached. */
+    @Test
+    public void nothingCached() {
+        MachineCache disabled = new MachineCache(0, 1000);
+        assertFalse(disabled.enabled());
+        Machine mach = newMachine();
+        apply(disabled, mach, LINES[0]);
+        apply(disabled, mach, LINES[0]);
+        assertEquals(0, disabled.size());
+        assertEquals(0, disabled.hits());
+
+        MachineCache cache = new MachineCache(10, MachineCache.DEFAULT_BYTES);
+        AlphabetTest.assertFails("unknown rotor", () ->
+            cache.apply(line("* B Beta III IV IX AXLE"), mach));
+        AlphabetTest.assertFails("unknown rotor again", () ->
+            cache.apply(line("* B Beta III IV IX AXLE"), mach));
+        assertEquals(0, cache.size());
+        assertEquals(2, cache.misses());
+        AlphabetTest.assertFails("negative size",
+                                 () -> new MachineCache(-1, 10));
+    }
+}
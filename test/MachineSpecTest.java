@@ -0,0 +1,201 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Tests of MachineSpec and MachineState: one specification shared by
+ *  machines and threads, each converting with its own states.
+ *  @author Philipp Kurz
+ */
+public class MachineSpecTest {
+
+    /** The alphabet of the tests. */
+    private static final Alphabet LETTERS =
+        new Alphabet("ABCDEFGHIJKLMNOPQRSTUVWXYZ");
+
+    /** Return the result of converting MSG with SPEC from a copy of
+     *  START. */
+    private static int[] convert(MachineSpec spec, MachineState start,
+                                 int[] msg) {
+        int[] res = msg.clone();
+        spec.convert(start.copy(), res, 0, res.length);
+        return res;
+    }
+
+    /** Threads converting with one specification, each from its own
+     *  copy of the same state, all produce what the machine does. */
+    @Test(timeout = 20000)
+    public void sharedByThreads() throws Exception {
+        Machine mach = MachineTest.randomMachine(LETTERS, 5, 3, 1);
+        MachineSpec spec = mach.spec();
+        MachineState start = mach.snapshot();
+        int[] msg = MachineTest.randomIndices(LETTERS, 100000, 2);
+        int[] expected = msg.clone();
+        mach.convert(expected, 0, expected.length);
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<int[]>> results = new ArrayList<>();
+            for (int k = 0; k < 8; k += 1) {
+                results.add(pool.submit(() -> convert(spec, start, msg)));
+            }
+            for (Future<int[]> result : results) {
+                assertArrayEquals(expected, result.get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(0, start.position());
+    }
+
+    /** Copies of a machine share its specification, and converting with
+     *  one of them leaves the others where they were. */
+    @Test
+    public void sharedByMachines() {
+        Machine mach = MachineTest.randomMachine(LETTERS, 6, 4, 3);
+        Machine other = mach.copy();
+        Machine third = mach.copy();
+        assertSame(mach.spec(), other.spec());
+        assertSame(mach.spec(), third.spec());
+        String msg = MachineTest.randomText(LETTERS, 1000, new Random(4));
+        String expected = other.convert(msg);
+        assertEquals(msg.length(), other.snapshot().position());
+        assertEquals(0, mach.snapshot().position());
+        assertEquals(expected, mach.convert(msg));
+        assertEquals(expected, third.convert(msg));
+    }
+
+    /** A restored snapshot converts exactly as from where it was taken,
+     *  including after the rotors have moved on. */
+    @Test
+    public void snapshotRestore() {
+        Machine mach = MachineTest.randomMachine(LETTERS, 5, 3, 5);
+        Random random = new Random(6);
+        mach.convert(MachineTest.randomText(LETTERS, 777, random));
+        MachineState state = mach.snapshot();
+        String msg = MachineTest.randomText(LETTERS, 2000, random);
+        String expected = mach.convert(msg);
+        assertEquals(777 + msg.length(), mach.snapshot().position());
+        mach.restore(state);
+        assertEquals(777, mach.snapshot().position());
+        assertEquals(expected, mach.convert(msg));
+        mach.restore(state);
+        assertEquals(expected.substring(0, 10),
+                     mach.convert(msg.substring(0, 10)));
+        assertEquals(777, state.position());
+    }
+
+    /** A specification with other ring settings converts as a machine
+     *  given those ring settings, and leaves the original unchanged. */
+    @Test
+    public void withRingSettings() {
+        Machine mach = MachineTest.randomMachine(LETTERS, 5, 3, 7);
+        MachineSpec spec = mach.spec();
+        int[] before = new int[spec.numRotors()];
+        for (int i = 0; i < before.length; i += 1) {
+            before[i] = spec.ringSetting(i);
+        }
+        MachineState start = mach.snapshot();
+        int[] msg = MachineTest.randomIndices(LETTERS, 3000, 8);
+        int[] expected = convert(spec, start, msg);
+
+        int[] rings = { 0, 3, 14, 25, 9 };
+        MachineSpec other = spec.withRingSettings(rings);
+        rings[2] = 0;
+        Machine ringed = MachineTest.randomMachine(LETTERS, 5, 3, 7);
+        ringed.setRingSetting("DOZJ");
+        ringed.restore(start);
+        int[] withRings = msg.clone();
+        ringed.convert(withRings, 0, withRings.length);
+        assertArrayEquals(withRings, convert(other, start, msg));
+        assertFalse(Arrays.equals(expected, withRings));
+        assertEquals(14, other.ringSetting(2));
+        assertFalse(other.generated());
+
+        for (int i = 0; i < before.length; i += 1) {
+            assertEquals(before[i], spec.ringSetting(i));
+        }
+        assertSame(spec, mach.spec());
+        assertArrayEquals(expected, convert(spec, start, msg));
+    }
+
+    /** Converting with given ring settings converts as a specification
+     *  with those ring settings does. */
+    @Test
+    public void convertWithRingSettings() {
+        MachineSpec spec = MachineTest.randomMachine(LETTERS, 5, 3, 9).spec();
+        MachineState start = MachineTest.randomMachine(LETTERS, 5, 3, 10)
+            .snapshot();
+        int[] msg = MachineTest.randomIndices(LETTERS, 3000, 11);
+        int[] rings = { 0, 0, 5, 17, 25 };
+        int[] withRings = msg.clone();
+        MachineState state = start.copy();
+        spec.convert(state, rings, withRings, 0, withRings.length);
+        assertArrayEquals(convert(spec.withRingSettings(rings), start, msg),
+                          withRings);
+        assertEquals(msg.length, state.position());
+    }
+
+    /** Add the rotor movements and double steps of the next step of SPEC
+     *  from SETTINGS to COUNTS, as the double-stepping rules give them. */
+    private static void countStep(MachineSpec spec, int[] settings,
+                                  long[] counts) {
+        int first = spec.numRotors() - spec.numPawls();
+        int last = spec.numRotors() - 1;
+        for (int i = first; i <= last; i += 1) {
+            if (i == last) {
+                counts[0] += 1;
+            } else if (spec.rotor(i + 1).notches()[settings[i + 1]]) {
+                counts[0] += 2;
+                counts[1] += i + 1 < last ? 1 : 0;
+                i += 1;
+            }
+        }
+    }
+
+    /** Advancing by N positions at once lands where N single steps do
+     *  and counts the same rotor movements and double steps, from any
+     *  settings of small rotors with any notches, adjacent ones
+     *  included. */
+    @Test(timeout = 60000)
+    public void advanceAtOnce() {
+        Random random = new Random(12);
+        for (String letters : new String[] { "AB", "ABCD", "ABCDEF" }) {
+            Alphabet alpha = new Alphabet(letters);
+            for (int pawls = 1; pawls <= 5; pawls += 1) {
+                for (int k = 0; k < 40; k += 1) {
+                    MachineSpec spec =
+                        MachineTest.randomMachine(alpha, pawls + 1, pawls,
+                                                  random.nextLong(),
+                                                  1 + k % letters.length())
+                        .spec();
+                    int[] start = new int[pawls + 1];
+                    for (int i = 1; i <= pawls; i += 1) {
+                        start[i] = random.nextInt(alpha.size());
+                    }
+                    int[] stepped = start.clone();
+                    long[] stepCounts = new long[2];
+                    for (int n = 0; n <= 300; n += 1) {
+                        int[] settings = start.clone();
+                        long[] counts = new long[2];
+                        spec.advance(settings, n, counts);
+                        String what = letters + ", pawls=" + pawls
+                            + ", start=" + Arrays.toString(start)
+                            + ", n=" + n;
+                        assertArrayEquals(what, stepped, settings);
+                        assertArrayEquals(what, stepCounts, counts);
+                        countStep(spec, stepped, stepCounts);
+                        spec.advance(stepped);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,389 @@
+package enigma;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+
+/** Tests of the conversion modes of Machine, each checked against plain
+ *  conversion of the same message with the same key.
+ *  @author Philipp Kurz
+ */
+public class MachineTest {
+
+    /** Return a machine over ALPHA with NUMROTORS slots and PAWLS pawls,
+     *  whose rotors, notches, settings, ring settings and plugboard are
+     *  chosen at random from SEED.  Every moving rotor has a few notches,
+     *  so that all of them advance within short messages. */
+    static Machine randomMachine(Alphabet alpha, int numRotors, int pawls,
+                                 long seed) {
+        return randomMachine(alpha, numRotors, pawls, seed, 3);
+    }
+
+    /** Return a machine as above whose moving rotors have up to NOTCHES
+     *  notches each, at random positions. */
+    static Machine randomMachine(Alphabet alpha, int numRotors, int pawls,
+                                 long seed, int notches) {
+        Random random = new Random(seed);
+        int size = alpha.size();
+        HashMap<String, Rotor> rotors = new HashMap<>();
+        String[] names = new String[numRotors];
+        names[0] = "B";
+        rotors.put("B", new Reflector("B", randomPairs(alpha, random)));
+        for (int i = 1; i < numRotors; i += 1) {
+            names[i] = "R" + i;
+            Permutation perm = randomPermutation(alpha, random);
+            if (i < numRotors - pawls) {
+                rotors.put(names[i], new FixedRotor(names[i], perm));
+            } else {
+                boolean[] isNotch = new boolean[size];
+                for (int k = 0; k < notches; k += 1) {
+                    isNotch[random.nextInt(size)] = true;
+                }
+                rotors.put(names[i],
+                           new MovingRotor(names[i], perm, isNotch));
+            }
+        }
+        Machine mach = new Machine(alpha, numRotors, pawls, rotors);
+        mach.insertRotors(names);
+        mach.setRotors(randomText(alpha, numRotors - 1, random));
+        mach.setRingSetting(randomText(alpha, numRotors - 1, random));
+        mach.setPlugboard(randomPairs(alpha, random));
+        return mach;
+    }
+
+    /** Return a random permutation of the indices of ALPHA from
+     *  RANDOM. */
+    static Permutation randomPermutation(Alphabet alpha, Random random) {
+        int[] order = shuffled(alpha.size(), random);
+        return new Permutation(order, alpha);
+    }
+
+    /** Return a random permutation of the indices of ALPHA from RANDOM
+     *  that consists of cycles of length two only.  The size of ALPHA
+     *  must be even. */
+    static Permutation randomPairs(Alphabet alpha, Random random) {
+        int[] order = shuffled(alpha.size(), random);
+        int[] forward = new int[order.length];
+        for (int i = 0; i < order.length; i += 2) {
+            forward[order[i]] = order[i + 1];
+            forward[order[i + 1]] = order[i];
+        }
+        return new Permutation(forward, alpha);
+    }
+
+    /** Return the numbers 0 .. SIZE - 1 in an order chosen by RANDOM. */
+    static int[] shuffled(int size, Random random) {
+        int[] res = new int[size];
+        for (int i = 0; i < size; i += 1) {
+            res[i] = i;
+        }
+        for (int i = size - 1; i > 0; i -= 1) {
+            int k = random.nextInt(i + 1);
+            int tmp = res[i];
+            res[i] = res[k];
+            res[k] = tmp;
+        }
+        return res;
+    }
+
+    /** Return LEN characters of ALPHA chosen by RANDOM. */
+    static String randomText(Alphabet alpha, int len, Random random) {
+        char[] res = new char[len];
+        for (int i = 0; i < len; i += 1) {
+            res[i] = alpha.toChar(random.nextInt(alpha.size()));
+        }
+        return new String(res);
+    }
+
+    /** Return LEN random indices into ALPHA from SEED. */
+    static int[] randomIndices(Alphabet alpha, int len, long seed) {
+        Random random = new Random(seed);
+        int[] res = new int[len];
+        for (int i = 0; i < len; i += 1) {
+            res[i] = random.nextInt(alpha.size());
+        }
+        return res;
+    }
+
+    /** Return the number of bytes allocated by the current thread so
+     *  far, or -1 if the JVM does not count them. */
+    static long allocatedBytes() {
+        if (!THREADS.isThreadAllocatedMemorySupported()
+            || !THREADS.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        return THREADS.getCurrentThreadAllocatedBytes();
+    }
+
+    /** Convert every index of MSG with MACH, TIMES times, and return the
+     *  sum of the results. */
+    private static long convertAll(Machine mach, int[] msg, int times) {
+        long sum = 0;
+        for (int k = 0; k < times; k += 1) {
+            for (int c : msg) {
+                sum += mach.convert(c);
+            }
+        }
+        return sum;
+    }
+
+    /** Once the machine is set up, convert(int) allocates no memory, over
+     *  a letter alphabet and over the alphabet of all bytes. */
+    @Test
+    public void convertAllocatesNothing() {
+        assumeTrue(allocatedBytes() >= 0);
+        Alphabet[] alphabets = {
+            new Alphabet("ABCDEFGHIJKLMNOPQRSTUVWXYZ"), Alphabet.bytes()
+        };
+        for (Alphabet alpha : alphabets) {
+            Machine mach = randomMachine(alpha, 5, 3, alpha.size());
+            int[] msg = randomIndices(alpha, 1000, alpha.size());
+            long sum = convertAll(mach, msg, WARMUP_CALLS / msg.length);
+            long before = allocatedBytes();
+            sum += convertAll(mach, msg, MEASURED_CALLS / msg.length);
+            long bytes = allocatedBytes() - before;
+            assertTrue(sum > 0);
+            assertEquals("bytes allocated by " + MEASURED_CALLS
+                         + " calls over an alphabet of " + alpha.size()
+                         + " characters", 0, bytes);
+        }
+    }
+
+    /** Keystream table mode over the alphabet of all bytes, whose table
+     *  stores indices of 128 and more as negative bytes. */
+    @Test
+    public void keystreamTableBytes() {
+        Alphabet alpha = Alphabet.bytes();
+        for (int pawls = 1; pawls <= 2; pawls += 1) {
+            Machine plain = randomMachine(alpha, 4, pawls, pawls);
+            Machine table = randomMachine(alpha, 4, pawls, pawls);
+            assertTrue(table.setKeystreamTable(true));
+            int[] msg = randomIndices(alpha, 3 * alpha.size() + 17, pawls);
+            for (int i = 0; i < msg.length; i += 1) {
+                assertEquals("pawls=" + pawls + ", character " + i,
+                             plain.convert(msg[i]), table.convert(msg[i]));
+            }
+
+            byte[] bytes = new byte[msg.length];
+            for (int i = 0; i < msg.length; i += 1) {
+                bytes[i] = (byte) msg[i];
+            }
+            ByteBuffer expected = ByteBuffer.wrap(bytes.clone());
+            ByteBuffer actual = ByteBuffer.wrap(bytes.clone());
+            plain.convert(expected);
+            table.convert(actual);
+            assertArrayEquals("pawls=" + pawls, expected.array(),
+                              actual.array());
+        }
+    }
+
+    /** Keystream table mode converts like plain conversion through
+     *  convert(int), convert(String) and convert(int[], int, int), across
+     *  notches and after new rotor settings. */
+    @Test
+    public void keystreamTable() {
+        Alphabet alpha = new Alphabet("ABCDEFGHIJKLMNOPQRSTUVWXYZ");
+        for (int pawls = 1; pawls <= 4; pawls += 1) {
+            Machine plain = randomMachine(alpha, 6, pawls, pawls);
+            Machine table = randomMachine(alpha, 6, pawls, pawls);
+            assertTrue(table.setKeystreamTable(true));
+            Random random = new Random(pawls);
+            for (int k = 0; k < 3; k += 1) {
+                String setting = randomText(alpha, 5, random);
+                plain.setRotors(setting);
+                table.setRotors(setting);
+                String msg = randomText(alpha, 2000, random);
+                assertEquals("pawls=" + pawls + ", setting " + setting,
+                             plain.convert(msg), table.convert(msg));
+                int[] expected = randomIndices(alpha, 2000, k);
+                int[] actual = expected.clone();
+                plain.convert(expected, 0, expected.length);
+                table.convert(actual, 0, actual.length);
+                assertArrayEquals(expected, actual);
+                for (int i = 0; i < 100; i += 1) {
+                    assertEquals(plain.convert(i % 26),
+                                 table.convert(i % 26));
+                }
+            }
+        }
+    }
+
+    /** convertParallel converts exactly like convert, at offsets into
+     *  the arrays and across the boundaries of its chunks and the notches
+     *  of the rotors, with and without keystream tables, and leaves the
+     *  rotors where convert does. */
+    @Test
+    public void convertParallel() {
+        Alphabet alpha = new Alphabet("ABCDEFGHIJKLMNOPQRSTUVWXYZ");
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            int[] lengths = {
+                Machine.PARALLEL_CHUNK, Machine.PARALLEL_CHUNK + 1,
+                5 * Machine.PARALLEL_CHUNK + 12345
+            };
+            for (int pawls = 1; pawls <= 4; pawls += 1) {
+                for (boolean table : new boolean[] { false, true }) {
+                    Machine serial = randomMachine(alpha, 5, pawls, pawls);
+                    Machine parallel = randomMachine(alpha, 5, pawls, pawls);
+                    assertEquals(table, parallel.setKeystreamTable(table));
+                    Random random = new Random(pawls);
+                    int len = lengths[pawls % lengths.length];
+                    char[] in =
+                        randomText(alpha, len + 7, random).toCharArray();
+                    char[] expected = new char[len + 3];
+                    char[] actual = new char[len + 3];
+                    serial.convert(in, 7, len, expected, 3);
+                    parallel.convertParallel(in, 7, len, actual, 3, pool);
+                    assertArrayEquals("pawls=" + pawls + ", table=" + table,
+                                      expected, actual);
+                    String rest = randomText(alpha, 100, random);
+                    assertEquals(serial.convert(rest),
+                                 parallel.convert(rest));
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** A keystream cache must have room for a prefix over the alphabet
+     *  of the machine, so that no prefix is computed that it would
+     *  drop. */
+    @Test
+    public void keystreamCacheTooSmall() {
+        Machine mach = randomMachine(Alphabet.bytes(), 4, 2, 1);
+        mach.setKeystreamCache(new KeystreamCache(1000, 256 * 1000 + 80));
+        try {
+            mach.setKeystreamCache(new KeystreamCache(1000, 256 * 1000));
+            fail("keystream cache too small for its prefixes accepted");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+        try {
+            mach.setKeystreamCache(new KeystreamCache(1 << 24, 1L << 40));
+            fail("keystream prefixes larger than an array accepted");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+    }
+
+    /** seek sets the rotors as converting the characters before the
+     *  offset does, with one to five pawls, few and many notches, over
+     *  letters and over the alphabet of all bytes. */
+    @Test
+    public void seek() {
+        Alphabet[] alphabets = {
+            new Alphabet("ABCDEFGHIJKLMNOPQRSTUVWXYZ"), Alphabet.bytes()
+        };
+        for (Alphabet alpha : alphabets) {
+            for (int pawls = 1; pawls <= 5; pawls += 1) {
+                for (int notches : new int[] { 1, 3, alpha.size() / 2 }) {
+                    String what = "alphabet size " + alpha.size()
+                        + ", pawls=" + pawls + ", notches=" + notches;
+                    Machine replay =
+                        randomMachine(alpha, pawls + 2, pawls, pawls, notches);
+                    Machine seeking =
+                        randomMachine(alpha, pawls + 2, pawls, pawls, notches);
+                    Random random = new Random(notches);
+                    long position = 0;
+                    for (int k = 0; k < 40; k += 1) {
+                        long offset = position + random.nextInt(20000);
+                        for (; position < offset; position += 1) {
+                            replay.convert(0);
+                        }
+                        seeking.seek(offset);
+                        for (int i = 0; i < 30; i += 1) {
+                            assertEquals(what + ", offset " + offset,
+                                         replay.convert(i % alpha.size()),
+                                         seeking.convert(i % alpha.size()));
+                        }
+                        position += 30;
+                    }
+                }
+            }
+        }
+    }
+
+    /** seek goes far beyond the period of the rotors of large machines at
+     *  once, and lands where seeking a little less and converting the
+     *  rest does. */
+    @Test(timeout = 20000)
+    public void seekFar() {
+        Machine[] machines = {
+            randomMachine(Alphabet.bytes(), 6, 4, 1),
+            randomMachine(new Alphabet("ABCDEFGHIJKLMNOPQRSTUVWXYZ"), 9, 7,
+                          2),
+        };
+        long[] offsets = { (1L << 33) + 12345, (1L << 31) + 12345 };
+        for (int k = 0; k < machines.length; k += 1) {
+            Machine mach = machines[k], other = mach.copy();
+            long offset = offsets[k];
+            mach.seek(offset);
+            other.seek(offset - 500);
+            for (int i = 0; i < 500; i += 1) {
+                other.convert(0);
+            }
+            for (int i = 0; i < 100; i += 1) {
+                int c = i % mach.alphabet().size();
+                assertEquals(other.convert(c), mach.convert(c));
+            }
+        }
+    }
+
+    /** countSteps counts the rotor movements and double steps that
+     *  taking the steps of a message one by one shows. */
+    @Test
+    public void countSteps() {
+        Alphabet alpha = new Alphabet("ABCDEFGHIJKLMNOPQRSTUVWXYZ");
+        for (int pawls = 1; pawls <= 5; pawls += 1) {
+            for (int notches : new int[] { 1, 3, 13 }) {
+                Machine mach =
+                    randomMachine(alpha, pawls + 2, pawls, pawls, notches);
+                MachineSpec spec = mach.spec();
+                int[] settings = mach.snapshot().settings();
+                int first = spec.numRotors() - pawls;
+                int last = spec.numRotors() - 1;
+                long moves = 0;
+                long doubleSteps = 0;
+                for (int k = 0; k < 50000; k += 1) {
+                    for (int i = first; i <= last; i += 1) {
+                        if (i == last) {
+                            moves += 1;
+                        } else if (spec.rotor(i + 1)
+                                   .notches()[settings[i + 1]]) {
+                            moves += 2;
+                            doubleSteps += i + 1 < last ? 1 : 0;
+                            i += 1;
+                        }
+                    }
+                    spec.advance(settings);
+                    mach.convert(0);
+                }
+                long[] counts = new long[2];
+                mach.countSteps(counts);
+                String what = "pawls=" + pawls + ", notches=" + notches;
+                assertEquals(what, moves, counts[0]);
+                assertEquals(what, doubleSteps, counts[1]);
+            }
+        }
+    }
+
+    /** Thread bean counting allocated bytes.  It is looked up once,
+     *  since the lookup itself allocates. */
+    private static final com.sun.management.ThreadMXBean THREADS =
+        (com.sun.management.ThreadMXBean)
+        ManagementFactory.getThreadMXBean();
+
+    /** Number of calls of convert(int) before allocation is measured, so
+     *  that the compiled code is measured. */
+    private static final int WARMUP_CALLS = 2_000_000;
+
+    /** Number of calls of convert(int) whose allocation is measured. */
+    private static final int MEASURED_CALLS = 1_000_000;
+}
@@ -0,0 +1,134 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Tests of Main on files, in particular of its parallel pipeline, whose
+ *  output must be that of serial processing.
+ *  @author Philipp Kurz
+ */
+public class MainTest {
+
+    /** Return a new temporary file holding TEXT. */
+    static Path tempFile(String text) throws IOException {
+        Path res = Files.createTempFile("enigma", ".txt");
+        Files.write(res, text.getBytes(StandardCharsets.ISO_8859_1));
+        return res;
+    }
+
+    /** Return the output of Main with the options OPTIONS on the
+     *  configuration file CONFIG and the input file INPUT. */
+    private static String run(Path config, Path input, String... options)
+        throws IOException {
+        Path output = Files.createTempFile("enigma", ".out");
+        try {
+            List<String> args = new ArrayList<>();
+            Collections.addAll(args, options);
+            Collections.addAll(args, config.toString(), input.toString(),
+                               output.toString());
+            Main.main(args.toArray(new String[0]));
+            return new String(Files.readAllBytes(output),
+                              StandardCharsets.ISO_8859_1);
+        } finally {
+            Files.delete(output);
+        }
+    }
+
+    /** Return an input of NUMMESSAGES messages for DEFAULT_CONFIG with
+     *  random setting lines, a few of which recur, and random message
+     *  lines from RANDOM. */
+    private static String randomInput(int numMessages, Random random) {
+        Alphabet alpha = new Alphabet();
+        String[] settings = new String[numMessages / 4 + 1];
+        for (int k = 0; k < settings.length; k += 1) {
+            List<String> rotors = new ArrayList<>(List.of(
+                "I", "II", "III", "IV", "V", "VI", "VII", "VIII"));
+            Collections.shuffle(rotors, random);
+            settings[k] = "* " + (random.nextBoolean() ? "B " : "C ")
+                + (random.nextBoolean() ? "Beta " : "Gamma ")
+                + String.join(" ", rotors.subList(0, 3)) + " "
+                + MachineTest.randomText(alpha, 4, random)
+                + (random.nextBoolean() ? " "
+                   + MachineTest.randomText(alpha, 4, random) : "")
+                + " (AQ) (BZ)";
+        }
+        StringBuilder res = new StringBuilder();
+        for (int k = 0; k < numMessages; k += 1) {
+            res.append(settings[random.nextInt(settings.length)])
+                .append('\n');
+            int lines = random.nextInt(4);
+            for (int i = 0; i < lines; i += 1) {
+                int len = random.nextInt(10) == 0 ? 10000
+                    : random.nextInt(60);
+                res.append(MachineTest.randomText(alpha, len, random)
+                           .replaceAll("(.{7})", "$1 "))
+                    .append(random.nextBoolean() ? "\n" : "\r\n");
+            }
+        }
+        return res.toString();
+    }
+
+    /** The first lines of the usual sample message. */
+    @Test
+    public void convert() throws IOException {
+        Path config = tempFile(DEFAULT_CONFIG);
+        Path input = tempFile("* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) "
+                              + "(BY)\nFROM HIS SHOULDER HIAWATHA\n"
+                              + "TOOK THE CAMERA OF ROSEWOOD\n");
+        try {
+            assertEquals("YHXLL FMNXZ PEUVY KBRAM FGF\r\n"
+                         + "HKCQB DJKFE MQDJL EKKLP QDH\r\n",
+                         run(config, input));
+        } finally {
+            Files.delete(config);
+            Files.delete(input);
+        }
+    }
+
+    /** Messages converted in parallel are written in input order, exactly
+     *  as serially, with and without the machine cache. */
+    @Test
+    public void parallel() throws IOException {
+        Path config = tempFile(DEFAULT_CONFIG);
+        Path input = tempFile(randomInput(500, new Random(1)));
+        try {
+            String serial = run(config, input);
+            assertEquals(serial, run(config, input, "--threads=4"));
+            assertEquals(serial, run(config, input, "--threads=3",
+                                     "--machine-cache=0"));
+            assertEquals(serial, run(config, input, "--threads=2",
+                                     "--keystream-cache=20"));
+        } finally {
+            Files.delete(config);
+            Files.delete(input);
+        }
+    }
+
+    /** The usual configuration with the rotors of the Enigma M4. */
+    static final String DEFAULT_CONFIG =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZ\n"
+        + "5 3\n"
+        + "I MQ      (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)\n"
+        + "II ME     (FIXVYOMW) (CDKLHUP) (ESZ) (BJ) (GR) (NT) (A) (Q)\n"
+        + "III MV    (ABDHPEJT) (CMRWIVSF) (GOXUNLQ) (YK) (Z)\n"
+        + "IV MJ     (AEPLIYWCOXMRFZBSTGJQNH) (DV) (KU)\n"
+        + "V MZ      (AVOLDRWFIUQ)(BZKSMNHYC) (EGTJPX)\n"
+        + "VI MZM    (AJQDVLEOZWIYTS) (CGMNHFUX) (BPRK)\n"
+        + "VII MZM   (ANOUPFRIMBZTLWKSVEGCJYDHXQ)\n"
+        + "VIII MZM  (AFLSETWUNDHOZVICQ) (BKJ) (GRYM) (PX)\n"
+        + "Beta N    (ALBEVFCYODJWUGNMQTZSKPR) (HIX)\n"
+        + "Gamma N   (AFNIRLBSQWVXGUZDKMTPCOYJHE)\n"
+        + "B R       (AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP)\n"
+        + "          (RX) (SZ) (TV)\n"
+        + "C R       (AR) (BD) (CO) (EJ) (FN) (GT) (HK) (IV) (LM) (PW)\n"
+        + "          (QZ) (SX) (UY)\n";
+}
@@ -0,0 +1,159 @@
+package enigma;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Tests of MessageInput over mapped files and over other channels,
+ *  including channels that deliver a few bytes at a time.
+ *  @author Philipp Kurz
+ */
+public class MessageInputTest {
+
+    /** A channel that delivers bytes a few at a time. */
+    private static class Trickle implements ReadableByteChannel {
+
+        /** A channel delivering BYTES, CHUNK bytes at a time. */
+        Trickle(byte[] bytes, int chunk) {
+            _in = Channels.newChannel(new ByteArrayInputStream(bytes));
+            _chunk = chunk;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            ByteBuffer part = dst.duplicate();
+            part.limit(Math.min(dst.limit(), dst.position() + _chunk));
+            int n = _in.read(part);
+            if (n > 0) {
+                dst.position(dst.position() + n);
+            }
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return _in.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            _in.close();
+        }
+
+        /** Underlying channel. */
+        private final ReadableByteChannel _in;
+
+        /** Maximum number of bytes per read. */
+        private final int _chunk;
+    }
+
+    /** Return the setting lines of INPUT, prefixed by "S:", and its message
+     *  lines without blanks and tabs, prefixed by "M:", read as Main does
+     *  with a buffer of BUFSIZE characters. */
+    private static List<String> lines(MessageInput input, int bufSize) {
+        List<String> res = new ArrayList<>();
+        if (!input.skipToSetting()) {
+            res.add("no setting");
+            return res;
+        }
+        char[] buf = new char[bufSize];
+        while (input.hasNextLine()) {
+            res.add("S:" + input.nextLine());
+            while (input.hasNextLine() && !input.atSetting()) {
+                StringBuilder line = new StringBuilder();
+                do {
+                    line.append(buf, 0, input.readMessage(buf));
+                } while (!input.lineEnded());
+                res.add("M:" + line);
+            }
+        }
+        return res;
+    }
+
+    /** Check that TEXT is read as EXPECTED from a mapped file and from
+     *  channels delivering all or a few bytes at a time, with small and
+     *  large buffers. */
+    private static void check(String text, String... expected)
+        throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.ISO_8859_1);
+        List<String> want = Arrays.asList(expected);
+        Path file = Files.createTempFile("enigma", ".in");
+        try {
+            Files.write(file, bytes);
+            for (int bufSize : new int[] { 1, 3, 100 }) {
+                try (FileChannel channel = FileChannel.open(file)) {
+                    assertEquals("mapped, buffer " + bufSize, want,
+                                 lines(new MessageInput(channel), bufSize));
+                }
+                assertEquals("stream, buffer " + bufSize, want,
+                             lines(new MessageInput(
+                                 new Trickle(bytes, bytes.length + 1)),
+                                   bufSize));
+                assertEquals("trickle, buffer " + bufSize, want,
+                             lines(new MessageInput(new Trickle(bytes, 2)),
+                                   bufSize));
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /** Setting lines and message lines with every kind of line end. */
+    @Test
+    public void lineEnds() throws IOException {
+        check("* B I II AB\nHELLO WORLD\n* B II I CD\nBYE\n",
+              "S:* B I II AB", "M:HELLOWORLD", "S:* B II I CD", "M:BYE");
+        check("* B I II AB\r\nHELLO WORLD\r\n\r\nAB\tC\r\n",
+              "S:* B I II AB", "M:HELLOWORLD", "M:", "M:ABC");
+        check("* B I II AB\rHEL LO\rX",
+              "S:* B I II AB", "M:HELLO", "M:X");
+    }
+
+    /** Leading whitespace, a missing final line end, and a '*' that is not
+     *  at the beginning of a line. */
+    @Test
+    public void edges() throws IOException {
+        check("\n\n  \t\n* B I II AB\nA*B\nC", "S:* B I II AB", "M:A*B",
+              "M:C");
+        check("X\n* B I II AB\n", "no setting");
+        check("", "no setting");
+        check("* B I II AB", "S:* B I II AB");
+    }
+
+    /** A message line much longer than the buffers. */
+    @Test
+    public void longLine() throws IOException {
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < 100000; i += 1) {
+            line.append((char) ('A' + i % 26));
+        }
+        check("* B I II AB\n" + line + "\n", "S:* B I II AB", "M:" + line);
+    }
+
+    /** Tokens of a setting line. */
+    @Test
+    public void tokens() throws IOException {
+        MessageInput input = new MessageInput(
+            new Trickle("*B  I\tII\nAB\n".getBytes(
+                StandardCharsets.ISO_8859_1), 1));
+        assertTrue(input.skipToSetting());
+        assertEquals("*B", input.next());
+        assertEquals("I", input.next());
+        assertEquals("\tII", input.nextLine());
+        assertFalse(input.atSetting());
+        assertEquals("AB", input.nextLine());
+        assertFalse(input.hasNextLine());
+    }
+}
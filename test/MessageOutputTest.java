@@ -0,0 +1,114 @@
+package enigma;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Tests of the grouping and buffering of MessageOutput.
+ *  @author Philipp Kurz
+ */
+public class MessageOutputTest {
+
+    /** Return LINE in groups of five separated by blanks. */
+    private static String grouped(String line) {
+        StringBuilder res = new StringBuilder();
+        for (int i = 0; i < line.length(); i += 5) {
+            if (i > 0) {
+                res.append(' ');
+            }
+            res.append(line, i, Math.min(line.length(), i + 5));
+        }
+        return res.toString();
+    }
+
+    /** Write LINES to OUT, each in pieces of random lengths from RANDOM,
+     *  and return what they should look like. */
+    private static String writeLines(MessageOutput out, String[] lines,
+                                     Random random) {
+        StringBuilder expected = new StringBuilder();
+        for (String line : lines) {
+            char[] chars = ("xx" + line + "yy").toCharArray();
+            for (int i = 2; i < chars.length - 2;) {
+                int len = Math.min(chars.length - 2 - i,
+                                   random.nextInt(12));
+                out.write(chars, i, len);
+                i += len;
+            }
+            out.endLine();
+            expected.append(grouped(line)).append("\r\n");
+        }
+        return expected.toString();
+    }
+
+    /** Return lines of random letters, some of them empty and one longer
+     *  than the buffer. */
+    private static String[] randomLines(Random random) {
+        String[] res = new String[40];
+        Alphabet alpha = new Alphabet();
+        for (int k = 0; k < res.length; k += 1) {
+            int len = k == 7 ? 3 * MessageOutput.BUFFER_SIZE + 1
+                : random.nextInt(4) == 0 ? 0 : random.nextInt(50);
+            res[k] = MachineTest.randomText(alpha, len, random);
+        }
+        return res;
+    }
+
+    /** Groups of five continue across the pieces of a line, and restart
+     *  on every line, on streams. */
+    @Test
+    public void stream() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        MessageOutput out = new MessageOutput(bytes);
+        Random random = new Random(1);
+        String expected = writeLines(out, randomLines(random), random);
+        out.writeText("Error: x y");
+        out.endLine();
+        out.close();
+        assertEquals(expected + "Error: x y\r\n",
+                     new String(bytes.toByteArray(),
+                                StandardCharsets.ISO_8859_1));
+    }
+
+    /** The same on files, which are closed by close. */
+    @Test
+    public void file() throws IOException {
+        Path path = Files.createTempFile("enigma", ".out");
+        try {
+            FileChannel channel =
+                FileChannel.open(path, StandardOpenOption.WRITE);
+            MessageOutput out = new MessageOutput(channel);
+            Random random = new Random(2);
+            String expected = writeLines(out, randomLines(random), random);
+            out.close();
+            assertFalse(channel.isOpen());
+            assertEquals(expected,
+                         new String(Files.readAllBytes(path),
+                                    StandardCharsets.ISO_8859_1));
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    /** Output is only written when the buffer fills or on flush. */
+    @Test
+    public void flush() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        MessageOutput out = new MessageOutput(bytes);
+        out.write("HELLOWORLD".toCharArray(), 0, 10);
+        assertEquals(0, bytes.size());
+        out.flush();
+        assertEquals("HELLO WORLD", bytes.toString());
+        out.write("X".toCharArray(), 0, 1);
+        out.endLine();
+        out.flush();
+        assertEquals("HELLO WORLD X\r\n", bytes.toString());
+    }
+}